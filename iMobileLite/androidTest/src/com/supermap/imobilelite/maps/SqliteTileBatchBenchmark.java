@@ -0,0 +1,220 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Environment;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * <p>
+ * 离线瓦片整屏读取的基准测试：比较逐个瓦片查询与{@link SqliteTileCache#expectTiles}登记后一次查询整屏瓦片的耗时，
+ * 并检查两种方式读出的内容一致。下载线程数与地图默认的并发数相同。
+ * </p>
+ * <p>
+ * 离线数据库须放在SD卡的supermap/sqlite目录，被测应用没有SD卡写权限时跳过。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class SqliteTileBatchBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = "com.supermap.android.maps.sqlitetilebatchbenchmark";
+    private static final String LAYER = "benchmark_screen_fill";
+    private static final int LEVEL = 12;
+    private static final double LEVEL_RESOLUTION = 156543.033928 / (1 << LEVEL);
+    // 库中瓦片范围为GRID×GRID
+    private static final int GRID = 32;
+    // 一屏瓦片为6列4行
+    private static final int SCREEN_COLUMNS = 6;
+    private static final int SCREEN_ROWS = 4;
+    private static final int TILE_BYTES = 8 * 1024;
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 50;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        File dir = new File(Environment.getExternalStorageDirectory(), SqliteTileSourceFactory.SQLITE_CACHE_DIRECTORY);
+        this.file = new File(dir, LAYER + ".mbtiles");
+        if (!this.file.exists()) {
+            createDatabase(this.file);
+        }
+        SqliteTileSourceFactory.getInstance().setLayerResolutionInfo(LAYER, 1.0, LEVEL_RESOLUTION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SqliteTileSourceFactory.getInstance().dispose();
+        if (this.file != null) {
+            this.file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testScreenFill() throws Exception {
+        if (!this.file.exists()) {
+            Log.w(LOG_TAG, "no writable sd card, skipped");
+            return;
+        }
+        assertTrue(SqliteTileSourceFactory.getInstance().openSQLiteDatabase(LAYER));
+        // 预热连接池和页缓存
+        fillPerTile(screenTiles(0));
+        fillBatched(screenTiles(0));
+
+        long perTile = 0;
+        long batched = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // 每轮平移到不同位置，避免读取刚读过的页
+            int offset = round % (GRID - SCREEN_COLUMNS);
+            long start = System.nanoTime();
+            byte[][] expected = fillPerTile(screenTiles(offset));
+            perTile += System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[][] actual = fillBatched(screenTiles(offset));
+            batched += System.nanoTime() - start;
+            for (int i = 0; i < expected.length; i++) {
+                assertNotNull(expected[i]);
+                assertTrue(Arrays.equals(expected[i], actual[i]));
+            }
+        }
+        Log.i(LOG_TAG, "screen fill of " + SCREEN_COLUMNS * SCREEN_ROWS + " tiles with " + THREADS + " threads: per tile "
+                + perTile / ROUNDS / 1000 + " us, batched " + batched / ROUNDS / 1000 + " us");
+    }
+
+    public void testSparseScreenIsReadTileByTile() throws Exception {
+        if (!this.file.exists()) {
+            Log.w(LOG_TAG, "no writable sd card, skipped");
+            return;
+        }
+        assertTrue(SqliteTileSourceFactory.getInstance().openSQLiteDatabase(LAYER));
+        // 两张相距很远的瓦片，批量查询的范围过大，改为锁外逐个读取
+        List<Tile> tiles = new ArrayList<Tile>();
+        tiles.add(newTile(0, 0));
+        tiles.add(newTile(GRID - 1, GRID - 1));
+        tiles.add(newTile(GRID + 4, GRID + 4));
+        assertNull(SqliteTileSourceFactory.getInstance().getTilesBytes(LAYER, 1.0, tiles));
+        byte[][] bytes = fillBatched(tiles);
+        assertNotNull(bytes[0]);
+        assertNotNull(bytes[1]);
+        // 库中没有的瓦片
+        assertNull(bytes[2]);
+    }
+
+    private List<Tile> screenTiles(int offset) {
+        List<Tile> tiles = new ArrayList<Tile>(SCREEN_COLUMNS * SCREEN_ROWS);
+        for (int row = 0; row < SCREEN_ROWS; row++) {
+            for (int column = 0; column < SCREEN_COLUMNS; column++) {
+                tiles.add(newTile(offset + column, offset + row));
+            }
+        }
+        return tiles;
+    }
+
+    private static Tile newTile(int x, int y) {
+        Tile tile = new Tile(x, y, 0, 0, LEVEL, "benchmark", LAYER);
+        tile.setScale(1.0);
+        return tile;
+    }
+
+    private byte[][] fillPerTile(final List<Tile> tiles) throws Exception {
+        return fill(tiles, new Reader() {
+            public byte[] read(Tile tile) {
+                return SqliteTileSourceFactory.getInstance().getTileBytes(tile);
+            }
+        });
+    }
+
+    private byte[][] fillBatched(final List<Tile> tiles) throws Exception {
+        final SqliteTileCache cache = new SqliteTileCache();
+        cache.expectTiles(tiles);
+        return fill(tiles, new Reader() {
+            public byte[] read(Tile tile) {
+                return cache.getTile(tile).getBytes();
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * 像下载线程一样由多个线程分别读取各瓦片。
+     * </p>
+     */
+    private byte[][] fill(List<Tile> tiles, final Reader reader) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(tiles.size());
+            for (final Tile tile : tiles) {
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() {
+                        return reader.read(tile);
+                    }
+                }));
+            }
+            byte[][] results = new byte[tiles.size()][];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void createDatabase(File file) {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "create " + file + " failed: " + e.getMessage());
+            return;
+        }
+        try {
+            db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB);");
+            db.execSQL("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row);");
+            Random random = new Random(1);
+            byte[] data = new byte[TILE_BYTES];
+            db.beginTransaction();
+            SQLiteStatement insert = db.compileStatement("INSERT INTO tiles VALUES (?,?,?,?);");
+            try {
+                for (int x = 0; x < GRID; x++) {
+                    for (int y = 0; y < GRID; y++) {
+                        random.nextBytes(data);
+                        insert.bindLong(1, LEVEL);
+                        insert.bindLong(2, x);
+                        // MBTiles的行号以左下角为原点
+                        insert.bindLong(3, (1 << LEVEL) - 1 - y);
+                        insert.bindBlob(4, data);
+                        insert.executeInsert();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                insert.close();
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private static abstract interface Reader {
+        public abstract byte[] read(Tile tile);
+    }
+}
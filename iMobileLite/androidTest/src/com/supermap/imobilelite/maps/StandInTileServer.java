@@ -0,0 +1,164 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * 测试用的本机瓦片服务器，代替真实的地图服务。
+ * </p>
+ * <p>
+ * 对任意路径返回固定内容的瓦片，可以为指定路径设置先返回若干次的状态码（如500、404）和每个响应的延迟，并统计每个路径被请求的次数。
+ * 每个连接只处理一个请求，响应后关闭。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class StandInTileServer {
+    static final byte[] TILE_BYTES = new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3, 4 };
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentHashMap<String, Failure> failures = new ConcurrentHashMap<String, Failure>();
+    private final AtomicInteger totalRequests = new AtomicInteger();
+    private volatile long delay;
+
+    StandInTileServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.executor.execute(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * 获取服务地址，如http://127.0.0.1:端口。
+     * </p>
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * <p>
+     * 设置每个响应的延迟，单位毫秒。
+     * </p>
+     */
+    void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * <p>
+     * 指定路径的前times次请求返回statusCode，之后正常返回瓦片。
+     * </p>
+     */
+    void failPath(String path, int statusCode, int times) {
+        this.failures.put(path, new Failure(statusCode, times));
+    }
+
+    int getRequestCount(String path) {
+        AtomicInteger count = this.requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    int getTotalRequests() {
+        return this.totalRequests.get();
+    }
+
+    void shutdown() {
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        this.executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!this.serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    handle(socket);
+                }
+            });
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                // 跳过请求头
+            }
+            String[] parts = requestLine.split(" ");
+            String path = parts.length > 1 ? parts[1] : "/";
+            AtomicInteger count = this.requests.get(path);
+            if (count == null) {
+                AtomicInteger created = new AtomicInteger();
+                count = this.requests.putIfAbsent(path, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+            this.totalRequests.incrementAndGet();
+            if (this.delay > 0) {
+                Thread.sleep(this.delay);
+            }
+            Failure failure = this.failures.get(path);
+            int statusCode = failure != null && failure.remaining.getAndDecrement() > 0 ? failure.statusCode : 200;
+            byte[] body = statusCode == 200 ? TILE_BYTES : new byte[0];
+            String header = "HTTP/1.1 " + statusCode + (statusCode == 200 ? " OK" : " Error") + "\r\n" + "Content-Type: image/png\r\n"
+                    + "Content-Length: " + body.length + "\r\n" + "Connection: close\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(header.getBytes("ISO-8859-1"));
+            out.write(body);
+            out.flush();
+        } catch (IOException e) {
+            // 客户端提前断开
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    private static class Failure {
+        final int statusCode;
+        final AtomicInteger remaining;
+
+        Failure(int statusCode, int times) {
+            this.statusCode = statusCode;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+}
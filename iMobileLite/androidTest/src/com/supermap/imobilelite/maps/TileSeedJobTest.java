@@ -0,0 +1,262 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+/**
+ * <p>
+ * 离线区域下载任务的测试，下载本机替身瓦片服务器（{@link StandInTileServer}）上的瓦片。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class TileSeedJobTest extends InstrumentationTestCase {
+    private static final long FINISH_TIMEOUT = 60000L;
+    // 0到2级共1+4+16张瓦片
+    private static final int MIN_ZOOM = 0;
+    private static final int MAX_ZOOM = 2;
+    private static final int TOTAL_TILES = 21;
+    private StandInTileServer server;
+    private Context context;
+    private MapView mapView;
+    private SeedTestLayerView layerView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.context = getInstrumentation().getTargetContext();
+        deleteProgressFiles();
+        HttpConnectionPool.resetCircuitBreakers();
+        NegativeTileCache.getInstance().clear();
+        this.server = new StandInTileServer();
+        this.server.setDelay(10);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                TileSeedJobTest.this.mapView = new MapView(TileSeedJobTest.this.context);
+                TileSeedJobTest.this.layerView = new SeedTestLayerView(TileSeedJobTest.this.context, TileSeedJobTest.this.server.getBaseUrl());
+                TileSeedJobTest.this.layerView.mapView = TileSeedJobTest.this.mapView;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.server.shutdown();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                if (TileSeedJobTest.this.mapView != null) {
+                    TileSeedJobTest.this.mapView.destroy();
+                }
+            }
+        });
+        deleteProgressFiles();
+        NegativeTileCache.getInstance().clear();
+        super.tearDown();
+    }
+
+    public void testSeedsAllTilesAndRetriesServerErrors() throws Exception {
+        // 连接池内部的重试也返回500，任务等待负缓存的退避期后再请求一轮
+        this.server.failPath("/1/0/0.png", 500, HttpConnectionPool.MAX_RETRIES + 1);
+        MemoryStore store = new MemoryStore();
+        TileSeedJob job = runJob(store);
+
+        assertEquals(TOTAL_TILES, job.getCompletedTiles());
+        assertEquals(TOTAL_TILES, job.getDownloadedTiles());
+        assertEquals(0, job.getFailedTiles());
+        assertEquals(TOTAL_TILES, store.size());
+        assertTrue(store.destroyed);
+        assertEquals(HttpConnectionPool.MAX_RETRIES + 2, this.server.getRequestCount("/1/0/0.png"));
+        assertEquals(1, this.server.getRequestCount("/2/3/3.png"));
+        assertFalse(hasProgressFiles());
+    }
+
+    public void testSurvivesMapDownloaderShutdown() throws Exception {
+        this.server.setDelay(50);
+        MemoryStore store = new MemoryStore();
+        FinishLatch listener = new FinishLatch();
+        TileSeedJob job = startJob(store, listener);
+        // 地图销毁时关闭自己的下载线程和连接池，不影响下载任务
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                TileSeedJobTest.this.mapView.destroy();
+            }
+        });
+        this.mapView = null;
+        awaitFinished(listener);
+
+        assertEquals(TOTAL_TILES, job.getDownloadedTiles());
+        assertEquals(0, job.getFailedTiles());
+        assertEquals(TOTAL_TILES, store.size());
+    }
+
+    public void testFailedTileIsRetriedWhenResumed() throws Exception {
+        this.server.failPath("/2/1/1.png", 404, 1);
+        TileSeedJob job = runJob(new MemoryStore());
+
+        assertEquals(TOTAL_TILES, job.getCompletedTiles());
+        assertEquals(TOTAL_TILES - 1, job.getDownloadedTiles());
+        assertEquals(1, job.getFailedTiles());
+        assertTrue(hasProgressFiles());
+
+        // 404的暂停期较长，模拟暂停期已过
+        NegativeTileCache.getInstance().clear();
+        int requests = this.server.getTotalRequests();
+        job = runJob(new MemoryStore());
+
+        assertEquals(0, job.getFailedTiles());
+        assertEquals(TOTAL_TILES, job.getDownloadedTiles());
+        assertEquals(requests + 1, this.server.getTotalRequests());
+        assertEquals(2, this.server.getRequestCount("/2/1/1.png"));
+        assertFalse(hasProgressFiles());
+    }
+
+    private TileSeedJob runJob(MemoryStore store) throws InterruptedException {
+        FinishLatch listener = new FinishLatch();
+        TileSeedJob job = startJob(store, listener);
+        awaitFinished(listener);
+        return job;
+    }
+
+    private TileSeedJob startJob(final MemoryStore store, final FinishLatch listener) {
+        final TileSeedJob[] job = new TileSeedJob[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                BoundingBox bounds = new BoundingBox(new Point2D(-180, 90), new Point2D(180, -90));
+                job[0] = new TileSeedJob(TileSeedJobTest.this.layerView, bounds, MIN_ZOOM, MAX_ZOOM, store, TileSeedJob.DEFAULT_THREAD_COUNT,
+                        listener);
+                job[0].start();
+            }
+        });
+        return job[0];
+    }
+
+    private void awaitFinished(FinishLatch listener) throws InterruptedException {
+        assertTrue("seeding timed out", listener.finished.await(FINISH_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private File getProgressDir() {
+        return new File(this.context.getFilesDir(), "tile_seed");
+    }
+
+    private boolean hasProgressFiles() {
+        String[] names = getProgressDir().list();
+        return names != null && names.length > 0;
+    }
+
+    private void deleteProgressFiles() {
+        File[] files = getProgressDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static class FinishLatch implements TileSeedListener {
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        public void onProgress(TileSeedJob job) {
+        }
+
+        public void onFinished(TileSeedJob job) {
+            this.finished.countDown();
+        }
+    }
+
+    /**
+     * <p>
+     * 按瓦片缓存键保存内容的内存缓存，代替SD卡缓存。
+     * </p>
+     */
+    private static class MemoryStore implements ITileCache {
+        private final ConcurrentHashMap<String, byte[]> tiles = new ConcurrentHashMap<String, byte[]>();
+        volatile boolean destroyed;
+
+        public Tile getTile(Tile tile) {
+            return this.tiles.containsKey(tile.buildCacheKey()) ? tile : null;
+        }
+
+        public void addTile(Tile tile) {
+            this.tiles.put(tile.buildCacheKey(), tile.getBytes());
+        }
+
+        public void removeTile(Tile tile) {
+            this.tiles.remove(tile.buildCacheKey());
+        }
+
+        public boolean contains(Tile tile) {
+            return this.tiles.containsKey(tile.buildCacheKey());
+        }
+
+        public void clear() {
+            this.tiles.clear();
+        }
+
+        public int size() {
+            return this.tiles.size();
+        }
+
+        public void destroy() {
+            this.destroyed = true;
+        }
+    }
+
+    /**
+     * <p>
+     * 按z/x/y.png请求替身服务器的图层，每个层级为2^z×2^z张瓦片，不需要初始化。
+     * </p>
+     */
+    private static class SeedTestLayerView extends AbstractTileLayerView {
+        private final String baseUrl;
+        private Projection projection;
+
+        SeedTestLayerView(Context context, String baseUrl) {
+            super(context);
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public void initTileContext(Tile tile) {
+            tile.setUrl(this.baseUrl + "/" + tile.getZoomLevel() + "/" + tile.getX() + "/" + tile.getY() + ".png");
+        }
+
+        @Override
+        int[] getTileRange(BoundingBox bounds, int zoom) {
+            int max = (1 << zoom) - 1;
+            return new int[] { 0, 0, max, max };
+        }
+
+        @Override
+        List<Tile> buildTiles(int zoom, int[] xs, int[] ys, int count) {
+            List<Tile> tiles = new ArrayList<Tile>(count);
+            for (int i = 0; i < count; i++) {
+                Tile tile = new Tile(xs[i], ys[i], 0, 0, zoom, "test", getLayerCacheFileName());
+                initTileContext(tile);
+                tiles.add(tile);
+            }
+            return tiles;
+        }
+
+        @Override
+        String getLayerCacheFileName() {
+            return "seed_test";
+        }
+
+        @Override
+        Projection getProjection() {
+            if (this.projection == null) {
+                this.projection = new Projection(this, null);
+            }
+            return this.projection;
+        }
+    }
+}
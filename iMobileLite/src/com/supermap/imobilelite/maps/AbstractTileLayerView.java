@@ -1,5 +1,8 @@
 package com.supermap.imobilelite.maps;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.supermap.imobilelite.resources.MapCommon;
@@ -152,6 +155,10 @@ public abstract class AbstractTileLayerView extends View {
      * </p>
      */
     protected boolean addToNetworkDownload = true;
+    // 瓦片请求的多主机分配，未设置时为null
+    private volatile TileHostSelector hostSelector;
+    // 每个镜像主机的最大连接数，小于1表示未设置
+    private volatile int maxConnectionsPerHost = 0;
 
     /**
      * <p>
@@ -355,10 +362,22 @@ public abstract class AbstractTileLayerView extends View {
      * @return 当前层级的分辨率索引。
      */
     protected int getResolutionIndex() {
+        return getResolutionIndex(this.mapView.getZoomLevel());
+    }
+
+    /**
+     * <p>
+     * 获取指定缩放层级在图层分辨率数组中的索引，不依赖地图当前的缩放层级。构造瓦片时使用瓦片自身的层级。
+     * </p>
+     * @param zoom 地图的缩放层级。
+     * @return 分辨率索引，图层没有对应的分辨率时返回-1。
+     * @since 8.0.0
+     */
+    protected int getResolutionIndex(int zoom) {
         double[] resolutions = getResolutions();
         int index = -1;
         if (resolutions != null && resolutions.length > 0) {
-            double resolution = this.mapView.getRealResolution();
+            double resolution = this.mapView.getRealResolution(zoom);
             for (int i = 0; i < resolutions.length; i++) {
                 double ratio = resolution - resolutions[i];
                 if (Math.abs(ratio) < Math.abs(resolution) / 100000.0) {
@@ -367,7 +386,7 @@ public abstract class AbstractTileLayerView extends View {
                 }
             }
         } else {
-            index = mapView.getZoomLevel();
+            index = zoom;
         }
         // Log.i(LOG_TAG, "get layerView resolutionIndex:" + index);
         return index;
@@ -663,21 +682,96 @@ public abstract class AbstractTileLayerView extends View {
             Rect rect = new Rect(x, y, x + scaleSize, y + scaleSize);
             // Log.d(LOG_TAG, resource.getMessage(MapCommon.RESTMAPTILEFACTORY_NEWTILE, String.valueOf(type)));
 
-            Tile tile = new Tile(tileX, tileY, tileGlobalX, tileGlobalY, zoom, "rest-map", this.getLayerCacheFileName());
-            // 瓦片做缓存时，考虑投影参数
-            // if (this.getCRS() != null && this.getCRS().wkid > 0) {
-            // tile.setEpsgCodes(this.getCRS().wkid);
-            // }
-            // tile.setUrl(getTileURL(tile));
-            // tile.setUrl(getTileURL(tile.getX(), tile.getY(), tile.getZoomLevel()));
-            // Log.d(LOG_TAG, resource.getMessage(MapCommon.RESTMAPTILEFACTORY_GETTILEURL, tile.getUrl()));
-            tile.setRect(rect);
-            initTileContext(tile);
-            return tile;
+            return newTile(tileX, tileY, tileGlobalX, tileGlobalY, zoom, rect);
         }
         return null;
     }
 
+    /**
+     * <p>
+     * 按行列号和地理像素坐标创建瓦片并初始化url等信息。
+     * </p>
+     */
+    private Tile newTile(int tileX, int tileY, int tileGlobalX, int tileGlobalY, int zoom, Rect rect) {
+        Tile tile = new Tile(tileX, tileY, tileGlobalX, tileGlobalY, zoom, "rest-map", this.getLayerCacheFileName());
+        // 瓦片做缓存时，考虑投影参数
+        // if (this.getCRS() != null && this.getCRS().wkid > 0) {
+        // tile.setEpsgCodes(this.getCRS().wkid);
+        // }
+        // tile.setUrl(getTileURL(tile));
+        // tile.setUrl(getTileURL(tile.getX(), tile.getY(), tile.getZoomLevel()));
+        // Log.d(LOG_TAG, resource.getMessage(MapCommon.RESTMAPTILEFACTORY_GETTILEURL, tile.getUrl()));
+        tile.setRect(rect);
+        initTileContext(tile);
+        TileHostSelector selector = this.hostSelector;
+        if (selector != null) {
+            selector.apply(tile);
+        }
+        return tile;
+    }
+
+    /**
+     * <p>
+     * 计算指定地理范围在某一缩放层级下覆盖的瓦片行列号范围，超出地图范围的部分会被裁掉。
+     * </p>
+     * @param bounds 地理范围。
+     * @param zoom 缩放层级。
+     * @return 依次为最小列号、最小行号、最大列号、最大行号，与地图范围没有交集时返回null。
+     * @since 8.0.0
+     */
+    int[] getTileRange(BoundingBox bounds, int zoom) {
+        // 按该层级的分辨率计算，不改变地图当前的缩放层级和缩放比例
+        ProjectionUtil util = this.getProjection().getProjectionUtil();
+        double res = util.getPixelResolution(zoom);
+        Rect imageSize = util.getMapImageSize(res);
+        Point leftTop = util.toGlobalPixels(bounds.leftTop, res, null);
+        Point rightBottom = util.toGlobalPixels(bounds.rightBottom, res, null);
+        int left = Math.max(Math.min(leftTop.x, rightBottom.x), imageSize.left);
+        int right = Math.min(Math.max(leftTop.x, rightBottom.x), imageSize.right);
+        int top = Math.max(Math.min(leftTop.y, rightBottom.y), imageSize.top);
+        int bottom = Math.min(Math.max(leftTop.y, rightBottom.y), imageSize.bottom);
+        if (left >= right || top >= bottom) {
+            return null;
+        }
+        double tileSize = 256.0 * this.mapView.getDensity();
+        return new int[] { (int) Math.floor((left - imageSize.left) / tileSize), (int) Math.floor((top - imageSize.top) / tileSize),
+                (int) Math.floor((right - 1 - imageSize.left) / tileSize), (int) Math.floor((bottom - 1 - imageSize.top) / tileSize) };
+    }
+
+    /**
+     * <p>
+     * 按行列号构造指定缩放层级的瓦片，瓦片的url和缓存键与地图浏览时请求的瓦片一致，不改变地图当前的缩放层级和缩放比例。
+     * 必须在UI线程调用，initTileContext的实现不要求线程安全。
+     * </p>
+     * @param zoom 缩放层级。
+     * @param xs 列号数组。
+     * @param ys 行号数组。
+     * @param count 构造的瓦片个数。
+     * @return 瓦片列表，无法构造的位置为null。
+     * @since 8.0.0
+     */
+    List<Tile> buildTiles(int zoom, int[] xs, int[] ys, int count) {
+        List<Tile> tiles = new ArrayList<Tile>(count);
+        if (zoom < 0) {
+            for (int i = 0; i < count; i++) {
+                tiles.add(null);
+            }
+            return tiles;
+        }
+        ProjectionUtil util = this.getProjection().getProjectionUtil();
+        Rect imageSize = util.getMapImageSize(util.getPixelResolution(zoom));
+        double tileSize = 256.0 * this.mapView.getDensity();
+        int scaleSize = (int) Math.round(tileSize) + 1;
+        for (int i = 0; i < count; i++) {
+            int tileGlobalX = (int) Math.round(xs[i] * tileSize) + imageSize.left;
+            int tileGlobalY = (int) Math.round(ys[i] * tileSize) + imageSize.top;
+            // 不在屏幕上显示，rect取地理像素坐标
+            Rect rect = new Rect(tileGlobalX, tileGlobalY, tileGlobalX + scaleSize, tileGlobalY + scaleSize);
+            tiles.add(newTile(xs[i], ys[i], tileGlobalX, tileGlobalY, zoom, rect));
+        }
+        return tiles;
+    }
+
     /**
      * <p>
      * 获取瓦片的url，具体继承类实现该接口。
@@ -744,6 +838,61 @@ public abstract class AbstractTileLayerView extends View {
 
     }
 
+    /**
+     * <p>
+     * 设置瓦片请求的镜像主机列表，瓦片按列号、行号和层级固定分配到其中一个主机，提高并发连接数的同时保持服务端缓存有效。
+     * </p>
+     * <p>
+     * 主机可以带端口，如"t0.example.com:8090"，不带端口时沿用图层url的端口。设置为null或空数组时恢复使用图层url的主机。
+     * </p>
+     * @param hosts 镜像主机列表。
+     * @since 8.0.0
+     */
+    public void setTileHosts(String[] hosts) {
+        this.hostSelector = TileHostSelector.create(hosts);
+    }
+
+    /**
+     * <p>
+     * 按子域名模式设置瓦片请求的镜像主机，如"t{0-7}.supermapcloud.com"表示t0到t7八个主机，"{a,b,c}.example.com"表示a、b、c三个主机。
+     * </p>
+     * @param pattern 主机模式，为null时恢复使用图层url的主机。
+     * @since 8.0.0
+     */
+    public void setTileHostPattern(String pattern) {
+        setTileHosts(pattern == null ? null : TileHostSelector.expand(pattern));
+    }
+
+    /**
+     * <p>
+     * 获取瓦片请求的镜像主机列表。
+     * </p>
+     * @return 镜像主机列表，未设置时返回空数组。
+     * @since 8.0.0
+     */
+    public String[] getTileHosts() {
+        TileHostSelector selector = this.hostSelector;
+        return selector == null ? new String[0] : selector.getHosts();
+    }
+
+    /**
+     * <p>
+     * 设置每个镜像主机的最大连接数，未设置时每个主机最多使用最大下载并发数个连接，可以设置为更大的值。
+     * </p>
+     * <p>
+     * 对通过{@link #setTileHosts(String[])}设置的主机生效，与设置的先后顺序无关，在下一次请求瓦片时应用到所在MapView的下载连接池。
+     * </p>
+     * @param max 每个主机的最大连接数，小于1时取消设置。
+     * @since 8.0.0
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        this.maxConnectionsPerHost = max;
+    }
+
+    int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
     /**
      * 获取MapView中当前图层的 url 地址。
      * @return 返回当前图层的 url 地址。
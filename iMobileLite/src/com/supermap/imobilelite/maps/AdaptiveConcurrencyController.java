@@ -0,0 +1,169 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 自适应下载并发控制器，采用加性增、乘性减（AIMD）策略。
+ * </p>
+ * <p>
+ * 每个评估窗口统计请求的平均延迟和错误率：延迟和错误率正常时并发数加一，
+ * 平均延迟超过基准延迟的若干倍或错误率过高时并发数减半，并发数始终限制在[minLimit, maxLimit]之间。
+ * 非Wi-Fi网络下并发数上限为cellularMaxLimit，加一和减半都从不超过当前网络上限的并发数开始，网络类型变化时重新限制；网络断开时降到minLimit。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * 
+ */
+class AdaptiveConcurrencyController {
+    // 每个评估窗口的最少样本数
+    private static final int MIN_WINDOW_SAMPLES = 4;
+    // 错误率超过该值时并发数减半
+    private static final double ERROR_RATE_THRESHOLD = 0.1;
+    // 平均延迟超过基准延迟的该倍数时并发数减半
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // 基准延迟每个窗口最多上浮的比例，使基准能跟随网络的缓慢变化
+    private static final double BASE_LATENCY_DRIFT = 1.1;
+    private final int minLimit;
+    private int maxLimit;
+    private final int cellularMaxLimit;
+    private int limit;
+    private int active = 0;
+    private int samples = 0;
+    private int errors = 0;
+    private long latencySum = 0;
+    private double baseLatency = -1;
+
+    /**
+     * <p>
+     * 构造函数。
+     * </p>
+     * @param minLimit 最小并发数。
+     * @param maxLimit 最大并发数。
+     * @param cellularMaxLimit 非Wi-Fi网络下的最大并发数。
+     * @param initialLimit 初始并发数。
+     */
+    AdaptiveConcurrencyController(int minLimit, int maxLimit, int cellularMaxLimit, int initialLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.cellularMaxLimit = Math.max(this.minLimit, Math.min(cellularMaxLimit, this.maxLimit));
+        this.limit = Math.max(this.minLimit, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * <p>
+     * 获取一个下载许可，当前正在执行的请求数达到并发上限时阻塞等待。
+     * </p>
+     * @throws InterruptedException 等待时线程被中断。
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (this.active >= getLimit()) {
+            wait();
+        }
+        this.active++;
+    }
+
+    /**
+     * <p>
+     * 释放下载许可。
+     * </p>
+     */
+    synchronized void release() {
+        if (this.active > 0) {
+            this.active--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * <p>
+     * 记录一次请求的结果，样本数达到窗口大小时调整并发数。
+     * </p>
+     * @param latency 请求耗时，单位毫秒。
+     * @param success 请求是否成功。
+     */
+    synchronized void onRequestFinished(long latency, boolean success) {
+        this.samples++;
+        this.latencySum += latency;
+        if (!success) {
+            this.errors++;
+        }
+        if (this.samples < Math.max(MIN_WINDOW_SAMPLES, this.limit)) {
+            return;
+        }
+        double avgLatency = (double) this.latencySum / this.samples;
+        double errorRate = (double) this.errors / this.samples;
+        boolean congested = errorRate > ERROR_RATE_THRESHOLD || (this.baseLatency > 0 && avgLatency > this.baseLatency * LATENCY_TOLERANCE);
+        // 非Wi-Fi网络下先限制到上限，否则超出上限的部分加一无效、减半不能及时降低实际并发数
+        int max = getEffectiveMaxLimit();
+        this.limit = Math.min(this.limit, max);
+        if (congested) {
+            this.limit = Math.max(this.minLimit, this.limit / 2);
+        } else {
+            this.limit = Math.min(max, this.limit + 1);
+        }
+        if (errorRate <= ERROR_RATE_THRESHOLD) {
+            this.baseLatency = this.baseLatency < 0 ? avgLatency : Math.min(avgLatency, this.baseLatency * BASE_LATENCY_DRIFT);
+        }
+        this.samples = 0;
+        this.errors = 0;
+        this.latencySum = 0;
+        notifyAll();
+    }
+
+    /**
+     * <p>
+     * 网络状态变化时调用，断开时并发数降到最小值并重新测量基准延迟；连接时按新的网络类型重新限制并发数。
+     * </p>
+     * @param available 网络是否可用。
+     */
+    synchronized void setNetworkAvailable(boolean available) {
+        if (available) {
+            this.limit = Math.min(this.limit, getEffectiveMaxLimit());
+        } else {
+            this.limit = this.minLimit;
+            this.baseLatency = -1;
+            this.samples = 0;
+            this.errors = 0;
+            this.latencySum = 0;
+        }
+        notifyAll();
+    }
+
+    /**
+     * <p>
+     * 获取当前生效的并发数。
+     * </p>
+     * @return 并发数。
+     */
+    synchronized int getLimit() {
+        // 网络类型已变化而尚未收到通知时也不超过当前网络的上限
+        return Math.min(this.limit, getEffectiveMaxLimit());
+    }
+
+    /**
+     * <p>
+     * 获取当前网络下的最大并发数，调用时需持有锁。
+     * </p>
+     */
+    private int getEffectiveMaxLimit() {
+        if (!NetworkConnectivityListener.isLastKnownNetworkWifi()) {
+            return Math.min(this.cellularMaxLimit, this.maxLimit);
+        }
+        return this.maxLimit;
+    }
+
+    /**
+     * <p>
+     * 调整最大并发数，如镜像主机数变化时。当前并发数超过新的最大值时随之降低。
+     * </p>
+     * @param maxLimit 最大并发数。
+     */
+    synchronized void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.limit, this.maxLimit);
+        notifyAll();
+    }
+
+    synchronized int getMaxLimit() {
+        return this.maxLimit;
+    }
+}
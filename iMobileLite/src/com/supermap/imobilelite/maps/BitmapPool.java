@@ -0,0 +1,255 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.util.Log;
+
+/**
+ * <p>
+ * 瓦片Bitmap复用池，只允许一个实例。
+ * </p>
+ * <p>
+ * 内存缓存淘汰的瓦片Bitmap不再直接recycle，而是按宽、高和像素格式放回复用池，解码新瓦片时通过BitmapFactory.Options.inBitmap复用同尺寸的Bitmap，
+ * 避免平移地图时不断分配256x256的Bitmap而频繁触发GC。复用池占用的内存有上限，超出上限的Bitmap仍由调用者recycle。
+ * </p>
+ * <p>
+ * 淘汰前从内存缓存取过该Bitmap的瓦片可能仍持有它。复用前先清空像素，使Bitmap的代数改变，这些瓦片的{@link Tile#getBitmap()}随即返回null，
+ * 重新从缓存或网络获取，而不会画出其他瓦片的内容。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public final class BitmapPool {
+    private static final String LOG_TAG = "com.supermap.android.maps.bitmappool";
+    private static final BitmapPool instance = new BitmapPool();
+    // 复用池最多占用的内存，单位字节
+    private static final long MAX_POOL_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 8L * 1024 * 1024);
+
+    private final Map<String, LinkedList<Bitmap>> pool = new HashMap<String, LinkedList<Bitmap>>();
+    private long poolBytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private volatile long startTime = System.currentTimeMillis();
+
+    private BitmapPool() {
+        super();
+    }
+
+    /**
+     * <p>
+     * 获取Bitmap复用池实例。
+     * </p>
+     * @return Bitmap复用池。
+     */
+    public static BitmapPool getInstance() {
+        return instance;
+    }
+
+    private static String buildKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "_" + config;
+    }
+
+    /**
+     * <p>
+     * 从复用池中取出指定尺寸和像素格式的Bitmap，没有时返回null。
+     * </p>
+     * @param width 宽度。
+     * @param height 高度。
+     * @param config 像素格式。
+     * @return 可复用的Bitmap。
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> list = this.pool.get(buildKey(width, height, config));
+        while (list != null && !list.isEmpty()) {
+            Bitmap bm = list.removeFirst();
+            this.poolBytes -= bm.getRowBytes() * bm.getHeight();
+            if (!bm.isRecycled()) {
+                // 改变代数，仍引用该Bitmap的瓦片不再使用它
+                bm.eraseColor(Color.TRANSPARENT);
+                return bm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * 把不再使用的Bitmap放回复用池。
+     * </p>
+     * @param bitmap 不再使用的Bitmap。
+     * @return 放入复用池时返回true；Bitmap不可复用或复用池已满时返回false，此时由调用者负责recycle。
+     */
+    synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return false;
+        }
+        int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        if (this.poolBytes + bytes > MAX_POOL_BYTES) {
+            return false;
+        }
+        String key = buildKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> list = this.pool.get(key);
+        if (list == null) {
+            list = new LinkedList<Bitmap>();
+            this.pool.put(key, list);
+        }
+        list.addLast(bitmap);
+        this.poolBytes += bytes;
+        return true;
+    }
+
+    /**
+     * <p>
+     * 解码瓦片图片，优先复用池中同尺寸的Bitmap。解码出的Bitmap是可变的，以便之后放回复用池。
+     * </p>
+     * @param b 图片数据。
+     * @param options 解码参数，inBitmap、inMutable和inPurgeable由本方法设置。
+     * @return 解码得到的Bitmap，失败时返回null。
+     */
+    Bitmap decode(byte[] b, BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(b, 0, b.length, options);
+        options.inJustDecodeBounds = false;
+        // 可复用的Bitmap不能是purgeable的
+        options.inPurgeable = false;
+        options.inInputShareable = false;
+        options.inMutable = true;
+        options.inSampleSize = 1;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap candidate = null;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            candidate = get(options.outWidth, options.outHeight, config);
+        }
+        Bitmap bm = null;
+        if (candidate != null) {
+            options.inBitmap = candidate;
+            try {
+                bm = BitmapFactory.decodeByteArray(b, 0, b.length, options);
+            } catch (IllegalArgumentException e) {
+                // 图片格式与复用的Bitmap不兼容，放弃复用重新解码
+                Log.d(LOG_TAG, "inBitmap reuse failed: " + e.getMessage());
+                bm = null;
+            }
+            options.inBitmap = null;
+            if (bm != null) {
+                this.hits.incrementAndGet();
+                return bm;
+            }
+            if (!put(candidate)) {
+                candidate.recycle();
+            }
+        }
+        this.misses.incrementAndGet();
+        bm = BitmapFactory.decodeByteArray(b, 0, b.length, options);
+        if (bm != null) {
+            this.allocatedBytes.addAndGet(bm.getRowBytes() * bm.getHeight());
+        }
+        return bm;
+    }
+
+    /**
+     * <p>
+     * 清空复用池，并recycle其中所有Bitmap。
+     * </p>
+     */
+    public synchronized void clear() {
+        for (LinkedList<Bitmap> list : this.pool.values()) {
+            for (Bitmap bm : list) {
+                if (!bm.isRecycled()) {
+                    bm.recycle();
+                }
+            }
+        }
+        this.pool.clear();
+        this.poolBytes = 0;
+    }
+
+    /**
+     * <p>
+     * 获取复用池当前占用的内存，单位字节。
+     * </p>
+     * @return 复用池占用的内存。
+     */
+    public synchronized long getPoolBytes() {
+        return this.poolBytes;
+    }
+
+    /**
+     * <p>
+     * 获取解码时复用Bitmap的次数。
+     * </p>
+     * @return 复用次数。
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * <p>
+     * 获取解码时新分配Bitmap的次数。
+     * </p>
+     * @return 新分配次数。
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * <p>
+     * 获取复用命中率，尚无解码时返回0。
+     * </p>
+     * @return 复用命中率，取值范围[0,1]。
+     */
+    public double getHitRate() {
+        long h = this.hits.get();
+        long total = h + this.misses.get();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    /**
+     * <p>
+     * 获取新分配Bitmap的累计字节数。
+     * </p>
+     * @return 新分配的字节数。
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes.get();
+    }
+
+    /**
+     * <p>
+     * 获取自上次重置统计以来平均每分钟新分配的Bitmap字节数。在开始平移地图前调用{@link #resetStatistics()}，即可得到平移期间的分配速率。
+     * </p>
+     * @return 每分钟新分配的字节数。
+     */
+    public long getAllocatedBytesPerMinute() {
+        long elapsed = System.currentTimeMillis() - this.startTime;
+        return elapsed > 0 ? this.allocatedBytes.get() * 60000L / elapsed : 0;
+    }
+
+    /**
+     * <p>
+     * 重置统计数据。
+     * </p>
+     */
+    public void resetStatistics() {
+        this.hits.set(0);
+        this.misses.set(0);
+        this.allocatedBytes.set(0);
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public String toString() {
+        return "BitmapPool[poolBytes=" + getPoolBytes() + ", hitRate=" + getHitRate() + ", allocatedBytes=" + getAllocatedBytes()
+                + ", allocatedBytesPerMinute=" + getAllocatedBytesPerMinute() + "]";
+    }
+}
\ No newline at end of file
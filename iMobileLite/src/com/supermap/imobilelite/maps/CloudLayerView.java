@@ -88,7 +88,7 @@ public class CloudLayerView extends AbstractTileLayerView {
     @Override
     public void initTileContext(Tile tile) {
         // 获取真正的出图层级，因为mapview的层级数是所有图层固定比例尺数组合并的长度
-        int index = getResolutionIndex();
+        int index = getResolutionIndex(tile.getZoomLevel());
         if (index == -1) {
             return;
         }
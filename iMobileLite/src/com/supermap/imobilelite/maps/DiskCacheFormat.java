@@ -0,0 +1,25 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * SD卡瓦片缓存的存储格式。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public enum DiskCacheFormat {
+    /**
+     * <p>
+     * 打包存储，默认格式。瓦片追加写入若干个段文件，写入最快。
+     * </p>
+     */
+    PACKED,
+    /**
+     * <p>
+     * MBTiles格式的单个SQLite文件，文件位于SD卡的supermap/tiles/tiles.mbtiles，便于拷贝和用其他工具查询。
+     * </p>
+     */
+    MBTILES;
+}
@@ -27,8 +27,8 @@ class FSTileCache implements ITileCache {
     private static final String LOG_TAG = "com.supermap.android.maps.fstilecache";
     private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
     private static final long MILISECONDS_IN_A_DAY = 86400000L;
-    private static final int INTERNAL_CACHE_SIZE = 10485760;
-    private static final int EXTERNAL_CACHE_SIZE = 104857600;
+    static final int INTERNAL_CACHE_SIZE = 10485760;
+    static final int EXTERNAL_CACHE_SIZE = 104857600;
     static final String INTERNAL_CACHE_DIRECTORY = "tiles";
     static final String EXTERNAL_CACHE_DIRECTORY = "supermap/tiles";
     private File file;
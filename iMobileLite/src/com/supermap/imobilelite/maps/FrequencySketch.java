@@ -0,0 +1,109 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 估计键近期访问频率的Count-Min Sketch，用于TinyLFU准入判断。
+ * </p>
+ * <p>
+ * 每个键映射到4行计数器，计数上限为15，频率取4个计数器的最小值。累计计数达到表宽的10倍时所有计数器减半，使频率只反映近期访问。
+ * 计数器的更新不加锁，并发时可能丢失少量计数，对频率估计的影响可以忽略。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class FrequencySketch {
+    private static final int[] SEEDS = { 0x97cb3127, 0xab7a3a5d, 0xc2b2ae35, 0x9e3779b9 };
+    private static final int MAX_COUNT = 15;
+    private volatile int[][] table;
+    private int sampleSize;
+    private int additions;
+
+    public FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * <p>
+     * 按缓存容量调整表宽，表宽为不小于容量的2的幂，调整后清空计数
+     * </p>
+     * @param capacity 缓存容量
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        int width = 16;
+        while (width < capacity && width < (1 << 20)) {
+            width <<= 1;
+        }
+        if (this.table != null && this.table[0].length >= width) {
+            return;
+        }
+        this.sampleSize = 10 * width;
+        this.additions = 0;
+        this.table = new int[SEEDS.length][width];
+    }
+
+    /**
+     * <p>
+     * 记录一次访问
+     * </p>
+     * @param key
+     */
+    public void increment(String key) {
+        int[][] t = this.table;
+        int h = spread(key.hashCode());
+        int mask = t[0].length - 1;
+        boolean added = false;
+        for (int i = 0; i < t.length; i++) {
+            int index = indexOf(h, i, mask);
+            if (t[i][index] < MAX_COUNT) {
+                t[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * <p>
+     * 获取键的近期访问频率估计值
+     * </p>
+     * @param key
+     * @return 频率，取值范围[0,15]
+     */
+    public int frequency(String key) {
+        int[][] t = this.table;
+        int h = spread(key.hashCode());
+        int mask = t[0].length - 1;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < t.length; i++) {
+            frequency = Math.min(frequency, t[i][indexOf(h, i, mask)]);
+        }
+        return frequency;
+    }
+
+    private synchronized void reset() {
+        int[][] t = this.table;
+        for (int i = 0; i < t.length; i++) {
+            for (int j = 0; j < t[i].length; j++) {
+                t[i][j] >>>= 1;
+            }
+        }
+        this.additions = this.additions / 2;
+    }
+
+    private static int indexOf(int h, int i, int mask) {
+        int x = (h ^ SEEDS[i]) * 0x9e3779b9;
+        x ^= x >>> 16;
+        return x & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 17;
+        h *= 0xed5ad4bb;
+        h ^= h >>> 11;
+        return h;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 单个主机的熔断器。
+ * </p>
+ * <p>
+ * 关闭状态下正常请求，连续失败{@link #FAILURE_THRESHOLD}次后打开，打开期间的请求直接失败，只能从缓存获取瓦片。
+ * 打开时间到期后转为半开状态，只放行一个探测请求：探测成功则关闭，失败则再次打开，打开时间按指数退避加倍，最长{@link #MAX_OPEN_TIME}。
+ * 线程安全。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+final class HostCircuitBreaker {
+    static final int FAILURE_THRESHOLD = 5;
+    static final long BASE_OPEN_TIME = 2000L;
+    static final long MAX_OPEN_TIME = 60 * 1000L;
+
+    static enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    // 连续打开的次数，决定下次打开的时间
+    private int openCount = 0;
+    private long openUntil = 0;
+
+    /**
+     * <p>
+     * 判断是否允许发起请求，打开时间到期后的第一个请求作为探测请求放行
+     * </p>
+     * @param now 当前时间
+     * @return
+     */
+    synchronized boolean allowRequest(long now) {
+        switch (this.state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now >= this.openUntil) {
+                this.state = State.HALF_OPEN;
+                return true;
+            }
+            return false;
+        default:
+            // 半开状态下探测请求尚未结束
+            return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        this.state = State.CLOSED;
+        this.consecutiveFailures = 0;
+        this.openCount = 0;
+    }
+
+    /**
+     * <p>
+     * 请求失败。打开期间结束的请求是打开之前发出的，不再计入，以免把打开时间重复加倍
+     * </p>
+     * @param now 当前时间
+     */
+    synchronized void onFailure(long now) {
+        if (this.state == State.OPEN) {
+            return;
+        }
+        this.consecutiveFailures++;
+        if (this.state == State.HALF_OPEN || this.consecutiveFailures >= FAILURE_THRESHOLD) {
+            this.openCount++;
+            int shift = Math.min(this.openCount - 1, 20);
+            this.openUntil = now + Math.min(BASE_OPEN_TIME << shift, MAX_OPEN_TIME);
+            this.state = State.OPEN;
+        }
+    }
+
+    /**
+     * <p>
+     * 请求被中止，既不算成功也不算失败。探测请求被中止时回到打开状态，下一个请求重新探测
+     * </p>
+     */
+    synchronized void onCancelled() {
+        if (this.state == State.HALF_OPEN) {
+            this.state = State.OPEN;
+        }
+    }
+
+    synchronized State getState() {
+        return this.state;
+    }
+}
\ No newline at end of file
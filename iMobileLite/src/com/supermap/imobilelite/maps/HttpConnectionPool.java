@@ -3,8 +3,16 @@ package com.supermap.imobilelite.maps;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HeaderElement;
 import org.apache.http.HeaderElementIterator;
 import org.apache.http.HttpResponse;
@@ -15,7 +23,7 @@ import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRoute;
-import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -43,6 +51,21 @@ final class HttpConnectionPool {
     public static final int KEEP_ALIVE = 5000;
     public static final int READ_TIMEOUT = 5000;
     private IdleConnectionMonitorThread monitor = null;
+    // 所在主机熔断时返回的状态码，此时没有发起网络请求
+    static final int STATUS_CIRCUIT_OPEN = -1;
+    // 网络异常和502、503、504的最多重试次数及退避时间
+    static final int MAX_RETRIES = 2;
+    private static final long RETRY_BASE_DELAY = 250L;
+    private static final long RETRY_MAX_DELAY = 2000L;
+    // 各主机的熔断器，进程内共享
+    private static final ConcurrentHashMap<String, HostCircuitBreaker> breakers = new ConcurrentHashMap<String, HostCircuitBreaker>();
+    private static final Random random = new Random();
+    // 单独设置了最大连接数的主机，只对本连接池生效，整体替换
+    private volatile Map<String, Integer> hostConnectionLimits = Collections.emptyMap();
+    // abort没有找到对应请求时的返回值
+    static final long NOT_ACTIVE = -2;
+    // 正在执行且可以中止的请求，键为发起请求时传入的owner对象（按对象标识），相同url的多个请求互不影响
+    private final Map<Object, ActiveRequest> activeRequests = new IdentityHashMap<Object, ActiveRequest>();
 
     public HttpConnectionPool(int maxConnections, int maxConnectionPerHost, int connectionTimeout, int readTimeout) {
         HttpParams params = new BasicHttpParams();
@@ -61,7 +84,7 @@ final class HttpConnectionPool {
         sslSocketFactory.setHostnameVerifier(SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
         registry.register(new Scheme("https", sslSocketFactory, 443));
 
-        ConnPerRoute connPerRoute = new ConnPerRouteBean(maxConnectionPerHost);
+        ConnPerRoute connPerRoute = new HostConnPerRoute(maxConnectionPerHost);
         ConnManagerParams.setMaxConnectionsPerRoute(params, connPerRoute);
         ConnManagerParams.setMaxTotalConnections(params, maxConnections);
         ConnManagerParams.setTimeout(params, 3000L);
@@ -92,38 +115,248 @@ final class HttpConnectionPool {
     }
 
     public byte[] get(String url) {
+        return fetch(url, null).bytes;
+    }
+
+    /**
+     * <p>
+     * 获取url的内容，validator有校验值时发起条件请求。
+     * </p>
+     * <p>
+     * 网络异常和502、503、504按带随机抖动的指数退避重试，最多{@link #MAX_RETRIES}次。所在主机的熔断器打开时不发起请求，
+     * 直接返回状态码{@link #STATUS_CIRCUIT_OPEN}。
+     * </p>
+     * @param url 请求的url。
+     * @param validator 缓存中的瓦片的新鲜度信息，为null时发起普通请求。
+     * @return 请求结果，返回200时包含内容和新鲜度信息，返回304时只包含新鲜度信息。
+     * @since 8.0.0
+     */
+    Result fetch(String url, TileFreshness validator) {
+        return fetch(url, validator, null);
+    }
+
+    /**
+     * <p>
+     * 获取url的内容，owner不为null时可以通过{@link #abort(Object)}中止本次请求。
+     * </p>
+     * @param url 请求的url。
+     * @param validator 缓存中的瓦片的新鲜度信息，为null时发起普通请求。
+     * @param owner 请求的所有者，按对象标识区分，一般为对应的瓦片对象；为null时请求不可中止。
+     * @return 请求结果。
+     * @since 8.0.0
+     */
+    Result fetch(String url, TileFreshness validator, Object owner) {
+        HostCircuitBreaker breaker = getBreaker(url);
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            Result result = new Result();
+            result.statusCode = STATUS_CIRCUIT_OPEN;
+            return result;
+        }
+        ActiveRequest active = new ActiveRequest();
+        if (owner != null) {
+            synchronized (this.activeRequests) {
+                this.activeRequests.put(owner, active);
+            }
+        }
+        // 每次请求都必须结算熔断器，否则半开状态下的探测请求异常退出后，该主机在进程内将一直被拒绝
+        boolean settled = false;
+        try {
+            for (int attempt = 0;; attempt++) {
+                Result result = execute(url, validator, active);
+                result.attempts = attempt + 1;
+                if (active.aborted) {
+                    breaker.onCancelled();
+                    settled = true;
+                    return result;
+                }
+                if (!isServerFailure(result.statusCode)) {
+                    breaker.onSuccess();
+                    settled = true;
+                    return result;
+                }
+                breaker.onFailure(System.currentTimeMillis());
+                settled = true;
+                // 熔断器打开后不再重试
+                if (attempt >= MAX_RETRIES || !isRetryable(result.statusCode) || breaker.getState() != HostCircuitBreaker.State.CLOSED) {
+                    return result;
+                }
+                // 带随机抖动的指数退避，避免多个下载线程同时重试
+                long delay = Math.min(RETRY_BASE_DELAY << attempt, RETRY_MAX_DELAY);
+                try {
+                    Thread.sleep((long) (random.nextDouble() * delay));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return result;
+                }
+                if (active.aborted) {
+                    return result;
+                }
+                settled = false;
+            }
+        } finally {
+            if (!settled) {
+                // execute抛出运行时异常（如url非法、连接池已关闭），既不算成功也不算失败，放弃本次探测
+                breaker.onCancelled();
+            }
+            if (owner != null) {
+                synchronized (this.activeRequests) {
+                    if (this.activeRequests.get(owner) == active) {
+                        this.activeRequests.remove(owner);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 设置各主机单独的最大连接数，替换之前的设置，只对本连接池生效。单独设置的值可以大于构造时的每主机默认连接数，但不超过总连接数
+     * </p>
+     * @param limits 主机名（不含端口）到最大连接数的映射，为null时取消所有单独设置
+     */
+    void setHostConnectionLimits(Map<String, Integer> limits) {
+        this.hostConnectionLimits = limits == null ? Collections.<String, Integer> emptyMap() : new HashMap<String, Integer>(limits);
+    }
+
+    /**
+     * <p>
+     * 关闭所有主机的熔断器，网络恢复时调用
+     * </p>
+     */
+    static void resetCircuitBreakers() {
+        for (HostCircuitBreaker breaker : breakers.values()) {
+            breaker.onSuccess();
+        }
+    }
+
+    private static boolean isServerFailure(int statusCode) {
+        return statusCode == 0 || statusCode >= 500;
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 0 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private static HostCircuitBreaker getBreaker(String url) {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        if (host == null) {
+            host = "";
+        }
+        HostCircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            HostCircuitBreaker created = new HostCircuitBreaker();
+            breaker = breakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * <p>
+     * 执行一次请求
+     * </p>
+     */
+    private Result execute(String url, TileFreshness validator, ActiveRequest active) {
         HttpGet request = new HttpGet(url);
         request.addHeader("Connection", "keep-alive");
+        if (validator != null) {
+            if (validator.getEtag() != null) {
+                request.addHeader("If-None-Match", validator.getEtag());
+            }
+            if (validator.getLastModified() != null) {
+                request.addHeader("If-Modified-Since", validator.getLastModified());
+            }
+        }
+        active.request = request;
+        active.contentLength = -1;
+        active.bytesRead = 0;
+        Result result = new Result();
+        if (active.aborted) {
+            return result;
+        }
         try {
             HttpResponse response = this.httpClient.execute(request);
+            result.statusCode = response.getStatusLine().getStatusCode();
+            if (result.statusCode == 304) {
+                result.freshness = TileFreshness.fromResponse(response, System.currentTimeMillis());
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+                return result;
+            }
             // 增加判断，只有在返回200的时候获取图片内容，因为状态错误时，错误信息也会被写入成图片的缓存，导致某些瓦片一直出白图
-            if (response.getStatusLine().getStatusCode() == 200) {
+            if (result.statusCode == 200) {
+                HttpEntity entity = response.getEntity();
+                active.contentLength = entity.getContentLength();
                 ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                BufferedInputStream bis = new BufferedInputStream(response.getEntity().getContent(), 8192);
+                BufferedInputStream bis = new BufferedInputStream(entity.getContent(), 8192);
 
                 byte[] b = new byte[8192];
                 int i = -1;
                 while ((i = bis.read(b)) != -1) {
                     buffer.write(b, 0, i);
+                    active.bytesRead += i;
                 }
                 buffer.flush();
 
                 bis.close();
                 buffer.close();
-                b = buffer.toByteArray();
-                return b;
+                result.bytes = buffer.toByteArray();
+                result.freshness = TileFreshness.fromResponse(response, System.currentTimeMillis());
+                return result;
             }else{
                 Log.w(LOG_TAG, "get tile bytes failed:" + url);
+                // 读完错误响应的内容，连接才能归还连接池
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    entity.consumeContent();
+                }
             }
         } catch (ClientProtocolException e) {
             Log.w(LOG_TAG, resource.getMessage(MapCommon.HTTPCONNECTIONPOOL_CLIENTPROTOCOLEXCEPTION, e.getMessage()));
             request.abort();
         } catch (IOException e) {
-            Log.w(LOG_TAG, resource.getMessage(MapCommon.HTTPCONNECTIONPOOL_IOEXCEPTION, e.getMessage()));
+            if (!active.aborted) {
+                Log.w(LOG_TAG, resource.getMessage(MapCommon.HTTPCONNECTIONPOOL_IOEXCEPTION, e.getMessage()));
+            }
             request.abort();
         }
 
-        return null;
+        return result;
+    }
+
+    /**
+     * <p>
+     * 中止正在执行的请求，只影响以该owner发起的请求，相同url的其他请求不受影响。
+     * </p>
+     * @param owner 发起请求时传入的owner对象。
+     * @return 中止时尚未读取的字节数，响应长度未知时返回-1，没有对应的请求时返回{@link #NOT_ACTIVE}。
+     */
+    public long abort(Object owner) {
+        if (owner == null) {
+            return NOT_ACTIVE;
+        }
+        ActiveRequest active;
+        synchronized (this.activeRequests) {
+            active = this.activeRequests.remove(owner);
+        }
+        if (active == null) {
+            return NOT_ACTIVE;
+        }
+        active.aborted = true;
+        HttpGet request = active.request;
+        if (request != null) {
+            request.abort();
+        }
+        return active.contentLength >= 0 ? Math.max(active.contentLength - active.bytesRead, 0) : -1;
     }
 
     public void shutdown() {
@@ -136,6 +369,48 @@ final class HttpConnectionPool {
         }
     }
 
+    /**
+     * <p>
+     * 请求结果
+     * </p>
+     */
+    static class Result {
+        // 响应状态码，请求失败时为0
+        int statusCode;
+        // 返回200时的内容
+        byte[] bytes;
+        // 返回200或304时从响应头解析的新鲜度信息
+        TileFreshness freshness;
+        // 实际发起的请求次数，包括重试
+        int attempts;
+    }
+
+    /**
+     * <p>
+     * 按主机查找单独设置的最大连接数，没有设置时使用默认值
+     * </p>
+     */
+    private class HostConnPerRoute implements ConnPerRoute {
+        private final int defaultMax;
+
+        HostConnPerRoute(int defaultMax) {
+            this.defaultMax = defaultMax;
+        }
+
+        public int getMaxForRoute(HttpRoute route) {
+            Integer max = hostConnectionLimits.get(route.getTargetHost().getHostName());
+            return max == null ? this.defaultMax : max.intValue();
+        }
+    }
+
+    private static class ActiveRequest {
+        // 当前一次尝试的请求
+        volatile HttpGet request;
+        volatile long contentLength = -1;
+        volatile long bytesRead = 0;
+        volatile boolean aborted = false;
+    }
+
     private static class IdleConnectionMonitorThread extends Thread {
         private final ClientConnectionManager connMgr;
         private volatile boolean shutdown;
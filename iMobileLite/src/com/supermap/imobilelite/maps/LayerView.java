@@ -2335,12 +2335,16 @@ public class LayerView extends AbstractTileLayerView {
     private void clearTilesInDB() {
         if (this.getTileCacher() != null) {
             ITileCache db = this.getTileCacher().getCache(TileCacher.CacheType.DB);
-            if (db instanceof FSTileCache) {
-                String providerName = "rest-map";
-                // if (this.tileFactory instanceof RestMapTileFactory) {
-                // RestMapTileFactory rmtf = (RestMapTileFactory) tileFactory;
-                // providerName = rmtf.getProvider();
-                // }
+            String providerName = "rest-map";
+            // if (this.tileFactory instanceof RestMapTileFactory) {
+            // RestMapTileFactory rmtf = (RestMapTileFactory) tileFactory;
+            // providerName = rmtf.getProvider();
+            // }
+            if (db instanceof WriteBehindTileCache) {
+                ((WriteBehindTileCache) db).clearByDirName(providerName + File.separator + this.getLayerCacheFileName());
+            } else if (db instanceof PackedTileCache) {
+                ((PackedTileCache) db).clearByDirName(providerName + File.separator + this.getLayerCacheFileName());
+            } else if (db instanceof FSTileCache) {
                 FSTileCache fstc = (FSTileCache) db;
                 fstc.clearByDirName(providerName + File.separator + this.getLayerCacheFileName());
             }
@@ -2790,12 +2794,12 @@ public class LayerView extends AbstractTileLayerView {
      */
     @Override
     public void initTileContext(Tile tile) {
-        int index = getResolutionIndex();
+        int index = getResolutionIndex(tile.getZoomLevel());
         if (index == -1) {
             return;
         }
         // Log.i(LOG_TAG, "get layerView resolutionIndex:" + index);
-        double scale = this.dpi / this.mapView.getRealResolution();
+        double scale = this.dpi / this.mapView.getRealResolution(tile.getZoomLevel());
         double[] resolutions = getResolutions();
         if (resolutions != null && index < resolutions.length) {
             // 因为layer的resolution和map的resolution存在可允许的误差，但是计算出图比例尺使用layer的resolutio
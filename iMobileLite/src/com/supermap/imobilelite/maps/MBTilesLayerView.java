@@ -33,16 +33,11 @@ public class MBTilesLayerView extends AbstractTileLayerView {
     // private AsyncGetMBTiles asyncGetMBTiles;
     // 存储当前所需的不在内存缓存中的所有的瓦片信息
     private List<MBTileMessage> tileList = new ArrayList<MBTileMessage>();
-    private GetMBTilesTask getMBTilesTask;
+    // 读取离线缓存的任务队列，只执行最新视图的读取任务
+    private OfflineTileReader tileReader;
     private RefreshHandler refreshHandler;
     private double[] metaResolutions;
-    private boolean getMBTilesTaskOver = false;
-    private boolean sleep = true;
-    // 读取图片的线程睡眠的时间，单位ms
-    private long sleepTime = 400L;
     // private String imageFormat = "png";
-    // 是否是第一次出图，第一次就不让读取图片的线程睡眠
-    private boolean firstOutputTile = true;
     // 标识离线缓存是标准的MBTiles还是iserver扩展的SMTiles，标准的为true。
     private boolean compatible;
 
@@ -179,7 +174,7 @@ public class MBTilesLayerView extends AbstractTileLayerView {
         if (mbtilesHelper == null || !mbtilesHelper.isOpen() || this.tileSize != 256) {
             return;
         }
-        int index = getResolutionIndex();
+        int index = getResolutionIndex(tile.getZoomLevel());
         if (index == -1) {
             return;
         }
@@ -188,11 +183,9 @@ public class MBTilesLayerView extends AbstractTileLayerView {
         ITileCache mCache = this.getTileCacher().getCache(TileCacher.CacheType.MEMORY);
         // 存在内存缓存对象
         if (mCache != null) {
+            // 包含当前瓦片时getTile已把缓存的Bitmap设置到tile上，无需查询数据库
             Tile ct = mCache.getTile(tile);
-            if (ct != null && ct.getBitmap() != null) {
-                // 包含当前瓦片则读取缓存无需查询数据库获取
-                tile.setBitMap(ct.getBitmap());
-            } else {
+            if (ct == null || ct.getBitmap() == null) {
                 // 不包含当前瓦片则查询数据库获取瓦片并存储到内存缓存
                 initTileBitMap(tile, index);
             }
@@ -235,17 +228,13 @@ public class MBTilesLayerView extends AbstractTileLayerView {
     @Override
     public void asyncGetTilesFromCache() {
         // 异步去读取缓存数据tileList
-        if (getMBTilesTask == null) {
-            getMBTilesTask = new GetMBTilesTask();
-            getMBTilesTask.start();
-        }
-        if (!getMBTilesTask.isAlive()) {
-            getMBTilesTask.start();
+        if (tileReader == null) {
+            tileReader = new OfflineTileReader();
         }
         SyncTask task = buildSyncTask();
         if (!"".equals(task.sql)) {
-            // 根据需要不断同步修改需要执行的同步任务
-            getMBTilesTask.setSyncTask(task);
+            // 新的任务取代之前未完成的任务
+            tileReader.submit(new GetMBTilesTask(task));
         }
     }
 
@@ -279,7 +268,7 @@ public class MBTilesLayerView extends AbstractTileLayerView {
         }
         // 运行完一次，必须清空tileList，用来存储下次屏幕所需的瓦片
         tileList.clear();
-        SyncTask task = new SyncTask(tiles, sb.toString());
+        SyncTask task = new SyncTask(tiles, sb.toString(), zoom);
         return task;
     }
 
@@ -290,14 +279,13 @@ public class MBTilesLayerView extends AbstractTileLayerView {
      * @since 7.0.0
      */
     public void destroy() {
+        if (tileReader != null) {
+            tileReader.close();
+            tileReader = null;
+        }
         if (mbtilesHelper != null) {
             mbtilesHelper.close();
         }
-        if (getMBTilesTask != null) {
-            getMBTilesTask.interrupt();// 存在sleep，中断无效，所以增加getMBTilesTaskOver标志
-            getMBTilesTaskOver = true;
-            getMBTilesTask = null;
-        }
     }
 
     void refresh() {
@@ -308,11 +296,14 @@ public class MBTilesLayerView extends AbstractTileLayerView {
     class SyncTask {
         public List<Tile> tiles;
         public String sql;
+        // 构建任务时的级别，读取时视图可能已缩放
+        public int zoom;
 
-        public SyncTask(List<Tile> tiles, String sql) {
+        public SyncTask(List<Tile> tiles, String sql, int zoom) {
             super();
             this.tiles = tiles;
             this.sql = sql;
+            this.zoom = zoom;
         }
 
     }
@@ -330,132 +321,72 @@ public class MBTilesLayerView extends AbstractTileLayerView {
 
     /**
      * <p>
-     * 读取MBTiles的任务线程，运行一次读取当前屏幕所需的不在内存缓存的所有瓦片，即tileList存储的瓦片
+     * 读取MBTiles的任务，运行一次读取当前屏幕所需的不在内存缓存的所有瓦片，即tileList存储的瓦片
      * </p>
      * @author ${huangqh}
      * @version ${Version}
      * @since 6.1.3
      * 
      */
-    class GetMBTilesTask extends Thread {
+    class GetMBTilesTask extends OfflineTileReader.Task {
         private static final String ROOT_SQL = "SELECT tile_column,tile_row,tile_data FROM tiles WHERE (";
-        private static final String CONDITION_SQL = "(tile_column=? AND tile_row=? AND resolution=?)";
-        // private static final String CONDITION_SQL = "(tile_column=? AND tile_row=? AND resolution>? and resolution<?)";
-        private static final double RESOLUTION_PRECESION = 1.0E-6;
-        private SyncTask task = null;
+        private final SyncTask task;
+
+        GetMBTilesTask(SyncTask task) {
+            this.task = task;
+        }
 
         @Override
         public void run() {
-            while (!getMBTilesTaskOver) {
-                // String sql = "";
-                // // 初始化组装sql语句和sql参数
-                // Log.d(LOG_TAG, "tileList size:" + tileList.size());
-                // double r = 0;
-                // int len = tileList.size();
-                // for (int i = 0; i < len; i++) {
-                // MBTileMessage mm = tileList.get(i);
-                // // argus.add(String.valueOf(mm.tile.getX()));
-                // // argus.add(String.valueOf(mm.tile.getY()));
-                // // argus.add(String.valueOf(mm.resolution));
-                // // argus.add(String.valueOf(mm.resolution- RESOLUTION_PRECESION));
-                // // argus.add(String.valueOf(mm.resolution+ RESOLUTION_PRECESION));
-                // // sql = sql + CONDITION_SQL;
-                // sql = sql + "(tile_column=" + mm.tile.getX() + " AND tile_row=" + mm.tile.getY() + " AND resolution=" + mm.resolution + ")";
-                // if (i != len - 1) {
-                // sql += " OR ";
-                // } else {
-                // r = mm.resolution;
-                // }
-                // }
-                // // 运行完一次。必须清空tileList，用来存储下次屏幕所需的瓦片
-                // tileList.clear();
-                // Log.d(LOG_TAG, "resolution:" + r);
-                // 根据sql语句和sql参数执行查询返回瓦片二进制数组，并做缓存
-                Map<String, byte[]> byteMap = null;
-                try {
-                    // 异步读取同步任务，非空执行任务
-                    SyncTask st = getSyncTask();
-                    if (st != null && !"".equals(st.sql)) {
-                        List<String> argus = new ArrayList<String>();
-                        String mySql = st.sql;
-                        mySql = ROOT_SQL + mySql + ");";
-                        Log.d(LOG_TAG, "sql:" + mySql);
-                        byteMap = mbtilesHelper.getTiles(mySql, argus);
-//                        if (byteMap != null) {
-//                            Log.d(LOG_TAG, "tileFromMBTiles byteMap size:" + byteMap.size());
-//                        }
-                        ITileCache mCache = getTileCacher().getCache(TileCacher.CacheType.MEMORY);
-                        Log.d(LOG_TAG, "st.tiles.size():" + st.tiles.size());
-                        if (byteMap != null && byteMap.size() > 0) {
-                            for (int i = 0; i < st.tiles.size(); i++) {
-                                Tile mTile = st.tiles.get(i);
-                                String key = null;
-                                if (compatible) {
-                                    key = mTile.getX() + "_" + MBTilesUtil.displaceY(getResolutionIndex(), mTile.getY());
-                                } else {
-                                    key = mTile.getX() + "_" + mTile.getY();
-                                }
-                                byte[] bs = byteMap.get(key);
-                                if (bs != null && bs.length > 0) {
-                                    mTile.setBytes(bs);
-                                    BitmapFactory.Options options = new BitmapFactory.Options();
-                                    options.inDither = false;
-                                    options.inPurgeable = true;
-                                    options.inInputShareable = true;
-                                    options.inTempStorage = new byte[32 * 1024];
-                                    Bitmap bm = BitmapFactory.decodeByteArray(bs, 0, bs.length, options);
-                                    mTile.setBitMap(bm);
-                                    if (mCache != null) {
-                                        mCache.addTile(mTile);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    // 刷新地图
-                    if (byteMap != null && byteMap.size() > 0) {
-                        firstOutputTile = false;
-                        // refresh();
-                        // 子线程不能直接调用UI相关控件，所以只能通过把结果以消息的方式告知UI主线程展示结果
-                        refreshHandler.sendEmptyMessage(1);
-                    } else {
-                        // Log.d(LOG_TAG, "byteMap null");
-                        if (sleep && !firstOutputTile) {
-                            Thread.sleep(sleepTime);
-                        }
+            SyncTask st = this.task;
+            MBTilesUtil helper = mbtilesHelper;
+            if (st == null || "".equals(st.sql) || helper == null) {
+                return;
+            }
+            List<String> argus = new ArrayList<String>();
+            String mySql = ROOT_SQL + st.sql + ");";
+            Log.d(LOG_TAG, "sql:" + mySql);
+            // 根据sql语句执行查询返回瓦片二进制数组，并做缓存
+            Map<String, byte[]> byteMap = helper.getTiles(mySql, argus);
+            TileCacher tileCacher = getTileCacher();
+            if (byteMap == null || byteMap.size() < 1 || tileCacher == null) {
+                return;
+            }
+            ITileCache mCache = tileCacher.getCache(TileCacher.CacheType.MEMORY);
+            Log.d(LOG_TAG, "st.tiles.size():" + st.tiles.size());
+            byte[] tempStorage = new byte[32 * 1024];
+            boolean added = false;
+            for (int i = 0; i < st.tiles.size(); i++) {
+                // 已被新的视图取代，剩余瓦片由新任务读取
+                if (isCancelled()) {
+                    break;
+                }
+                Tile mTile = st.tiles.get(i);
+                String key = null;
+                if (compatible) {
+                    key = mTile.getX() + "_" + MBTilesUtil.displaceY(st.zoom, mTile.getY());
+                } else {
+                    key = mTile.getX() + "_" + mTile.getY();
+                }
+                byte[] bs = byteMap.get(key);
+                if (bs != null && bs.length > 0) {
+                    mTile.setBytes(bs);
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inDither = false;
+                    options.inTempStorage = tempStorage;
+                    Bitmap bm = BitmapPool.getInstance().decode(bs, options);
+                    mTile.setBitMap(bm);
+                    if (mCache != null) {
+                        mCache.addTile(mTile);
                     }
-                } catch (InterruptedException e) {
-                    Log.d(LOG_TAG, "InterruptedException occurs:" + e.getMessage());
+                    added = true;
                 }
             }
-            // Log.d(LOG_TAG, "成功退出读取离线缓存的子线程");
-        }
-
-        /**
-         * <p>
-         * 同步修改需要执行的同步任务
-         * </p>
-         * @param task
-         * @since 6.1.3
-         */
-        public synchronized void setSyncTask(SyncTask task) {
-            this.task = task;
-        }
-
-        /**
-         * <p>
-         * 同步读取需要执行的同步任务后并把同步任务置空，置空保证循环执行有意义的任务
-         * </p>
-         * @return
-         * @since 6.1.3
-         */
-        public synchronized SyncTask getSyncTask() {
-            if (task == null) {
-                return null;
+            // 刷新地图
+            if (added) {
+                // 子线程不能直接调用UI相关控件，所以只能通过把结果以消息的方式告知UI主线程展示结果
+                refreshHandler.sendEmptyMessage(1);
             }
-            SyncTask st = new SyncTask(task.tiles, task.sql);
-            task = null;
-            return st;
         }
     }
 
@@ -0,0 +1,688 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+/**
+ * <p>
+ * 以单个MBTiles格式的SQLite文件保存的SD卡瓦片缓存，可以代替{@link PackedTileCache}作为{@link TileCacher}的SD卡缓存。
+ * </p>
+ * <p>
+ * 瓦片保存在tiles表中，沿用MBTiles的zoom_level、tile_column、tile_row、tile_data列，并以(zoom_level, tile_column, tile_row)开头建立唯一索引；
+ * 由于多个图层共用一个文件，另用layer列区分图层，variant列区分同一行列号下不同比例尺、投影和透明设置的瓦片。行号按MBTiles规范以左下角为原点保存。
+ * tile_data放在最后一列，读取size、freshness和last_access时不需要读取瓦片内容所在的溢出页；按访问时间淘汰时只读取(last_access, size)索引。
+ * 数据库使用WAL日志，读取不会被写入阻塞。总字节数在后台线程统计，统计完成前不触发淘汰。
+ * </p>
+ * <p>
+ * 批量写入在一个事务中完成。读访问只在内存中记录，由后台线程定期批量更新访问时间；超出容量上限时后台线程按访问时间淘汰最久未使用的瓦片，
+ * 删除较多瓦片后空闲页超过文件的{@link #VACUUM_FREE_RATIO}时执行VACUUM回收空间。
+ * </p>
+ * <p>
+ * 同一文件在进程内只有一个实例，通过{@link #acquire(Context)}获取，{@link #destroy()}释放。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class MBTilesTileCache implements ITileCache {
+    private static final String LOG_TAG = "com.supermap.android.maps.mbtilestilecache";
+    static final String FILE_NAME = "tiles.mbtiles";
+    private static final int SCHEMA_VERSION = 2;
+    private static final String SELECT_TILE = "SELECT rowid, tile_data, freshness FROM tiles WHERE zoom_level=? AND tile_column=? AND tile_row=? AND layer=? AND variant=?;";
+    private static final String SELECT_SIZE = "SELECT rowid, size FROM tiles WHERE zoom_level=? AND tile_column=? AND tile_row=? AND layer=? AND variant=?;";
+    private static final String CONTAINS_TILE = "SELECT COUNT(*) FROM tiles WHERE zoom_level=? AND tile_column=? AND tile_row=? AND layer=? AND variant=?;";
+    private static final String INSERT_TILE = "INSERT OR IGNORE INTO tiles (zoom_level, tile_column, tile_row, layer, variant, size, freshness, last_access, tile_data) VALUES (?,?,?,?,?,?,?,?,?);";
+    private static final String UPDATE_TILE = "UPDATE tiles SET tile_data=?, size=?, freshness=? WHERE rowid=?;";
+    private static final String UPDATE_FRESHNESS = "UPDATE tiles SET freshness=? WHERE rowid=?;";
+    private static final String UPDATE_ACCESS = "UPDATE tiles SET last_access=? WHERE rowid=?;";
+    // 每次淘汰事务删除的最多瓦片数，避免长时间占用写锁
+    private static final int EVICT_BATCH = 256;
+    // 淘汰到不超过容量上限的该比例为止
+    private static final float EVICT_TARGET_RATIO = 0.75F;
+    // 空闲页超过文件的该比例时执行VACUUM
+    static final float VACUUM_FREE_RATIO = 0.25F;
+    // 删除瓦片后多久检查是否需要VACUUM
+    private static final long VACUUM_DELAY = 10000L;
+    // 读访问时间的写入间隔
+    private static final long ACCESS_FLUSH_DELAY = 30000L;
+
+    private static final Map<String, MBTilesTileCache> instances = new HashMap<String, MBTilesTileCache>();
+    private int references = 0;
+
+    private final File file;
+    private final SQLiteDatabase db;
+    // 有效瓦片数据的总字节数，统计完成前为0
+    private final AtomicLong totalBytes = new AtomicLong();
+    // 统计总字节数与写入事务的提交互斥
+    private final Object sizeLock = new Object();
+    // 总字节数是否已统计，由sizeLock保护
+    private boolean sized = false;
+    private volatile long maxBytes;
+    // 读取过、访问时间尚未写入的瓦片rowid，以自身为锁
+    private final Set<Long> touched = new HashSet<Long>();
+
+    HandlerThread handlerThread;
+    CacheHandler cacheHandler;
+
+    private MBTilesTileCache(File file, long maxBytes) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        this.db = openDatabase(file);
+        createSchema();
+        this.handlerThread = new HandlerThread("mbtiles-tile-cache", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        this.handlerThread.start();
+        this.cacheHandler = new CacheHandler(this.handlerThread.getLooper());
+        // 构造函数一般在UI线程调用，统计总字节数需要扫描整个表，放到后台线程
+        this.cacheHandler.sendEmptyMessage(CacheHandler.LOAD);
+        this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+    }
+
+    /**
+     * <p>
+     * 获取缓存文件对应的实例，SD卡可写时使用SD卡，否则使用应用私有目录
+     * </p>
+     * @param ctx
+     * @return 缓存实例，使用完毕后调用{@link #destroy()}释放
+     */
+    static MBTilesTileCache acquire(Context ctx) {
+        File root;
+        long maxBytes;
+        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            root = new File(Environment.getExternalStorageDirectory(), FSTileCache.EXTERNAL_CACHE_DIRECTORY);
+            maxBytes = FSTileCache.EXTERNAL_CACHE_SIZE;
+        } else {
+            root = ctx.getDir(FSTileCache.INTERNAL_CACHE_DIRECTORY, Context.MODE_PRIVATE);
+            maxBytes = FSTileCache.INTERNAL_CACHE_SIZE;
+        }
+        File file = new File(root, FILE_NAME);
+        synchronized (instances) {
+            String key = file.getAbsolutePath();
+            MBTilesTileCache cache = instances.get(key);
+            if (cache == null) {
+                cache = new MBTilesTileCache(file, maxBytes);
+                instances.put(key, cache);
+            }
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * <p>
+     * 打开缓存文件。旧版本的表结构不同，缓存内容直接丢弃：删除文件比逐页释放的DROP TABLE快得多
+     * </p>
+     */
+    private static SQLiteDatabase openDatabase(File file) {
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, flags);
+        int version = db.getVersion();
+        if (version != 0 && version != SCHEMA_VERSION) {
+            Log.d(LOG_TAG, "drop tile cache of schema version " + version);
+            db.close();
+            SQLiteDatabase.deleteDatabase(file);
+            db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, flags);
+        }
+        return db;
+    }
+
+    private void createSchema() {
+        if (this.db.getVersion() == SCHEMA_VERSION) {
+            return;
+        }
+        this.db.beginTransaction();
+        try {
+            this.db.execSQL("CREATE TABLE IF NOT EXISTS metadata (name TEXT, value TEXT);");
+            this.db.execSQL("CREATE TABLE IF NOT EXISTS tiles (zoom_level INTEGER NOT NULL, tile_column INTEGER NOT NULL, tile_row INTEGER NOT NULL, "
+                    + "layer TEXT NOT NULL, variant TEXT NOT NULL, size INTEGER NOT NULL, freshness BLOB, last_access INTEGER NOT NULL, tile_data BLOB NOT NULL);");
+            this.db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row, layer, variant);");
+            this.db.execSQL("CREATE INDEX IF NOT EXISTS tile_access ON tiles (last_access, size);");
+            this.db.execSQL("CREATE INDEX IF NOT EXISTS tile_layer ON tiles (layer);");
+            this.db.execSQL("INSERT INTO metadata (name, value) VALUES ('name', 'iMobileLite tile cache');");
+            this.db.execSQL("INSERT INTO metadata (name, value) VALUES ('type', 'baselayer');");
+            this.db.execSQL("INSERT INTO metadata (name, value) VALUES ('version', '" + SCHEMA_VERSION + "');");
+            this.db.setVersion(SCHEMA_VERSION);
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+    }
+
+    /**
+     * <p>
+     * 瓦片所属图层在layer列中的值，与{@link PackedTileCache#buildKey(Tile)}的目录部分相同，如rest-map_1/world
+     * </p>
+     */
+    static String layerOf(Tile tile) {
+        StringBuilder layer = new StringBuilder();
+        layer.append(tile.getProvider()).append("_1");
+        if (tile.getLayerNameCache() != null && !"".equals(tile.getLayerNameCache())) {
+            layer.append('/').append(tile.getLayerNameCache());
+        }
+        return layer.toString();
+    }
+
+    /**
+     * <p>
+     * 瓦片在tile_row列中的行号，按MBTiles规范由左上角原点的行号转为左下角原点的行号
+     * </p>
+     */
+    static int rowOf(Tile tile) {
+        return MBTilesUtil.displaceY(tile.getZoomLevel(), tile.getY());
+    }
+
+    private static String[] whereArgs(Tile tile) {
+        return new String[] { String.valueOf(tile.getZoomLevel()), String.valueOf(tile.getX()), String.valueOf(rowOf(tile)), layerOf(tile),
+                tile.buildCacheKey() };
+    }
+
+    public void addTile(Tile tile) {
+        List<Tile> tiles = new ArrayList<Tile>(1);
+        tiles.add(tile);
+        addTiles(tiles);
+    }
+
+    /**
+     * <p>
+     * 批量加入瓦片，整批在一个事务中写入，已有的瓦片忽略
+     * </p>
+     * @param tiles
+     */
+    public void addTiles(List<Tile> tiles) {
+        long added = 0;
+        long committed = 0;
+        long now = System.currentTimeMillis();
+        try {
+            this.db.beginTransaction();
+            SQLiteStatement insert = this.db.compileStatement(INSERT_TILE);
+            try {
+                for (Tile tile : tiles) {
+                    byte[] bytes = tile.getBytes();
+                    if ((!tile.isValid()) || (bytes == null))
+                        continue;
+                    insert.clearBindings();
+                    insert.bindLong(1, tile.getZoomLevel());
+                    insert.bindLong(2, tile.getX());
+                    insert.bindLong(3, rowOf(tile));
+                    insert.bindString(4, layerOf(tile));
+                    insert.bindString(5, tile.buildCacheKey());
+                    insert.bindLong(6, bytes.length);
+                    byte[] freshness = encode(tile.getFreshness());
+                    if (freshness == null) {
+                        insert.bindNull(7);
+                    } else {
+                        insert.bindBlob(7, freshness);
+                    }
+                    insert.bindLong(8, now);
+                    insert.bindBlob(9, bytes);
+                    if (insert.executeInsert() != -1) {
+                        added += bytes.length;
+                    }
+                }
+                this.db.setTransactionSuccessful();
+                committed = added;
+            } finally {
+                insert.close();
+                endTransaction(committed);
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "addTiles failed: " + e.getMessage());
+            return;
+        }
+        if (committed > 0 && this.totalBytes.get() > this.maxBytes && !this.cacheHandler.hasMessages(CacheHandler.EVICT)) {
+            this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+        }
+    }
+
+    public Tile getTile(Tile tile) {
+        Cursor result = null;
+        long rowid;
+        try {
+            result = this.db.rawQuery(SELECT_TILE, whereArgs(tile));
+            if (!result.moveToFirst()) {
+                return tile;
+            }
+            rowid = result.getLong(0);
+            tile.adoptBytes(result.getBlob(1));
+            tile.setFreshness(result.isNull(2) ? null : decode(result.getBlob(2)));
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "getTile failed: " + e.getMessage());
+            return tile;
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+        }
+        synchronized (this.touched) {
+            if (this.touched.isEmpty()) {
+                this.cacheHandler.sendEmptyMessageDelayed(CacheHandler.FLUSH_ACCESS, ACCESS_FLUSH_DELAY);
+            }
+            this.touched.add(Long.valueOf(rowid));
+        }
+        return tile;
+    }
+
+    /**
+     * <p>
+     * 重新验证后更新瓦片：data不为null时替换瓦片内容，再更新新鲜度信息。瓦片已被淘汰时忽略
+     * </p>
+     * @param tile 瓦片
+     * @param data 新的瓦片内容，服务端返回304时为null
+     * @param freshness 新的新鲜度信息
+     */
+    void refresh(Tile tile, byte[] data, TileFreshness freshness) {
+        Cursor result = null;
+        try {
+            result = this.db.rawQuery(SELECT_SIZE, whereArgs(tile));
+            if (!result.moveToFirst()) {
+                return;
+            }
+            long rowid = result.getLong(0);
+            long size = result.getLong(1);
+            byte[] encoded = encode(freshness);
+            SQLiteStatement update = this.db.compileStatement(data == null ? UPDATE_FRESHNESS : UPDATE_TILE);
+            try {
+                int i = 1;
+                if (data != null) {
+                    update.bindBlob(i++, data);
+                    update.bindLong(i++, data.length);
+                }
+                if (encoded == null) {
+                    update.bindNull(i++);
+                } else {
+                    update.bindBlob(i++, encoded);
+                }
+                update.bindLong(i, rowid);
+                synchronized (this.sizeLock) {
+                    update.execute();
+                    if (data != null && this.sized) {
+                        this.totalBytes.addAndGet(data.length - size);
+                    }
+                }
+            } finally {
+                update.close();
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "refresh failed: " + e.getMessage());
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+        }
+    }
+
+    public void removeTile(Tile tile) {
+        Cursor result = null;
+        try {
+            result = this.db.rawQuery(SELECT_SIZE, whereArgs(tile));
+            if (result.moveToFirst()) {
+                long rowid = result.getLong(0);
+                long size = result.getLong(1);
+                synchronized (this.sizeLock) {
+                    if (this.db.delete("tiles", "rowid=?", new String[] { String.valueOf(rowid) }) > 0 && this.sized) {
+                        this.totalBytes.addAndGet(-size);
+                    }
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "removeTile failed: " + e.getMessage());
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+        }
+    }
+
+    public boolean contains(Tile tile) {
+        try {
+            return DatabaseUtils.longForQuery(this.db, CONTAINS_TILE, whereArgs(tile)) > 0;
+        } catch (SQLiteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * 按目录名清除缓存，参数与{@link FSTileCache#clearByDirName(String)}相同
+     * </p>
+     * @param directoryName Provider的值/图层名，如rest-map/world
+     */
+    public void clearByDirName(String directoryName) {
+        String layer = directoryName.replace(File.separatorChar, '/');
+        if (layer.indexOf('/') >= 0) {// 把rest-map/world变成rest-map_1/world
+            layer = layer.substring(0, layer.indexOf('/')) + "_1" + layer.substring(layer.indexOf('/'));
+        } else {
+            layer = layer + "_1";
+        }
+        try {
+            this.db.beginTransaction();
+            long committed = 0;
+            try {
+                String[] args = new String[] { layer };
+                long size = DatabaseUtils.longForQuery(this.db, "SELECT IFNULL(SUM(size), 0) FROM tiles WHERE layer=?;", args);
+                this.db.delete("tiles", "layer=?", args);
+                this.db.setTransactionSuccessful();
+                committed = -size;
+            } finally {
+                endTransaction(committed);
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "clearByDirName failed: " + e.getMessage());
+        }
+        scheduleVacuum();
+    }
+
+    public void clear() {
+        synchronized (this.touched) {
+            this.touched.clear();
+        }
+        try {
+            synchronized (this.sizeLock) {
+                this.db.delete("tiles", null, null);
+                this.totalBytes.set(0);
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "clear failed: " + e.getMessage());
+        }
+        scheduleVacuum();
+    }
+
+    public int size() {
+        return (int) Math.min(this.totalBytes.get(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * 设置容量上限，超出时后台按最近最少使用的顺序淘汰
+     * </p>
+     * @param maxBytes 容量上限，单位字节
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+    }
+
+    /**
+     * <p>
+     * 获取容量上限
+     * </p>
+     * @return 容量上限，单位字节
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * <p>
+     * 获取缓存文件
+     * </p>
+     * @return 缓存文件
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    public void destroy() {
+        synchronized (instances) {
+            if (--this.references > 0) {
+                return;
+            }
+            instances.remove(this.file.getAbsolutePath());
+        }
+        Looper looper = this.handlerThread.getLooper();
+        if (looper != null) {
+            looper.quit();
+        }
+        // 等待正在执行的淘汰或VACUUM结束后再关闭数据库
+        try {
+            this.handlerThread.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAccess();
+        this.db.close();
+    }
+
+    /**
+     * <p>
+     * 结束事务并累计总字节数的变化。与统计总字节数互斥，每次变化要么已包含在统计结果中，要么在统计之后累加
+     * </p>
+     * @param delta 事务成功提交时总字节数的变化
+     */
+    private void endTransaction(long delta) {
+        synchronized (this.sizeLock) {
+            this.db.endTransaction();
+            if (this.sized) {
+                this.totalBytes.addAndGet(delta);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 在后台线程统计有效瓦片数据的总字节数
+     * </p>
+     */
+    private void load() {
+        long total;
+        try {
+            synchronized (this.sizeLock) {
+                // 可使用(last_access, size)索引，不扫描表中的瓦片内容
+                total = DatabaseUtils.longForQuery(this.db, "SELECT IFNULL(SUM(size), 0) FROM tiles;", null);
+                this.totalBytes.set(total);
+                this.sized = true;
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "sum tile size failed: " + e.getMessage());
+            return;
+        }
+        Log.d(LOG_TAG, "mbtiles tile cache location: " + this.file.getAbsolutePath() + ", bytes: " + total);
+    }
+
+    private void scheduleVacuum() {
+        this.cacheHandler.removeMessages(CacheHandler.VACUUM);
+        this.cacheHandler.sendEmptyMessageDelayed(CacheHandler.VACUUM, VACUUM_DELAY);
+    }
+
+    /**
+     * <p>
+     * 把读取过的瓦片的访问时间批量写入数据库
+     * </p>
+     */
+    private void flushAccess() {
+        Long[] rowids;
+        synchronized (this.touched) {
+            rowids = this.touched.toArray(new Long[this.touched.size()]);
+            this.touched.clear();
+        }
+        if (rowids.length == 0 || !this.db.isOpen()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            this.db.beginTransaction();
+            SQLiteStatement update = this.db.compileStatement(UPDATE_ACCESS);
+            try {
+                for (Long rowid : rowids) {
+                    update.bindLong(1, now);
+                    update.bindLong(2, rowid.longValue());
+                    update.execute();
+                }
+                this.db.setTransactionSuccessful();
+            } finally {
+                update.close();
+                this.db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "flush access failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>
+     * 按访问时间淘汰最久未使用的瓦片，直到不超过容量上限的{@link #EVICT_TARGET_RATIO}
+     * </p>
+     */
+    private void evict() {
+        long max = this.maxBytes;
+        synchronized (this.sizeLock) {
+            if (!this.sized) {
+                return;
+            }
+        }
+        if (this.totalBytes.get() <= max) {
+            return;
+        }
+        // 先写入访问时间，避免刚读过的瓦片被淘汰
+        flushAccess();
+        long target = (long) (max * EVICT_TARGET_RATIO);
+        boolean evicted = false;
+        while (this.totalBytes.get() > target) {
+            long removed = 0;
+            long committed = 0;
+            int count = 0;
+            Cursor result = null;
+            try {
+                this.db.beginTransaction();
+                try {
+                    result = this.db.rawQuery("SELECT rowid, size FROM tiles ORDER BY last_access LIMIT " + EVICT_BATCH + ";", null);
+                    long remaining = this.totalBytes.get() - target;
+                    List<Long> victims = new ArrayList<Long>();
+                    while (result.moveToNext() && removed < remaining) {
+                        victims.add(Long.valueOf(result.getLong(0)));
+                        removed += result.getLong(1);
+                    }
+                    result.close();
+                    result = null;
+                    SQLiteStatement delete = this.db.compileStatement("DELETE FROM tiles WHERE rowid=?;");
+                    try {
+                        for (Long rowid : victims) {
+                            delete.bindLong(1, rowid.longValue());
+                            delete.execute();
+                        }
+                    } finally {
+                        delete.close();
+                    }
+                    count = victims.size();
+                    this.db.setTransactionSuccessful();
+                    committed = -removed;
+                } finally {
+                    if (result != null) {
+                        result.close();
+                    }
+                    endTransaction(committed);
+                }
+            } catch (SQLiteException e) {
+                Log.d(LOG_TAG, "evict failed: " + e.getMessage());
+                return;
+            }
+            if (count == 0) {
+                break;
+            }
+            evicted = true;
+        }
+        if (evicted) {
+            scheduleVacuum();
+        }
+    }
+
+    /**
+     * <p>
+     * 空闲页超过文件的{@link #VACUUM_FREE_RATIO}时执行VACUUM，把文件缩小到实际数据的大小
+     * </p>
+     */
+    private void vacuum() {
+        try {
+            long pages = DatabaseUtils.longForQuery(this.db, "PRAGMA page_count;", null);
+            long free = DatabaseUtils.longForQuery(this.db, "PRAGMA freelist_count;", null);
+            if (pages > 0 && free > pages * VACUUM_FREE_RATIO) {
+                long start = System.currentTimeMillis();
+                this.db.execSQL("VACUUM;");
+                Log.d(LOG_TAG, "vacuum " + free + "/" + pages + " pages in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (SQLiteException e) {
+            Log.d(LOG_TAG, "vacuum failed: " + e.getMessage());
+        }
+    }
+
+    private static byte[] encode(TileFreshness freshness) {
+        if (freshness == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            freshness.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TileFreshness decode(byte[] bytes) {
+        try {
+            return TileFreshness.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private class CacheHandler extends Handler {
+        static final int EVICT = 0;
+        static final int VACUUM = 1;
+        static final int FLUSH_ACCESS = 2;
+        static final int LOAD = 3;
+
+        public CacheHandler(Looper looper) {
+            super(looper);
+        }
+
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+            case EVICT:
+                removeMessages(EVICT);
+                MBTilesTileCache.this.evict();
+                break;
+            case LOAD:
+                MBTilesTileCache.this.load();
+                break;
+            case VACUUM:
+                MBTilesTileCache.this.vacuum();
+                break;
+            case FLUSH_ACCESS:
+                MBTilesTileCache.this.flushAccess();
+                break;
+            }
+            super.handleMessage(msg);
+        }
+    }
+}
@@ -47,6 +47,8 @@ class MBTilesUtil {
     // 二进制文件来源，是AS写入的还是其他，控制查询参数
     // public static Boolean bytefromIsAS = false;
     private SQLiteDatabase db;
+    // 已打开的数据库文件的绝对路径，瓦片读取使用该文件的只读连接池
+    private String dbAbsolutePath;
     private boolean open = false;
     private static Map<Integer, Double> resolutions = new HashMap<Integer, Double>();
     private static final double RESOLUTION_PRECESION = 1.0E-6;// 分辨率精度，在该精度范围内，认为两个分辨率相等。
@@ -96,6 +98,7 @@ class MBTilesUtil {
             String path = file.getAbsolutePath();
             db = SQLiteDatabase.openDatabase(path, null, 0);
             if (db != null && db.isOpen()) {
+                this.dbAbsolutePath = path;
                 this.open = true;
                 return true;
             }
@@ -121,6 +124,11 @@ class MBTilesUtil {
      */
     public boolean close() {
         boolean isClose = false;
+        this.open = false;
+        if (dbAbsolutePath != null) {
+            SQLiteReadPool.getInstance().close(dbAbsolutePath);
+            dbAbsolutePath = null;
+        }
         if (db != null && db.isOpen()) {
             db.close();
             isClose = !db.isOpen();
@@ -143,13 +151,18 @@ class MBTilesUtil {
             return null;
         }
         int level = getLevel(resolution, "3857");
+        String readerPath = this.dbAbsolutePath;
+        SQLiteDatabase reader = acquireReader(readerPath);
+        if (reader == null) {
+            return null;
+        }
         Cursor result = null;
         byte[] resultBytes = null;
         try {
             if (level > -1) {
                 y = (int) displaceY(level, y);
                 String argus[] = { String.valueOf(x), String.valueOf(y), String.valueOf(level) };
-                result = db.rawQuery(SELECT_TILE_BYLEVEL, argus);
+                result = reader.rawQuery(SELECT_TILE_BYLEVEL, argus);
                 result.moveToFirst();
                 resultBytes = result.getBlob(0);
                 return resultBytes;
@@ -157,7 +170,7 @@ class MBTilesUtil {
                 String argus[] = { String.valueOf(x), String.valueOf(y), String.valueOf(resolution - RESOLUTION_PRECESION),
                         String.valueOf(resolution + RESOLUTION_PRECESION) };
                 // long s = System.currentTimeMillis();
-                result = db.rawQuery(SELECT_TILE_BYRES_SQL, argus);
+                result = reader.rawQuery(SELECT_TILE_BYRES_SQL, argus);
                 // Log.d(LOG_TAG, "Query times:" + (System.currentTimeMillis() - s) + "ms");
                 result.moveToFirst();
                 resultBytes = result.getBlob(0);
@@ -169,6 +182,27 @@ class MBTilesUtil {
             if (result != null) {
                 result.close();
             }
+            releaseReader(readerPath, reader);
+        }
+    }
+
+    /**
+     * <p>
+     * 从连接池借出当前数据库文件的只读连接，多个线程可以并行读取瓦片
+     * </p>
+     * @param path 数据库文件的绝对路径
+     * @return 只读连接，无法打开时返回null
+     */
+    private SQLiteDatabase acquireReader(String path) {
+        if (!this.open || path == null) {
+            return null;
+        }
+        return SQLiteReadPool.getInstance().acquire(path);
+    }
+
+    private void releaseReader(String path, SQLiteDatabase reader) {
+        if (reader != null) {
+            SQLiteReadPool.getInstance().release(path, reader);
         }
     }
 
@@ -193,10 +227,15 @@ class MBTilesUtil {
                 arguStrs = new String[argus.size()];
                 arguStrs = argus.toArray(arguStrs);
             }
+            String readerPath = this.dbAbsolutePath;
+            SQLiteDatabase reader = acquireReader(readerPath);
+            if (reader == null) {
+                return null;
+            }
             try {
                 long s = System.currentTimeMillis();
                 // 该接口组装sql语句时可能会出现参数为double值时小数点后面数字缺失，使用=查不出结果，必须使用范围查询，所以最好不用argus传参
-                result = db.rawQuery(sql, arguStrs);
+                result = reader.rawQuery(sql, arguStrs);
                 Log.d(LOG_TAG, "Query Tiles times:" + (System.currentTimeMillis() - s) + "ms");
                 if (result != null) {
                     Log.d(LOG_TAG, "Tile Cursor Count:" + result.getCount());
@@ -214,6 +253,7 @@ class MBTilesUtil {
                 if (result != null) {
                     result.close();
                 }
+                releaseReader(readerPath, reader);
             }
         }
         return null;
@@ -458,10 +498,15 @@ class MBTilesUtil {
                 arguStrs = new String[argus.size()];
                 arguStrs = argus.toArray(arguStrs);
             }
+            String readerPath = this.dbAbsolutePath;
+            SQLiteDatabase reader = acquireReader(readerPath);
+            if (reader == null) {
+                return null;
+            }
             try {
                 long s = System.currentTimeMillis();
                 // 该接口组装sql语句时可能会出现参数为double值时小数点后面数字缺失，使用=查不出结果，必须使用范围查询，所以最好不用argus传参
-                result = db.rawQuery(sql, arguStrs);
+                result = reader.rawQuery(sql, arguStrs);
                 Log.d(LOG_TAG, "Query VectorTile ids times:" + (System.currentTimeMillis() - s) + "ms");
                 List<String> tileids = new ArrayList<String>();
                 if (result != null) {
@@ -490,7 +535,7 @@ class MBTilesUtil {
                     sb.append(")");
                     Log.d(LOG_TAG, "queySql:" + sb.toString());
                     long s1 = System.currentTimeMillis();
-                    queryresult = db.rawQuery(sb.toString(), null);
+                    queryresult = reader.rawQuery(sb.toString(), null);
                     Log.d(LOG_TAG, "Query VectorTiles data times:" + (System.currentTimeMillis() - s1) + "ms");
                     if (queryresult != null) {
                         // Log.d(LOG_TAG, "Tile Cursor Count:" + queryresult.getCount());
@@ -522,6 +567,7 @@ class MBTilesUtil {
                 if (queryresult != null) {
                     queryresult.close();
                 }
+                releaseReader(readerPath, reader);
             }
         }
         return null;
@@ -146,6 +146,11 @@ public class MapView extends RelativeLayout{
     // private double[] visibleScales = null;// 自定义比例尺数组，取所有Layer的并集，如果都没有设置的话就默认18级比例尺显示
 
     private TileDownloader tileProvider;
+    // 瓦片下载的最小、最大并发数
+    private int minDownloadThreadCount = ThreadBasedTileDownloader.DEFAULT_MIN_RUNNING_DOWNLOADS;
+    private int maxDownloadThreadCount = ThreadBasedTileDownloader.DEFAULT_MAX_RUNNING_DOWNLOADS;
+    // 瓦片下载统计，下载器重建时保留
+    private TileDownloadStatistics tileDownloadStatistics = new TileDownloadStatistics();
     // private ProjectionUtil projectionUtil;
     // private final static int DEFAULT_RESOLUTION_SIZE = 18;
 
@@ -370,15 +375,27 @@ public class MapView extends RelativeLayout{
      * @return 地图当前分辨率。
      */
     public double getRealResolution() {
+        return getRealResolution(this.zoomLevel);
+    }
+
+    /**
+     * <p>
+     * 返回指定缩放层级的真实分辨率，不改变地图当前的缩放层级。
+     * </p>
+     * @param zoom 缩放层级。
+     * @return 该层级的分辨率。
+     * @since 8.0.0
+     */
+    double getRealResolution(int zoom) {
         if (resolutions != null && resolutions.length > 0) {
-            if (zoomLevel < resolutions.length) {
-                return this.resolutions[zoomLevel];
+            if (zoom < resolutions.length) {
+                return this.resolutions[zoom];
             } else {
                 return this.resolutions[resolutions.length - 1];
             }
         } else {
             double firstResolution = getDefResolution();
-            return zoomLevel <= maxLevel ? firstResolution / (Math.pow(2, zoomLevel)) : firstResolution / (Math.pow(2, maxLevel));
+            return zoom <= maxLevel ? firstResolution / (Math.pow(2, zoom)) : firstResolution / (Math.pow(2, maxLevel));
         }
     }
 
@@ -525,7 +542,7 @@ public class MapView extends RelativeLayout{
 
     /**
      * <p>
-     * 设置缓存大小，单位是张，指明最多缓存多少瓦片，每张约占256KB内存计算
+     * 设置缓存大小，单位是张，指明最多缓存多少瓦片。内存缓存同时受{@link #setMemoryCacheFraction(float)}设置的字节数限制。
      * </p>
      * @param size 缓存张数
      * @since 7.0.0
@@ -536,6 +553,225 @@ public class MapView extends RelativeLayout{
         }
     }
 
+    /**
+     * <p>
+     * 设置内存瓦片缓存占应用可用内存（ActivityManager.getMemoryClass()）的比例，默认0.25。
+     * 内存缓存按瓦片Bitmap实际占用的字节数淘汰，高分辨率、ARGB_8888或512像素的瓦片会相应减少缓存张数。
+     * </p>
+     * @param fraction 比例，取值范围(0,1]。
+     * @since 8.0.0
+     */
+    public void setMemoryCacheFraction(float fraction) {
+        if (this.tileCacher != null) {
+            this.tileCacher.setMemoryCacheFraction(fraction);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置SD卡瓦片缓存的容量上限，默认SD卡上为100MB，应用私有目录中为10MB。超出时后台按最近最少使用的顺序淘汰瓦片。
+     * </p>
+     * @param maxBytes 容量上限，单位字节。
+     * @since 8.0.0
+     */
+    public void setDiskCacheSize(long maxBytes) {
+        if (this.tileCacher != null && maxBytes > 0) {
+            this.tileCacher.setDiskCacheSize(maxBytes);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置SD卡瓦片缓存的存储格式，默认为{@link DiskCacheFormat#PACKED}。
+     * 使用{@link DiskCacheFormat#MBTILES}时在线浏览过的瓦片保存在一个MBTiles格式的SQLite文件中，便于拷贝和查询。
+     * 建议在添加图层之前设置，切换格式时原格式中已缓存的瓦片不会迁移。
+     * </p>
+     * @param format 存储格式。
+     * @since 8.0.0
+     */
+    public void setDiskCacheFormat(DiskCacheFormat format) {
+        if (this.tileCacher != null) {
+            this.tileCacher.setDiskCacheFormat(format);
+        }
+    }
+
+    /**
+     * <p>
+     * 把图层在指定范围和缩放层级区间内的瓦片下载到SD卡瓦片缓存中，供离线浏览使用。必须在UI线程调用，图层须已添加到地图并初始化完成。
+     * </p>
+     * <p>
+     * 下载使用任务自己的HTTP连接池，与地图浏览共用主机熔断，已在缓存中的瓦片直接跳过。任务中断后用相同的参数再次调用，会从上次停下的位置继续。
+     * </p>
+     * @param layerView 要下载瓦片的图层。
+     * @param bounds 下载范围。
+     * @param minZoom 最小缩放层级。
+     * @param maxZoom 最大缩放层级。
+     * @param target 瓦片写入的缓存格式，为null时使用{@link #setDiskCacheFormat(DiskCacheFormat)}设置的格式。
+     * @param listener 监听器，可以为null。
+     * @return 已开始执行的下载任务。
+     * @since 8.0.0
+     */
+    public TileSeedJob seedTiles(AbstractTileLayerView layerView, BoundingBox bounds, int minZoom, int maxZoom, DiskCacheFormat target,
+            TileSeedListener listener) {
+        if (layerView == null || bounds == null || bounds.leftTop == null || bounds.rightBottom == null) {
+            throw new IllegalArgumentException("layerView or bounds is null");
+        }
+        if (minZoom < 0 || minZoom > maxZoom || maxZoom > maxLevel) {
+            throw new IllegalArgumentException("invalid zoom range: " + minZoom + "-" + maxZoom);
+        }
+        if (layerView.mapView != this || !layerView.isInitialized()) {
+            throw new IllegalStateException("layer is not initialized in this map");
+        }
+        if (!layerView.addToNetworkDownload) {
+            // 离线数据源图层构造瓦片时会直接读取本地数据，不需要下载
+            throw new IllegalArgumentException("layer does not download tiles from network");
+        }
+        if (target == null) {
+            target = this.tileCacher != null ? this.tileCacher.getDiskCacheFormat() : DiskCacheFormat.PACKED;
+        }
+        ITileCache store = target == DiskCacheFormat.MBTILES ? MBTilesTileCache.acquire(getContext()) : PackedTileCache.acquire(getContext());
+        TileSeedJob job;
+        try {
+            job = new TileSeedJob(layerView, bounds, minZoom, maxZoom, store, TileSeedJob.DEFAULT_THREAD_COUNT, listener);
+        } catch (RuntimeException e) {
+            store.destroy();
+            throw e;
+        }
+        job.start();
+        return job;
+    }
+
+    /**
+     * <p>
+     * 获取因确定瓦片不在SD卡缓存或离线数据库中而省去的文件系统访问次数。
+     * </p>
+     * @return 省去的文件系统访问次数。
+     * @since 8.0.0
+     */
+    public long getAvoidedDiskLookups() {
+        return PackedTileCache.getAvoidedLookups() + SqliteTileSourceFactory.getInstance().getAvoidedLookups();
+    }
+
+    /**
+     * <p>
+     * 设置内存瓦片缓存的淘汰策略，默认为{@link TileCachePolicy#LRU}。
+     * 经常在几个固定区域之间往返浏览时，可以使用{@link TileCachePolicy#TINY_LFU}，避免长距离平移经过的瓦片挤出常用区域的瓦片。
+     * </p>
+     * @param policy 淘汰策略。
+     * @since 8.0.0
+     */
+    public void setMemoryCachePolicy(TileCachePolicy policy) {
+        if (this.tileCacher != null) {
+            this.tileCacher.setMemoryCachePolicy(policy);
+        }
+    }
+
+    /**
+     * <p>
+     * 获取内存瓦片缓存的去重比例。
+     * </p>
+     * <p>
+     * 内容相同的瓦片（如空白海洋瓦片）共用同一个Bitmap，比例为缓存的瓦片数与实际持有的Bitmap数之比，没有共用时为1。
+     * </p>
+     * @return 去重比例。
+     * @since 8.0.0
+     */
+    public double getMemoryCacheDedupRatio() {
+        if (this.tileCacher != null) {
+            return this.tileCacher.getMemoryCacheDedupRatio();
+        }
+        return 1;
+    }
+
+    /**
+     * <p>
+     * 获取SD卡瓦片缓存的去重比例。
+     * </p>
+     * <p>
+     * 内容相同的瓦片只保存一份，比例为各瓦片内容的总字节数与实际保存的字节数之比，没有去重时为1。
+     * </p>
+     * @return 去重比例。
+     * @since 8.0.0
+     */
+    public double getDiskCacheDedupRatio() {
+        if (this.tileCacher != null) {
+            return this.tileCacher.getDiskCacheDedupRatio();
+        }
+        return 1;
+    }
+
+    /**
+     * <p>
+     * 获取内存瓦片缓存当前实际占用的字节数。
+     * </p>
+     * @return 字节数。
+     * @since 8.0.0
+     */
+    public long getMemoryCacheBytes() {
+        if (this.tileCacher != null) {
+            return this.tileCacher.getMemoryCacheBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * <p>
+     * 获取内存瓦片缓存中各图层实际占用的字节数。
+     * </p>
+     * @return 图层缓存名到字节数的映射。
+     * @since 8.0.0
+     */
+    public java.util.Map<String, Long> getMemoryCacheBytesByLayer() {
+        if (this.tileCacher != null) {
+            return this.tileCacher.getMemoryCacheBytesByLayer();
+        }
+        return new HashMap<String, Long>();
+    }
+
+    /**
+     * <p>
+     * 设置固定的瓦片下载线程数，关闭并发数的自适应调整。图层设置了镜像主机时线程数按主机数放大。
+     * </p>
+     * @param count 下载线程数，小于1时恢复默认的自适应范围。
+     * @since 8.0.0
+     */
+    public void setDownloadThreadCount(int count) {
+        if (count > 0) {
+            setDownloadConcurrency(count, count);
+        } else {
+            setDownloadConcurrency(ThreadBasedTileDownloader.DEFAULT_MIN_RUNNING_DOWNLOADS, ThreadBasedTileDownloader.DEFAULT_MAX_RUNNING_DOWNLOADS);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置瓦片下载并发数的自适应范围，默认为1到8。
+     * 下载并发数根据请求延迟、错误率和网络类型在该范围内自动增减，非Wi-Fi网络下最多3个。
+     * </p>
+     * @param min 最小并发数。
+     * @param max 最大并发数，即每个主机的下载线程数和连接数。图层设置了镜像主机时按主机数放大，最多4倍。
+     * @since 8.0.0
+     */
+    public void setDownloadConcurrency(int min, int max) {
+        this.minDownloadThreadCount = Math.max(1, min);
+        this.maxDownloadThreadCount = Math.max(this.minDownloadThreadCount, max);
+        if (this.tileProvider != null) {
+            this.tileProvider.destroy();
+            this.tileProvider = new ThreadBasedTileDownloader(this, this.tileCacher, this.minDownloadThreadCount, this.maxDownloadThreadCount);
+        }
+    }
+
+    /**
+     * <p>
+     * 获取瓦片下载统计信息，包括下载的瓦片数、字节数以及因视图变化取消的请求和节省的字节数。
+     * </p>
+     * @return 瓦片下载统计信息。
+     * @since 8.0.0
+     */
+    public TileDownloadStatistics getTileDownloadStatistics() {
+        return this.tileDownloadStatistics;
+    }
+
     /**
      * <p>
      * 获取屏幕范围所对应的地理范围（视图范围）
@@ -828,7 +1064,7 @@ public class MapView extends RelativeLayout{
             return;
         }
         if (this.tileProvider == null) {
-            this.tileProvider = new ThreadBasedTileDownloader(this, getTileCacher());
+            this.tileProvider = new ThreadBasedTileDownloader(this, getTileCacher(), this.minDownloadThreadCount, this.maxDownloadThreadCount);
         }
         for (AbstractTileLayerView layerView : layerViewList) {
             layerView.preLoad();
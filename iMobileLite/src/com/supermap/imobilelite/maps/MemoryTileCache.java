@@ -1,9 +1,14 @@
 package com.supermap.imobilelite.maps;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.graphics.Bitmap;
 import android.os.Handler;
@@ -16,6 +21,19 @@ import com.supermap.services.util.ResourceManager;
  * <p>
  * 内存缓存类
  * </p>
+ * <p>
+ * 按瓦片Bitmap实际占用的字节数限制缓存大小，同时保留按张数的上限，超出任一限制时按CLOCK（二次机会）算法淘汰。
+ * </p>
+ * <p>
+ * 瓦片存放在ConcurrentHashMap中，绘制时的查找不加锁，只设置访问标记；只有超出限制时的淘汰需要加锁，且只在下载线程之间竞争，不会阻塞UI线程。
+ * </p>
+ * <p>
+ * 淘汰策略为{@link TileCachePolicy#TINY_LFU}时，新瓦片先进入窗口区，窗口区溢出的瓦片与主区CLOCK选出的淘汰候选比较近期访问频率，频率高者留在缓存中。
+ * </p>
+ * <p>
+ * 内容相同的小瓦片（如空白海洋、透明瓦片）共用同一个Bitmap，按引用计数在最后一个条目移除时才回收。
+ * 字节数限制仍按每个条目的Bitmap大小计算，共用Bitmap实际占用的内存少于统计值。
+ * </p>
  * @author ${huangqh}
  * @version ${Version}
  * @since 6.1.3
@@ -25,13 +43,47 @@ class MemoryTileCache implements ITileCache {
     private static final String LOG_TAG = "com.supermap.android.maps.memorytilecache";
     private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
 
-    private Cache tileCache;
+    private ConcurrentHashMap<String, CacheEntry> tileCache = new ConcurrentHashMap<String, CacheEntry>(64, 0.75F, 4);
+    // CLOCK算法的环形队列，按加入顺序排列，已移除的条目在轮转到时丢弃
+    private ConcurrentLinkedQueue<CacheEntry> clock = new ConcurrentLinkedQueue<CacheEntry>();
+    // TINY_LFU策略下的窗口区，按加入顺序排列
+    private ConcurrentLinkedQueue<CacheEntry> window = new ConcurrentLinkedQueue<CacheEntry>();
+    private final AtomicLong windowBytes = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private volatile TileCachePolicy policy = TileCachePolicy.LRU;
+    private volatile FrequencySketch sketch;
+    // 淘汰锁，保证同一时刻只有一个线程执行淘汰，条目在窗口区和主区之间的移动也在此锁内完成
+    private final Object evictLock = new Object();
     // private Map<String, Bitmap> synTileCache;
     // private boolean bumped;
     RemoveHandler removeHandler = null;
+    // 最多缓存的瓦片张数
+    private volatile int capacity = 32;
+    // 缓存最多占用的字节数及当前占用的字节数
+    private volatile long maxBytes = Long.MAX_VALUE;
+    private final AtomicLong currentBytes = new AtomicLong();
+    // 各图层占用的字节数，键为图层缓存名
+    private ConcurrentHashMap<String, AtomicLong> layerBytes = new ConcurrentHashMap<String, AtomicLong>();
+    // 内容散列到共用Bitmap的映射，由自身加锁保护
+    private final Map<Long, SharedBitmap> sharedBitmaps = new HashMap<Long, SharedBitmap>();
+    // 共用已有Bitmap、没有单独占用内存的条目数
+    private final AtomicInteger sharedEntries = new AtomicInteger();
 
     public MemoryTileCache(int cacheSize) {
-        this.tileCache = new Cache(cacheSize);
+        this(cacheSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * 构造函数
+     * </p>
+     * @param cacheSize 最多缓存的瓦片张数
+     * @param maxBytes 最多占用的字节数
+     * @since 8.0.0
+     */
+    public MemoryTileCache(int cacheSize, long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.capacity = cacheSize;
         // this.synTileCache = Collections.synchronizedMap(this.tileCache);
         this.removeHandler = new RemoveHandler(cacheSize, Looper.getMainLooper());
     }
@@ -45,13 +97,20 @@ class MemoryTileCache implements ITileCache {
         if (key == null) {
             return null;
         }
-        synchronized (this.tileCache) {
-            Bitmap bm = (Bitmap) this.tileCache.get(key);
-            if (bm == null) {
-                return null;
-            }
-            tile.setBitMap(bm);
+        CacheEntry entry = this.tileCache.get(key);
+        if (entry == null) {
+            return null;
         }
+        Bitmap bitmap = entry.bitmap;
+        tile.setBitMap(bitmap);
+        // 查找期间条目可能被并发淘汰，Bitmap已交给复用池并解码了其他瓦片，此时按未命中处理。
+        // 核对通过后再被复用时，瓦片记录的generation不再一致，Tile.getBitmap会返回null
+        if (bitmap.isRecycled() || bitmap.getGenerationId() != entry.generation) {
+            tile.setBitMap(null);
+            return null;
+        }
+        entry.referenced = true;
+        recordAccess(key);
         return tile;
     }
 
@@ -63,17 +122,97 @@ class MemoryTileCache implements ITileCache {
         if (this.tileCache.containsKey(key)) {
             return;
         }
-        if (tile.getBitmap() != null)
-            synchronized (this.tileCache) {
-                // if ((tile.getTileType() == TileType.HYB) && (!this.bumped)) {
-                // this.tileCache.capacity *= 2;
-                // this.bumped = true;
-                // }
+        if (tile.getBitmap() != null) {
+            // if ((tile.getTileType() == TileType.HYB) && (!this.bumped)) {
+            // this.tileCache.capacity *= 2;
+            // this.bumped = true;
+            // }
+            SharedBitmap shared = acquireShared(tile);
+            Bitmap bitmap = shared == null ? tile.getBitmap() : shared.bitmap;
+            CacheEntry entry = new CacheEntry(key, bitmap, String.valueOf(tile.getLayerNameCache()), shared);
+            boolean tinyLfu = this.policy == TileCachePolicy.TINY_LFU;
+            entry.inWindow = tinyLfu;
+            if (this.tileCache.putIfAbsent(key, entry) == null) {
+                if (bitmap != tile.getBitmap()) {
+                    // 相同内容的瓦片已在缓存中，改用已有的Bitmap，新解码的Bitmap交给RemoveHandler回收
+                    this.removeHandler.removeBitmap(tile.getBitmap());
+                    tile.setBitMap(bitmap);
+                }
+                recordAccess(key);
+                if (tinyLfu) {
+                    this.windowBytes.addAndGet(entry.bytes);
+                    this.windowCount.incrementAndGet();
+                    this.window.add(entry);
+                } else {
+                    this.clock.add(entry);
+                }
+                account(entry, 1);
+                trimToSize();
+            } else if (shared != null) {
+                // 未加入缓存，只撤销引用，Bitmap仍由瓦片使用
+                releaseShared(shared);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 查找与瓦片内容相同的共用Bitmap并增加引用，没有时以瓦片的Bitmap新建。内容不参与去重或散列冲突时返回null
+     * </p>
+     * @param tile 已解码、仍带有内容的瓦片
+     * @return
+     */
+    private SharedBitmap acquireShared(Tile tile) {
+        byte[] bytes = tile.getBytes();
+        if (!TileContent.isShareable(bytes)) {
+            return null;
+        }
+        Long hash = Long.valueOf(TileContent.hash(bytes));
+        synchronized (this.sharedBitmaps) {
+            SharedBitmap shared = this.sharedBitmaps.get(hash);
+            if (shared == null) {
+                shared = new SharedBitmap(hash, tile.getBitmap(), Arrays.copyOf(bytes, bytes.length));
+                this.sharedBitmaps.put(hash, shared);
+            } else if (shared.bitmap.isRecycled() || !Arrays.equals(shared.bytes, bytes)) {
+                return null;
+            } else {
+                this.sharedEntries.incrementAndGet();
+            }
+            shared.references++;
+            return shared;
+        }
+    }
 
-                if (this.tileCache.containsKey(key))
-                    return;
-                this.tileCache.put(key, tile.getBitmap());
+    /**
+     * <p>
+     * 减少共用Bitmap的引用
+     * </p>
+     * @return 没有其他引用、Bitmap可以回收时返回true
+     */
+    private boolean releaseShared(SharedBitmap shared) {
+        synchronized (this.sharedBitmaps) {
+            if (--shared.references > 0) {
+                this.sharedEntries.decrementAndGet();
+                return false;
+            }
+            if (this.sharedBitmaps.get(shared.hash) == shared) {
+                this.sharedBitmaps.remove(shared.hash);
             }
+            return true;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取去重比例：缓存的瓦片数与实际持有的Bitmap数之比，没有共用时为1
+     * </p>
+     * @return 去重比例
+     * @since 8.0.0
+     */
+    public double getDedupRatio() {
+        int entries = this.tileCache.size();
+        int bitmaps = entries - this.sharedEntries.get();
+        return bitmaps <= 0 ? 1 : (double) entries / bitmaps;
     }
 
     public boolean contains(Tile tile) {
@@ -81,9 +220,12 @@ class MemoryTileCache implements ITileCache {
     }
 
     public void removeTile(Tile tile) {
-        synchronized (this.tileCache) {
-            Bitmap bm = (Bitmap) this.tileCache.remove(tile.buildCacheKey());
-            this.removeHandler.removeBitmap(bm);
+        String key = tile.buildCacheKey();
+        CacheEntry entry = this.tileCache.get(key);
+        if (entry != null) {
+            synchronized (this.evictLock) {
+                evict(entry);
+            }
         }
     }
 
@@ -94,34 +236,276 @@ class MemoryTileCache implements ITileCache {
      * @param name 图层名
      */
     public void removeTilesByName(String name) {
-        synchronized (this.tileCache) {
-            Iterator<Entry<String, Bitmap>> it = this.tileCache.entrySet().iterator();
+        synchronized (this.evictLock) {
+            Iterator<Entry<String, CacheEntry>> it = this.tileCache.entrySet().iterator();
             while (it.hasNext()) {
-                Entry<String, Bitmap> e = it.next();
+                Entry<String, CacheEntry> e = it.next();
                 if (e.getKey().contains(name)) {
-                    Bitmap bm = e.getValue();
-                    it.remove();
-                    if (bm != null)
-                        bm.recycle();
+                    evict(e.getValue());
                 }
             }
         }
     }
 
     public void clear() {
-        synchronized (this.tileCache) {
-            for (Bitmap b : this.tileCache.values()) {
-                if (b != null)
-                    b.recycle();
+        synchronized (this.evictLock) {
+            Iterator<CacheEntry> it = this.tileCache.values().iterator();
+            while (it.hasNext()) {
+                CacheEntry entry = it.next();
+                if (this.tileCache.remove(entry.key, entry)) {
+                    account(entry, -1);
+                    if (entry.bitmap != null)
+                        entry.bitmap.recycle();
+                }
+            }
+            synchronized (this.sharedBitmaps) {
+                this.sharedBitmaps.clear();
+                this.sharedEntries.set(0);
             }
-            this.tileCache.clear();
+            this.clock.clear();
+            this.window.clear();
+            this.windowBytes.set(0);
+            this.windowCount.set(0);
         }
     }
 
     public int size() {
-        return this.tileCache.size() * 256 * 256 * 2;
+        return (int) Math.min(this.currentBytes.get(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * 设置缓存最多占用的字节数，超出时立即淘汰
+     * </p>
+     * @param maxBytes 最多占用的字节数
+     * @since 8.0.0
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * <p>
+     * 获取缓存最多占用的字节数
+     * </p>
+     * @return 最多占用的字节数
+     * @since 8.0.0
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * <p>
+     * 获取缓存的瓦片Bitmap当前实际占用的字节数
+     * </p>
+     * @return 当前占用的字节数
+     * @since 8.0.0
+     */
+    public long getCurrentBytes() {
+        return this.currentBytes.get();
     }
-    
+
+    /**
+     * <p>
+     * 获取各图层缓存的瓦片Bitmap占用的字节数
+     * </p>
+     * @return 图层缓存名到字节数的映射
+     * @since 8.0.0
+     */
+    public Map<String, Long> getBytesByLayer() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Entry<String, AtomicLong> e : this.layerBytes.entrySet()) {
+            long bytes = e.getValue().get();
+            if (bytes > 0) {
+                result.put(e.getKey(), Long.valueOf(bytes));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * 设置淘汰策略
+     * </p>
+     * @param policy 淘汰策略，为null时使用{@link TileCachePolicy#LRU}
+     * @since 8.0.0
+     */
+    public void setPolicy(TileCachePolicy policy) {
+        if (policy == null) {
+            policy = TileCachePolicy.LRU;
+        }
+        synchronized (this.evictLock) {
+            if (policy == TileCachePolicy.TINY_LFU && this.sketch == null) {
+                this.sketch = new FrequencySketch(this.capacity);
+            }
+            this.policy = policy;
+            if (policy != TileCachePolicy.TINY_LFU) {
+                // 窗口区中的瓦片全部转入主区
+                CacheEntry entry;
+                while ((entry = pollLive(this.window)) != null) {
+                    promote(entry);
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * <p>
+     * 获取淘汰策略
+     * </p>
+     * @return 淘汰策略
+     * @since 8.0.0
+     */
+    public TileCachePolicy getPolicy() {
+        return this.policy;
+    }
+
+    private void recordAccess(String key) {
+        FrequencySketch s = this.sketch;
+        if (s != null && this.policy == TileCachePolicy.TINY_LFU) {
+            s.increment(key);
+        }
+    }
+
+    private void account(CacheEntry entry, int sign) {
+        this.currentBytes.addAndGet(sign * entry.bytes);
+        AtomicLong bytes = this.layerBytes.get(entry.layer);
+        if (bytes == null) {
+            AtomicLong created = new AtomicLong();
+            bytes = this.layerBytes.putIfAbsent(entry.layer, created);
+            if (bytes == null) {
+                bytes = created;
+            }
+        }
+        bytes.addAndGet(sign * entry.bytes);
+    }
+
+    /**
+     * <p>
+     * 从缓存中移除指定条目，并把Bitmap交给RemoveHandler回收
+     * </p>
+     * @param entry
+     * @return 条目仍在缓存中并被本次移除时返回true
+     */
+    private boolean evict(CacheEntry entry) {
+        if (this.tileCache.remove(entry.key, entry)) {
+            account(entry, -1);
+            if (entry.inWindow) {
+                this.windowBytes.addAndGet(-entry.bytes);
+                this.windowCount.decrementAndGet();
+            }
+            // 共用的Bitmap还有其他条目在使用时不回收
+            if (entry.shared == null || releaseShared(entry.shared)) {
+                this.removeHandler.removeBitmap(entry.bitmap);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isOverLimit() {
+        return (this.currentBytes.get() > this.maxBytes || this.tileCache.size() > this.capacity) && this.tileCache.size() > 1;
+    }
+
+    // 窗口区约占总容量的五分之一
+    private boolean isWindowOverLimit() {
+        return this.policy == TileCachePolicy.TINY_LFU && this.windowCount.get() > 1
+                && (this.windowBytes.get() > this.maxBytes / 5 || this.windowCount.get() > Math.max(1, this.capacity / 5));
+    }
+
+    /**
+     * <p>
+     * 取出窗口区中最旧的仍在缓存中的条目
+     * </p>
+     */
+    private CacheEntry pollLive(ConcurrentLinkedQueue<CacheEntry> queue) {
+        CacheEntry entry;
+        while ((entry = queue.poll()) != null) {
+            if (entry.inWindow && this.tileCache.get(entry.key) == entry) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void promote(CacheEntry entry) {
+        entry.inWindow = false;
+        this.windowBytes.addAndGet(-entry.bytes);
+        this.windowCount.decrementAndGet();
+        this.clock.add(entry);
+    }
+
+    /**
+     * <p>
+     * 按CLOCK算法从主区选出淘汰候选：最近被访问过的条目清除访问标记后放回队尾，选出的条目已从队列中取出
+     * </p>
+     */
+    private CacheEntry selectVictim() {
+        // 限制给予二次机会的次数，避免绘制线程持续访问时无法结束
+        int chances = this.tileCache.size();
+        CacheEntry entry;
+        while ((entry = this.clock.poll()) != null) {
+            if (entry.inWindow || this.tileCache.get(entry.key) != entry) {
+                continue;
+            }
+            if (entry.referenced && chances-- > 0) {
+                entry.referenced = false;
+                this.clock.add(entry);
+                continue;
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * 淘汰瓦片，直到占用的字节数和张数都不超出限制。TINY_LFU策略下先处理窗口区溢出的瓦片：缓存未满时直接转入主区，
+     * 否则与主区的淘汰候选比较近期访问频率，淘汰频率低的一方
+     * </p>
+     */
+    private void trimToSize() {
+        if (!isOverLimit() && !isWindowOverLimit()) {
+            return;
+        }
+        synchronized (this.evictLock) {
+            while (isWindowOverLimit()) {
+                CacheEntry candidate = pollLive(this.window);
+                if (candidate == null) {
+                    break;
+                }
+                if (!isOverLimit()) {
+                    promote(candidate);
+                    continue;
+                }
+                CacheEntry victim = selectVictim();
+                FrequencySketch s = this.sketch;
+                if (victim == null || s == null || s.frequency(candidate.key) > s.frequency(victim.key)) {
+                    if (victim != null) {
+                        evict(victim);
+                    }
+                    promote(candidate);
+                } else {
+                    this.clock.add(victim);
+                    evict(candidate);
+                }
+            }
+            while (isOverLimit()) {
+                CacheEntry entry = selectVictim();
+                if (entry == null) {
+                    entry = pollLive(this.window);
+                }
+                if (entry == null) {
+                    break;
+                }
+                evict(entry);
+            }
+        }
+    }
+
     /**
      * <p>
      * 设置内存缓存大小，单位是张，指明最多缓存多少瓦片
@@ -130,9 +514,12 @@ class MemoryTileCache implements ITileCache {
      * @since 7.0.0
      */
     public void setCacheSize(int size) {
-        if (this.tileCache != null) {
-            this.tileCache.capacity = size;
+        this.capacity = size;
+        FrequencySketch s = this.sketch;
+        if (s != null) {
+            s.ensureCapacity(size);
         }
+        trimToSize();
     }
 
     public void destroy() {
@@ -140,22 +527,46 @@ class MemoryTileCache implements ITileCache {
         System.gc();
     }
 
-    private class Cache extends LinkedHashMap<String, Bitmap> {
-        private static final long serialVersionUID = 1L;
-        protected int capacity = 32;
-        private static final float load = 0.75F;
+    private static class CacheEntry {
+        final String key;
+        final Bitmap bitmap;
+        final String layer;
+        final int bytes;
+        // 加入缓存时Bitmap的generation，Bitmap被复用解码其他瓦片后不再一致
+        final int generation;
+        // 共用的Bitmap，内容不参与去重时为null
+        final SharedBitmap shared;
+        // CLOCK算法的访问标记
+        volatile boolean referenced;
+        // 是否位于TINY_LFU策略的窗口区
+        volatile boolean inWindow;
 
-        public Cache(int size) {
-            super(16, load, true);
-            this.capacity = size;
+        CacheEntry(String key, Bitmap bitmap, String layer, SharedBitmap shared) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.layer = layer;
+            this.shared = shared;
+            this.bytes = bitmap.getRowBytes() * bitmap.getHeight();
+            this.generation = bitmap.getGenerationId();
         }
+    }
 
-        protected boolean removeEldestEntry(Entry<String, Bitmap> eldest) {
-            if (size() > this.capacity) {
-                MemoryTileCache.this.removeHandler.removeBitmap((Bitmap) eldest.getValue());
-                return true;
-            }
-            return false;
+    /**
+     * <p>
+     * 内容相同的瓦片共用的Bitmap，保留内容用于确认散列相同的瓦片内容确实相同
+     * </p>
+     */
+    private static class SharedBitmap {
+        final Long hash;
+        final Bitmap bitmap;
+        final byte[] bytes;
+        // 引用数，由sharedBitmaps加锁保护
+        int references;
+
+        SharedBitmap(Long hash, Bitmap bitmap, byte[] bytes) {
+            this.hash = hash;
+            this.bitmap = bitmap;
+            this.bytes = bytes;
         }
     }
 
@@ -172,7 +583,8 @@ class MemoryTileCache implements ITileCache {
             if (msg.what == 0) {
                 while (!this.removalQueue.isEmpty()) {
                     Bitmap bitmap = (Bitmap) this.removalQueue.poll();
-                    if ((bitmap != null) && (!bitmap.isRecycled())) {
+                    // 优先放回复用池供解码新瓦片时复用，复用池已满时才recycle
+                    if ((bitmap != null) && (!bitmap.isRecycled()) && !BitmapPool.getInstance().put(bitmap)) {
                         bitmap.recycle();
                     }
                 }
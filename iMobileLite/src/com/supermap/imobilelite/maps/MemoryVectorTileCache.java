@@ -6,16 +6,29 @@ import java.util.List;
 import java.util.Map.Entry;
 import android.util.Log;
 
+/**
+ * <p>
+ * 矢量瓦片内存缓存类
+ * </p>
+ * <p>
+ * 淘汰策略为{@link TileCachePolicy#TINY_LFU}时，新瓦片先进入窗口区，窗口区溢出的瓦片与主区最近最少使用的瓦片比较近期访问频率，频率高者留在缓存中。
+ * </p>
+ */
 class MemoryVectorTileCache implements ITileCache {
     private static final String LOG_TAG = "com.supermap.android.maps.memoryVectortilecache";
 
+    // 主区，其容量为总容量，TINY_LFU策略下主区可用容量要减去窗口区容量；窗口区和主区都以tileCache为锁
     private Cache tileCache;
+    private Cache window;
+    private TileCachePolicy policy = TileCachePolicy.LRU;
+    private FrequencySketch sketch;
 
     // private Map<String, List<VectorGeometryData>> synTileCache;
     // RemoveHandler removeHandler = null;
 
     public MemoryVectorTileCache(int cacheSize) {
         this.tileCache = new Cache(cacheSize);
+        this.window = new Cache(Math.max(1, cacheSize / 5));
         // this.synTileCache = Collections.synchronizedMap(this.tileCache);
         // this.removeHandler = new RemoveHandler(cacheSize, Looper.getMainLooper());
         // JsonConverter.addDecoderResolver(new VectorTileJsonDecoderResolver());
@@ -30,7 +43,7 @@ class MemoryVectorTileCache implements ITileCache {
             return null;
         }
         synchronized (this.tileCache) {
-            List<VectorGeometryData> vt = (List<VectorGeometryData>) this.tileCache.get(key);
+            List<VectorGeometryData> vt = get(key);
             if (vt == null || vt.isEmpty()) {
                 return null;
             }
@@ -48,7 +61,18 @@ class MemoryVectorTileCache implements ITileCache {
         }
         List<VectorGeometryData> vt = null;
         synchronized (this.tileCache) {
-            vt = (List<VectorGeometryData>) this.tileCache.get(key);
+            vt = get(key);
+        }
+        return vt;
+    }
+
+    private List<VectorGeometryData> get(String key) {
+        List<VectorGeometryData> vt = this.tileCache.get(key);
+        if (vt == null) {
+            vt = this.window.get(key);
+        }
+        if (vt != null && this.sketch != null && this.policy == TileCachePolicy.TINY_LFU) {
+            this.sketch.increment(key);
         }
         return vt;
     }
@@ -78,12 +102,16 @@ class MemoryVectorTileCache implements ITileCache {
     }
 
     public boolean contains(Tile tile) {
-        return this.tileCache.containsKey(tile.buildCacheKey());
+        String key = tile.buildCacheKey();
+        synchronized (this.tileCache) {
+            return this.tileCache.containsKey(key) || this.window.containsKey(key);
+        }
     }
 
     public void removeTile(Tile tile) {
         synchronized (this.tileCache) {
             this.tileCache.remove(tile.buildCacheKey());
+            this.window.remove(tile.buildCacheKey());
         }
     }
 
@@ -95,12 +123,17 @@ class MemoryVectorTileCache implements ITileCache {
      */
     public void removeTilesByName(String name) {
         synchronized (this.tileCache) {
-            Iterator<Entry<String, List<VectorGeometryData>>> it = this.tileCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<String, List<VectorGeometryData>> e = it.next();
-                if (e.getKey().contains(name)) {
-                    it.remove();
-                }
+            removeTilesByName(this.tileCache, name);
+            removeTilesByName(this.window, name);
+        }
+    }
+
+    private static void removeTilesByName(Cache cache, String name) {
+        Iterator<Entry<String, List<VectorGeometryData>>> it = cache.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, List<VectorGeometryData>> e = it.next();
+            if (e.getKey().contains(name)) {
+                it.remove();
             }
         }
     }
@@ -108,11 +141,74 @@ class MemoryVectorTileCache implements ITileCache {
     public void clear() {
         synchronized (this.tileCache) {
             this.tileCache.clear();
+            this.window.clear();
         }
     }
 
     public int size() {
-        return this.tileCache.size();
+        synchronized (this.tileCache) {
+            return this.tileCache.size() + this.window.size();
+        }
+    }
+
+    /**
+     * <p>
+     * 设置淘汰策略
+     * </p>
+     * @param policy 淘汰策略，为null时使用{@link TileCachePolicy#LRU}
+     * @since 8.0.0
+     */
+    public void setPolicy(TileCachePolicy policy) {
+        if (policy == null) {
+            policy = TileCachePolicy.LRU;
+        }
+        synchronized (this.tileCache) {
+            if (policy == TileCachePolicy.TINY_LFU && this.sketch == null) {
+                this.sketch = new FrequencySketch(this.tileCache.capacity);
+            }
+            this.policy = policy;
+            if (policy != TileCachePolicy.TINY_LFU) {
+                // 窗口区中的瓦片全部转入主区
+                this.tileCache.putAll(this.window);
+                this.window.clear();
+            }
+            trimToSize();
+        }
+    }
+
+    /**
+     * <p>
+     * 淘汰瓦片直到不超出容量。TINY_LFU策略下窗口区溢出的瓦片在主区未满时直接转入主区，否则与主区最近最少使用的瓦片比较近期访问频率，淘汰频率低的一方
+     * </p>
+     */
+    private void trimToSize() {
+        int mainCapacity = this.tileCache.capacity;
+        if (this.policy == TileCachePolicy.TINY_LFU) {
+            mainCapacity = Math.max(1, this.tileCache.capacity - this.window.capacity);
+            while (this.window.size() > this.window.capacity) {
+                Iterator<Entry<String, List<VectorGeometryData>>> wit = this.window.entrySet().iterator();
+                Entry<String, List<VectorGeometryData>> candidate = wit.next();
+                wit.remove();
+                if (this.tileCache.size() < mainCapacity) {
+                    this.tileCache.put(candidate.getKey(), candidate.getValue());
+                    continue;
+                }
+                Iterator<Entry<String, List<VectorGeometryData>>> mit = this.tileCache.entrySet().iterator();
+                if (!mit.hasNext()) {
+                    continue;
+                }
+                Entry<String, List<VectorGeometryData>> victim = mit.next();
+                if (this.sketch.frequency(candidate.getKey()) > this.sketch.frequency(victim.getKey())) {
+                    mit.remove();
+                    this.tileCache.put(candidate.getKey(), candidate.getValue());
+                }
+            }
+        }
+        Iterator<Entry<String, List<VectorGeometryData>>> it = this.tileCache.entrySet().iterator();
+        while (this.tileCache.size() > mainCapacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
     }
 
     public void destroy() {
@@ -130,13 +226,10 @@ class MemoryVectorTileCache implements ITileCache {
             this.capacity = capacity;
         }
 
-        protected boolean removeEldestEntry(Entry<String, List<VectorGeometryData>> eldest) {
-            if (size() > this.capacity) {
-                // MemoryVectorTileCache.this.removeHandler.removeVectorTile((List<VectorGeometryData>) eldest.getValue());
-                return true;
-            }
-            return false;
-        }
+        // 超出容量的淘汰由trimToSize完成
+        // protected boolean removeEldestEntry(Entry<String, List<VectorGeometryData>> eldest) {
+        // MemoryVectorTileCache.this.removeHandler.removeVectorTile((List<VectorGeometryData>) eldest.getValue());
+        // }
     }
 
     // private class RemoveHandler extends Handler {
@@ -171,7 +264,7 @@ class MemoryVectorTileCache implements ITileCache {
 
     public void addTile(Tile tile, List<VectorGeometryData> vgds) {
         String key = tile.buildCacheKey();
-        if (this.tileCache.containsKey(key)) {
+        if (contains(tile)) {
             return;
         }
         if (vgds != null && vgds.size() > 0) {
@@ -198,10 +291,16 @@ class MemoryVectorTileCache implements ITileCache {
             // }
             // }
             synchronized (this.tileCache) {
-                if (this.tileCache.containsKey(key))
+                if (this.tileCache.containsKey(key) || this.window.containsKey(key))
                     return;
                 try {
-                    this.tileCache.put(key, vgds);
+                    if (this.policy == TileCachePolicy.TINY_LFU) {
+                        this.sketch.increment(key);
+                        this.window.put(key, vgds);
+                    } else {
+                        this.tileCache.put(key, vgds);
+                    }
+                    trimToSize();
                 } catch (Exception e) {
                     Log.w(LOG_TAG, "MemoryVectorTileCache addTile failed!");
                 }
@@ -218,7 +317,14 @@ class MemoryVectorTileCache implements ITileCache {
      */
     public void setCacheSize(int size) {
         if (this.tileCache != null) {
-            this.tileCache.capacity = size;
+            synchronized (this.tileCache) {
+                this.window.capacity = Math.max(1, size / 5);
+                this.tileCache.capacity = size;
+                if (this.sketch != null) {
+                    this.sketch.ensureCapacity(size);
+                }
+                trimToSize();
+            }
         }
     }
 
@@ -0,0 +1,160 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 进程内瓦片请求失败记录，只允许一个实例。
+ * </p>
+ * <p>
+ * 以瓦片url为键记录最近失败的请求，在到期前不再发起相同请求。到期时间按响应状态确定：404、410等数据范围外的瓦片较长，
+ * 其他4xx次之，5xx和网络异常较短，同一url连续失败时按指数退避加倍，最长{@link #MAX_BACKOFF}。
+ * 按主机的暂停由{@link HostCircuitBreaker}负责。
+ * 记录数超出{@link #MAX_ENTRIES}时丢弃最早的记录。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class NegativeTileCache {
+    private static final NegativeTileCache instance = new NegativeTileCache();
+    static final int MAX_ENTRIES = 2048;
+    // 数据范围外的瓦片（404、410）首次失败后的暂停时间
+    static final long NOT_FOUND_TTL = 10 * 60 * 1000L;
+    // 其他4xx首次失败后的暂停时间
+    static final long CLIENT_ERROR_TTL = 60 * 1000L;
+    // 5xx和网络异常首次失败后的暂停时间
+    static final long SERVER_ERROR_TTL = 5 * 1000L;
+    static final long MAX_BACKOFF = 30 * 60 * 1000L;
+
+    private final LinkedHashMap<String, Failure> failures = new LinkedHashMap<String, Failure>(64, 0.75F, false) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private NegativeTileCache() {
+        super();
+    }
+
+    public static NegativeTileCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * <p>
+     * 判断该url当前是否应跳过请求
+     * </p>
+     * @param url 瓦片url
+     * @param now 当前时间
+     * @return url仍在暂停期内时返回true
+     */
+    synchronized boolean shouldSkip(String url, long now) {
+        if (url == null) {
+            return false;
+        }
+        Failure failure = this.failures.get(url);
+        return failure != null && now < failure.retryAt;
+    }
+
+    /**
+     * <p>
+     * 获取该url距离暂停期结束还有多久
+     * </p>
+     * @param url 瓦片url
+     * @param now 当前时间
+     * @return 剩余的暂停时间，单位毫秒，不在暂停期内时返回0
+     */
+    synchronized long getRetryDelay(String url, long now) {
+        if (url == null) {
+            return 0;
+        }
+        Failure failure = this.failures.get(url);
+        return failure == null ? 0 : Math.max(0, failure.retryAt - now);
+    }
+
+    /**
+     * <p>
+     * 记录一次失败的请求
+     * </p>
+     * @param url 瓦片url
+     * @param statusCode 响应状态码，网络异常时为0
+     * @param now 当前时间
+     */
+    synchronized void onFailure(String url, int statusCode, long now) {
+        if (url == null) {
+            return;
+        }
+        Failure failure = this.failures.remove(url);
+        if (failure == null) {
+            failure = new Failure();
+        }
+        failure.count++;
+        failure.transientError = statusCode == 0 || statusCode >= 500;
+        failure.retryAt = now + backoff(ttlOf(statusCode), failure.count, MAX_BACKOFF);
+        // 重新放入，保持按最近失败的顺序淘汰
+        this.failures.put(url, failure);
+    }
+
+    /**
+     * <p>
+     * 记录一次成功的请求，清除该url的失败记录
+     * </p>
+     * @param url 瓦片url
+     */
+    synchronized void onSuccess(String url) {
+        if (url == null) {
+            return;
+        }
+        this.failures.remove(url);
+    }
+
+    /**
+     * <p>
+     * 清除5xx、网络异常的失败记录，保留404等确定不存在的瓦片记录。网络恢复时调用
+     * </p>
+     */
+    synchronized void clearTransientFailures() {
+        Iterator<Failure> it = this.failures.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().transientError) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        this.failures.clear();
+    }
+
+    synchronized int size() {
+        return this.failures.size();
+    }
+
+    private static long ttlOf(int statusCode) {
+        if (statusCode == 404 || statusCode == 410) {
+            return NOT_FOUND_TTL;
+        }
+        if (statusCode >= 400 && statusCode < 500) {
+            return CLIENT_ERROR_TTL;
+        }
+        return SERVER_ERROR_TTL;
+    }
+
+    private static long backoff(long base, int count, long max) {
+        int shift = Math.min(Math.max(count - 1, 0), 20);
+        return Math.min(base << shift, max);
+    }
+
+    private static class Failure {
+        int count;
+        long retryAt;
+        // 5xx或网络异常
+        boolean transientError;
+    }
+}
\ No newline at end of file
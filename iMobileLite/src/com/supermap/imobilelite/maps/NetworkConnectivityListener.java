@@ -19,6 +19,8 @@ final class NetworkConnectivityListener {
     private boolean listening;
     private ConnectivityBroadcastReceiver receiver;
     private static boolean lastKnownNetworkState = true;
+    // 最近一次连接的网络是否为Wi-Fi，用于调整下载并发数
+    private static boolean lastKnownNetworkWifi = true;
     private MapView mapView;
     NetworkConnectivityListener(Context context, MapView mapView) {
         this.context = context;
@@ -34,6 +36,14 @@ final class NetworkConnectivityListener {
          lastKnownNetworkState = state;
     }
 
+    public static synchronized boolean isLastKnownNetworkWifi() {
+        return lastKnownNetworkWifi;
+    }
+
+    public static synchronized void setLastKnownNetworkWifi(boolean wifi) {
+        lastKnownNetworkWifi = wifi;
+    }
+
     public void startListening() {
         if (!this.listening)
             try {
@@ -70,6 +80,7 @@ final class NetworkConnectivityListener {
                     // NetworkConnectivityListener.access$102(true);
 //                    lastKnownNetworkState = true; // added by zhouxu
                     NetworkConnectivityListener.setLastKnownNetworkState(true);
+                    NetworkConnectivityListener.setLastKnownNetworkWifi(ni.getType() == ConnectivityManager.TYPE_WIFI);
                     mapView.getEventDispatcher().sendEmptyMessage(61);
                 } else {
                     // NetworkConnectivityListener.access$102(false);
@@ -86,6 +97,7 @@ final class NetworkConnectivityListener {
                         // NetworkConnectivityListener.access$102(true);
 //                        lastKnownNetworkState = true; // added by zhouxu
                         NetworkConnectivityListener.setLastKnownNetworkState(true);
+                        NetworkConnectivityListener.setLastKnownNetworkWifi(activeNetInfo.getType() == ConnectivityManager.TYPE_WIFI);
                         mapView.getEventDispatcher().sendEmptyMessage(61);
                     } else {
                         // NetworkConnectivityListener.access$102(false);
@@ -0,0 +1,135 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * <p>
+ * 离线瓦片图层（MBTiles、SVTiles）的读取任务队列，每个图层一个实例。
+ * </p>
+ * <p>
+ * 队列只保留最新提交的任务：新任务提交时，等待中的旧任务直接丢弃，正在执行的任务被标记为取消，由任务自行尽早结束。
+ * 任务在所有图层共享的小线程池中执行，同一图层的任务依次执行，线程空闲时阻塞等待，有新任务时立即执行。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class OfflineTileReader {
+    private static final String LOG_TAG = "com.supermap.android.maps.offlinetilereader";
+    static final int READER_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private final Object lock = new Object();
+    private Task pending;
+    private Task running;
+    private boolean scheduled = false;
+    private boolean closed = false;
+
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            while (true) {
+                Task task;
+                synchronized (lock) {
+                    task = pending;
+                    pending = null;
+                    running = task;
+                    if (task == null || closed) {
+                        running = null;
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    if (!task.isCancelled()) {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(LOG_TAG, "offline tile read failed: " + e.getMessage());
+                }
+            }
+        }
+    };
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(READER_THREADS, READER_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "OfflineTileReader-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * <p>
+     * 提交读取任务，取代之前提交而未完成的任务
+     * </p>
+     * @param task 读取任务
+     */
+    void submit(Task task) {
+        synchronized (this.lock) {
+            if (this.closed) {
+                return;
+            }
+            if (this.pending != null) {
+                this.pending.cancel();
+            }
+            if (this.running != null) {
+                this.running.cancel();
+            }
+            this.pending = task;
+            if (!this.scheduled) {
+                this.scheduled = true;
+                executor.execute(this.drain);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 关闭队列，取消等待中和正在执行的任务，之后提交的任务不再执行
+     * </p>
+     */
+    void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+            if (this.pending != null) {
+                this.pending.cancel();
+                this.pending = null;
+            }
+            if (this.running != null) {
+                this.running.cancel();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 读取任务，执行过程中应通过{@link #isCancelled()}检查是否已被新任务取代
+     * </p>
+     */
+    abstract static class Task implements Runnable {
+        private volatile boolean cancelled = false;
+
+        void cancel() {
+            this.cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return this.cancelled;
+        }
+    }
+}
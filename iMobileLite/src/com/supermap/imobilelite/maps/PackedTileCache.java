@@ -0,0 +1,1406 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import com.supermap.services.util.ResourceManager;
+
+/**
+ * <p>
+ * 打包存储的SD卡瓦片缓存。
+ * </p>
+ * <p>
+ * 瓦片不再一张一个文件，而是追加写入若干个较大的段文件，内存中维护瓦片键到段号、偏移和长度的索引。每条记录带有CRC32校验。
+ * 索引定期写入检查点文件（先写临时文件再改名），启动时加载检查点并重放检查点之后追加的记录，遇到不完整或校验失败的记录即从该处截断，
+ * 因而进程崩溃不会破坏已有缓存。删除瓦片和按图层清除只追加删除记录，无效数据过半的段由后台线程压缩：把仍有效的记录复制到当前段后删除旧段；
+ * 占用空间超出容量上限时，再按有效数据比例从低到高压缩更多的段，直到不超过上限。
+ * </p>
+ * <p>
+ * 索引按访问顺序排列，检查点按该顺序保存，重启后仍保留最近最少使用的顺序。占用的空间随读写增量统计，size()不再遍历目录；
+ * 超出容量上限时后台线程按最近最少使用的顺序淘汰瓦片，再由压缩回收空间。
+ * </p>
+ * <p>
+ * 内容不超过{@link TileContent#SHAREABLE_MAX_BYTES}的瓦片按内容去重：相同内容第二次写入时，内容单独保存为一条共享记录，
+ * 各瓦片只保存指向它的引用记录。共享记录不参与淘汰，按引用计数在最后一个引用移除时一并移除。
+ * </p>
+ * <p>
+ * 同一目录在进程内只有一个实例，通过{@link #acquire(Context)}获取，{@link #destroy()}释放。
+ * 索引在后台线程加载，加载完成前查询按未命中处理，写入等待加载完成。第一次打开时把旧版{@link FSTileCache}一张一个文件的缓存导入段文件并删除原文件。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class PackedTileCache implements ITileCache {
+    private static final String LOG_TAG = "com.supermap.android.maps.packedtilecache";
+    private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
+    static final String DIRECTORY = "packed_1";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_FILE = "index.chk";
+    private static final String INDEX_TEMP_FILE = "index.tmp";
+    private static final int INDEX_MAGIC = 0x54494458;
+    // 版本2在每个瓦片的位置后保存新鲜度信息，版本3再保存引用的共享记录
+    private static final int INDEX_VERSION = 3;
+    static final byte RECORD_PUT = 1;
+    static final byte RECORD_DELETE = 2;
+    static final byte RECORD_DELETE_PREFIX = 3;
+    // 引用记录，数据为共享记录的键
+    static final byte RECORD_REF = 4;
+    // 共享记录的键前缀，后接内容散列的十六进制
+    private static final String BLOB_PREFIX = "#";
+    // 旧版FSTileCache按"Provider_1"命名的目录
+    private static final String LEGACY_SUFFIX = "_1";
+    // 记录格式：类型(1) + 键长度(2) + 数据长度(4) + 键 + 数据 + CRC32(4)
+    private static final int RECORD_HEADER = 7;
+    private static final int RECORD_TRAILER = 4;
+    private static final long MAX_SEGMENT_BYTES = 8L * 1024 * 1024;
+    // 追加多少条记录或距第一条未写入检查点的记录多久后写检查点
+    private static final int CHECKPOINT_INTERVAL = 256;
+    private static final long CHECKPOINT_DELAY = 5000L;
+    // 段中有效数据低于该比例时压缩，占用空间超出容量上限时比例更高的段也会压缩
+    private static final float COMPACT_LIVE_RATIO = 0.5F;
+    // 淘汰到有效数据不超过容量上限的该比例为止，给压缩后的空间留出余量
+    private static final float EVICT_TARGET_RATIO = 0.75F;
+    // 每次持有锁淘汰的最多瓦片数，避免长时间阻塞读写
+    private static final int EVICT_BATCH = 512;
+    // 只有读访问时，多久后把访问顺序写入检查点
+    private static final long ACCESS_CHECKPOINT_DELAY = 30000L;
+
+    private static final Map<String, PackedTileCache> instances = new HashMap<String, PackedTileCache>();
+    private int references = 0;
+
+    private final File directory;
+    // 以下字段都由lock保护
+    private final Object lock = new Object();
+    // 按访问顺序排列的索引，最近最少使用的在前
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<String, Location>(256, 0.75F, true);
+    // 内存索引确定瓦片不在缓存中、没有访问文件系统的次数，所有实例共用
+    private static final AtomicLong avoidedLookups = new AtomicLong();
+    // 按有效数据占段长度的比例从低到高排列，比较时需持有lock
+    private static final Comparator<Segment> LIVE_RATIO_ORDER = new Comparator<Segment>() {
+        public int compare(Segment a, Segment b) {
+            long left = a.liveBytes * Math.max(b.length, 1);
+            long right = b.liveBytes * Math.max(a.length, 1);
+            return left < right ? -1 : (left == right ? 0 : 1);
+        }
+    };
+    // 去重时与已保存内容逐段比较用的缓冲区，由lock保护
+    private final ByteBuffer compareBuffer = ByteBuffer.allocate(8192);
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private Segment active;
+    private int nextSegmentId = 1;
+    private int uncheckpointedRecords = 0;
+    // 检查点之后是否有读访问改变了访问顺序
+    private boolean accessDirty = false;
+    // 段文件的总字节数和其中有效记录的字节数
+    private long diskBytes = 0;
+    private long liveBytes = 0;
+    // 共享记录的键到引用数的映射
+    private final HashMap<String, Integer> blobReferences = new HashMap<String, Integer>();
+    // 内容散列到最近写入该内容的瓦片键或共享记录键的映射，只用于查找去重候选
+    private final HashMap<Long, String> contentKeys = new HashMap<Long, String>();
+    // 容量上限，单位字节
+    private volatile long maxBytes;
+    private volatile boolean closed = false;
+    // 索引是否已加载完成，由lock保护；加载完成前只有后台线程访问索引和段
+    private boolean loaded = false;
+    // 保证同一时刻只有一个线程写检查点
+    private final Object checkpointLock = new Object();
+
+    HandlerThread handlerThread;
+    CacheHandler cacheHandler;
+
+    private PackedTileCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.handlerThread = new HandlerThread("packed-tile-cache", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        this.handlerThread.start();
+        this.cacheHandler = new CacheHandler(this.handlerThread.getLooper());
+        // 构造函数一般在UI线程调用，重放段文件可能较慢，放到后台线程
+        this.cacheHandler.sendEmptyMessage(CacheHandler.LOAD);
+        this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+    }
+
+    /**
+     * <p>
+     * 获取缓存目录对应的实例，SD卡可写时使用SD卡，否则使用应用私有目录
+     * </p>
+     * @param ctx
+     * @return 缓存实例，使用完毕后调用{@link #destroy()}释放
+     */
+    static PackedTileCache acquire(Context ctx) {
+        File root;
+        long maxBytes;
+        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            root = new File(Environment.getExternalStorageDirectory(), FSTileCache.EXTERNAL_CACHE_DIRECTORY);
+            maxBytes = FSTileCache.EXTERNAL_CACHE_SIZE;
+        } else {
+            root = ctx.getDir(FSTileCache.INTERNAL_CACHE_DIRECTORY, Context.MODE_WORLD_WRITEABLE);
+            maxBytes = FSTileCache.INTERNAL_CACHE_SIZE;
+        }
+        File dir = new File(root, DIRECTORY);
+        synchronized (instances) {
+            String key = dir.getAbsolutePath();
+            PackedTileCache cache = instances.get(key);
+            if (cache == null) {
+                cache = new PackedTileCache(dir, maxBytes);
+                instances.put(key, cache);
+            }
+            cache.references++;
+            return cache;
+        }
+    }
+
+    static String buildKey(Tile tile) {
+        StringBuilder key = new StringBuilder();
+        key.append(tile.getProvider()).append("_1/");
+        if (tile.getLayerNameCache() != null && !"".equals(tile.getLayerNameCache())) {
+            key.append(tile.getLayerNameCache()).append('/');
+        }
+        key.append(tile.buildCacheKey());
+        return key.toString();
+    }
+
+    public void addTile(Tile tile) {
+        if ((!tile.isValid()) || (tile.getBytes() == null))
+            return;
+        String key = buildKey(tile);
+        synchronized (this.lock) {
+            if (!awaitLoaded() || this.index.containsKey(key)) {
+                return;
+            }
+            try {
+                put(key, tile.getBytes()).freshness = tile.getFreshness();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "addTile failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 批量加入瓦片，整批只获取一次锁
+     * </p>
+     * @param tiles
+     */
+    public void addTiles(List<Tile> tiles) {
+        synchronized (this.lock) {
+            if (!awaitLoaded()) {
+                return;
+            }
+            for (Tile tile : tiles) {
+                if ((!tile.isValid()) || (tile.getBytes() == null))
+                    continue;
+                String key = buildKey(tile);
+                if (this.index.containsKey(key)) {
+                    continue;
+                }
+                try {
+                    put(key, tile.getBytes()).freshness = tile.getFreshness();
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "addTiles failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    public Tile getTile(Tile tile) {
+        Location location;
+        Segment segment;
+        TileFreshness freshness;
+        synchronized (this.lock) {
+            if (!this.loaded) {
+                return tile;
+            }
+            location = this.index.get(buildKey(tile));
+            if (location == null) {
+                avoidedLookups.incrementAndGet();
+                return tile;
+            }
+            freshness = location.freshness;
+            if (location.blob != null) {
+                location = this.index.get(location.blob);
+                if (location == null) {
+                    return tile;
+                }
+            }
+            if (!this.accessDirty) {
+                this.accessDirty = true;
+                this.cacheHandler.sendEmptyMessageDelayed(CacheHandler.CHECKPOINT, ACCESS_CHECKPOINT_DELAY);
+            }
+            segment = this.segments.get(Integer.valueOf(location.segment));
+        }
+        if (segment == null) {
+            return tile;
+        }
+        try {
+            tile.adoptBytes(segment.read(location.offset, location.length));
+            tile.setFreshness(freshness);
+        } catch (IOException e) {
+            // 段可能刚被压缩删除，按未命中处理
+            Log.d(LOG_TAG, "getTile failed: " + e.getMessage());
+            return null;
+        }
+        return tile;
+    }
+
+    /**
+     * <p>
+     * 重新验证后更新瓦片：data不为null时替换瓦片内容，再更新新鲜度信息。瓦片已被淘汰时忽略
+     * </p>
+     * @param key {@link #buildKey(Tile)}生成的键
+     * @param data 新的瓦片内容，服务端返回304时为null
+     * @param freshness 新的新鲜度信息
+     */
+    void refresh(String key, byte[] data, TileFreshness freshness) {
+        synchronized (this.lock) {
+            Location location = this.loaded ? this.index.get(key) : null;
+            if (location == null) {
+                return;
+            }
+            if (data != null) {
+                try {
+                    location = put(key, data);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "refresh failed: " + e.getMessage());
+                    return;
+                }
+            }
+            location.freshness = freshness;
+            if (!this.accessDirty) {
+                this.accessDirty = true;
+                this.cacheHandler.sendEmptyMessageDelayed(CacheHandler.CHECKPOINT, ACCESS_CHECKPOINT_DELAY);
+            }
+        }
+    }
+
+    public void removeTile(Tile tile) {
+        String key = buildKey(tile);
+        synchronized (this.lock) {
+            if (awaitLoaded() && release(this.index.remove(key))) {
+                try {
+                    append(RECORD_DELETE, key, null);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "removeTile failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public boolean contains(Tile tile) {
+        String key = buildKey(tile);
+        synchronized (this.lock) {
+            if (!this.loaded) {
+                return false;
+            }
+            if (this.index.containsKey(key)) {
+                return true;
+            }
+        }
+        avoidedLookups.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * <p>
+     * 获取由内存索引确定瓦片不在缓存中、因而没有访问文件系统的次数
+     * </p>
+     * @return
+     */
+    static long getAvoidedLookups() {
+        return avoidedLookups.get();
+    }
+
+    /**
+     * <p>
+     * 获取去重比例：各瓦片内容的总字节数与实际保存的内容字节数之比，没有去重时为1
+     * </p>
+     * @return 去重比例
+     */
+    public double getDedupRatio() {
+        long logical = 0;
+        long stored = 0;
+        synchronized (this.lock) {
+            if (!this.loaded) {
+                return 1;
+            }
+            // index按访问顺序排列，遍历时不能调用get，共享记录的引用数从blobReferences取
+            for (Entry<String, Location> e : this.index.entrySet()) {
+                Location location = e.getValue();
+                if (location.blob != null) {
+                    continue;
+                }
+                stored += location.length;
+                if (isBlob(e.getKey())) {
+                    Integer references = this.blobReferences.get(e.getKey());
+                    logical += (long) location.length * (references == null ? 0 : references.intValue());
+                } else {
+                    logical += location.length;
+                }
+            }
+        }
+        return stored == 0 ? 1 : (double) logical / stored;
+    }
+
+    /**
+     * <p>
+     * 按目录名清除缓存，参数与{@link FSTileCache#clearByDirName(String)}相同
+     * </p>
+     * @param directoryName Provider的值/图层名，如rest-map/world
+     */
+    public void clearByDirName(String directoryName) {
+        String prefix = directoryName.replace(File.separatorChar, '/');
+        if (prefix.indexOf('/') >= 0) {// 把rest-map/world变成rest-map_1/world
+            prefix = prefix.substring(0, prefix.indexOf('/')) + "_1" + prefix.substring(prefix.indexOf('/'));
+        } else {
+            prefix = prefix + "_1";
+        }
+        prefix = prefix + "/";
+        synchronized (this.lock) {
+            if (!awaitLoaded()) {
+                return;
+            }
+            removePrefix(prefix);
+            try {
+                append(RECORD_DELETE_PREFIX, prefix, null);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "clearByDirName failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this.lock) {
+            if (!awaitLoaded()) {
+                return;
+            }
+            for (Segment segment : this.segments.values()) {
+                segment.close();
+                segment.file.delete();
+            }
+            this.segments.clear();
+            this.index.clear();
+            this.blobReferences.clear();
+            this.contentKeys.clear();
+            this.active = null;
+            this.diskBytes = 0;
+            this.liveBytes = 0;
+            new File(this.directory, INDEX_FILE).delete();
+            new File(this.directory, INDEX_TEMP_FILE).delete();
+            // 写一个空的检查点，覆盖清除前可能正在写的检查点
+            this.uncheckpointedRecords = 1;
+            this.cacheHandler.sendEmptyMessage(CacheHandler.CHECKPOINT);
+        }
+    }
+
+    public int size() {
+        synchronized (this.lock) {
+            if (!this.loaded) {
+                return 0;
+            }
+            return (int) Math.min(this.diskBytes, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置容量上限，超出时后台按最近最少使用的顺序淘汰
+     * </p>
+     * @param maxBytes 容量上限，单位字节
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+    }
+
+    /**
+     * <p>
+     * 获取容量上限
+     * </p>
+     * @return 容量上限，单位字节
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * <p>
+     * 获取有效瓦片记录占用的字节数，不含待压缩回收的无效数据
+     * </p>
+     * @return 字节数
+     */
+    public long getLiveBytes() {
+        synchronized (this.lock) {
+            return this.loaded ? this.liveBytes : 0;
+        }
+    }
+
+    public void destroy() {
+        synchronized (instances) {
+            if (--this.references > 0) {
+                return;
+            }
+            instances.remove(this.directory.getAbsolutePath());
+        }
+        this.closed = true;
+        Looper looper = this.handlerThread.getLooper();
+        if (looper != null) {
+            looper.quit();
+        }
+        checkpoint();
+        synchronized (this.lock) {
+            // 索引仍在加载时由加载线程在加载完成后关闭段
+            if (this.loaded) {
+                closeSegments();
+            }
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * <p>
+     * 获取缓存的瓦片数
+     * </p>
+     * @return 瓦片数
+     */
+    public int getTileCount() {
+        synchronized (this.lock) {
+            return this.loaded ? this.index.size() - this.blobReferences.size() : 0;
+        }
+    }
+
+    /**
+     * <p>
+     * 在后台线程加载索引，完成后唤醒等待加载的写入，再导入旧版缓存
+     * </p>
+     */
+    void load() {
+        if (!this.directory.exists()) {
+            this.directory.mkdirs();
+        }
+        // 加载完成前其他线程不访问索引和段，不需要持有lock；置位loaded时的同步保证其他线程能看到加载的结果
+        open();
+        synchronized (this.lock) {
+            this.loaded = true;
+            if (this.closed) {
+                closeSegments();
+            }
+            this.lock.notifyAll();
+        }
+        Log.d(LOG_TAG, "packed tile cache location: " + this.directory.getAbsolutePath() + ", tiles: " + getTileCount());
+        importLegacyTiles();
+    }
+
+    /**
+     * <p>
+     * 把旧版{@link FSTileCache}保存在同一根目录下的瓦片文件导入段文件，导入后删除原文件和目录，因而只在第一次打开时执行。
+     * 旧目录的相对路径与{@link #buildKey(Tile)}生成的键一致；超出容量上限后不再导入，剩余文件直接删除
+     * </p>
+     */
+    private void importLegacyTiles() {
+        File root = this.directory.getParentFile();
+        File[] dirs = root == null ? null : root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        int imported = 0;
+        for (File dir : dirs) {
+            String name = dir.getName();
+            if (dir.isDirectory() && name.endsWith(LEGACY_SUFFIX) && !name.equals(DIRECTORY)) {
+                imported += importLegacyDirectory(dir, name + "/");
+            }
+        }
+        if (imported > 0) {
+            Log.d(LOG_TAG, "imported " + imported + " tiles from " + root.getAbsolutePath());
+            synchronized (this.lock) {
+                this.uncheckpointedRecords++;
+            }
+            this.cacheHandler.sendEmptyMessage(CacheHandler.CHECKPOINT);
+        }
+    }
+
+    private int importLegacyDirectory(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int imported = 0;
+        for (File file : files) {
+            // 被销毁时停止，未处理的文件下次打开时继续导入
+            if (this.closed) {
+                return imported;
+            }
+            if (file.isDirectory()) {
+                imported += importLegacyDirectory(file, prefix + file.getName() + "/");
+                continue;
+            }
+            if (importLegacyTile(prefix + file.getName(), file)) {
+                imported++;
+            }
+            file.delete();
+        }
+        dir.delete();
+        return imported;
+    }
+
+    private boolean importLegacyTile(String key, File file) {
+        synchronized (this.lock) {
+            if (this.index.containsKey(key) || this.diskBytes >= this.maxBytes) {
+                return false;
+            }
+        }
+        byte[] data;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            data = new byte[(int) raf.length()];
+            raf.readFully(data);
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "read legacy tile " + file.getName() + " failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        if (data.length == 0) {
+            return false;
+        }
+        synchronized (this.lock) {
+            if (this.closed || this.index.containsKey(key)) {
+                return false;
+            }
+            try {
+                put(key, data);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "import legacy tile failed: " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---------------------------------------- 以下方法须在持有lock时调用 ----------------------------------------
+
+    /**
+     * <p>
+     * 等待索引加载完成
+     * </p>
+     * @return 加载完成返回true，缓存已销毁或线程被中断时返回false
+     */
+    private boolean awaitLoaded() {
+        while (!this.loaded && !this.closed) {
+            try {
+                this.lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return this.loaded;
+    }
+
+    private void closeSegments() {
+        for (Segment segment : this.segments.values()) {
+            segment.close();
+        }
+    }
+
+    private static boolean isBlob(String key) {
+        return key.startsWith(BLOB_PREFIX);
+    }
+
+    /**
+     * <p>
+     * 写入瓦片内容。内容已由其他瓦片保存时只追加引用记录；相同内容第二次出现时，先把内容写成共享记录，再把原瓦片改为引用
+     * </p>
+     * @return 瓦片的新位置
+     */
+    private Location put(String key, byte[] data) throws IOException {
+        if (!TileContent.isShareable(data)) {
+            return append(RECORD_PUT, key, data);
+        }
+        Long hash = Long.valueOf(TileContent.hash(data));
+        String candidate = this.contentKeys.get(hash);
+        Location existing = candidate == null || candidate.equals(key) ? null : this.index.get(candidate);
+        if (existing == null || existing.blob != null || !dataEquals(existing, data)) {
+            this.contentKeys.put(hash, key);
+            return append(RECORD_PUT, key, data);
+        }
+        String blobKey = BLOB_PREFIX + Long.toHexString(hash.longValue());
+        if (!candidate.equals(blobKey)) {
+            Location blob = this.index.get(blobKey);
+            if (blob == null) {
+                append(RECORD_PUT, blobKey, data);
+            } else if (!dataEquals(blob, data)) {
+                // 散列冲突，不去重
+                return append(RECORD_PUT, key, data);
+            }
+            TileFreshness freshness = existing.freshness;
+            append(RECORD_REF, candidate, blobKey.getBytes("UTF-8")).freshness = freshness;
+            this.contentKeys.put(hash, blobKey);
+        }
+        return append(RECORD_REF, key, blobKey.getBytes("UTF-8"));
+    }
+
+    /**
+     * <p>
+     * 在段中直接比较已保存的内容与data是否相同，不把已保存的内容读成新数组，调用时需持有lock
+     * </p>
+     */
+    private boolean dataEquals(Location location, byte[] data) throws IOException {
+        Segment segment = this.segments.get(Integer.valueOf(location.segment));
+        if (segment == null) {
+            return false;
+        }
+        return segment.contentEquals(location.offset, location.length, data, this.compareBuffer);
+    }
+
+    /**
+     * <p>
+     * 追加一条记录，PUT记录同时更新索引
+     * </p>
+     * @return PUT记录的新位置，其他记录返回null
+     */
+    private Location append(byte type, String key, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        int dataLength = data == null ? 0 : data.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + dataLength + RECORD_TRAILER);
+        buffer.put(type);
+        buffer.putShort((short) keyBytes.length);
+        buffer.putInt(dataLength);
+        buffer.put(keyBytes);
+        if (data != null) {
+            buffer.put(data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Segment segment = activeSegment(buffer.remaining());
+        long position = segment.append(buffer);
+        this.diskBytes += buffer.capacity();
+        Location location = null;
+        if (type == RECORD_PUT) {
+            location = new Location(segment.id, position + RECORD_HEADER + keyBytes.length, dataLength, buffer.capacity());
+            release(this.index.put(key, location));
+        } else if (type == RECORD_REF) {
+            location = new Location(segment.id, position + RECORD_HEADER + keyBytes.length, dataLength, buffer.capacity());
+            location.blob = new String(data, "UTF-8");
+            // 先增加新引用再释放旧位置，重写同一引用时共享记录不会被移除
+            retainBlob(location.blob);
+            release(this.index.put(key, location));
+        }
+        if (location != null) {
+            segment.liveBytes += location.recordBytes;
+            this.liveBytes += location.recordBytes;
+            if (this.diskBytes > this.maxBytes && !this.cacheHandler.hasMessages(CacheHandler.EVICT)) {
+                this.cacheHandler.sendEmptyMessage(CacheHandler.EVICT);
+            }
+        }
+        if (++this.uncheckpointedRecords >= CHECKPOINT_INTERVAL) {
+            this.cacheHandler.sendEmptyMessage(CacheHandler.CHECKPOINT);
+        } else if (this.uncheckpointedRecords == 1) {
+            this.cacheHandler.sendEmptyMessageDelayed(CacheHandler.CHECKPOINT, CHECKPOINT_DELAY);
+        }
+        return location;
+    }
+
+    private Segment activeSegment(int recordBytes) throws IOException {
+        if (this.active == null || (this.active.length > 0 && this.active.length + recordBytes > MAX_SEGMENT_BYTES)) {
+            if (this.active != null) {
+                this.active.seal();
+            }
+            int id = this.nextSegmentId++;
+            this.active = new Segment(id, new File(this.directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            this.segments.put(Integer.valueOf(id), this.active);
+        }
+        return this.active;
+    }
+
+    private boolean release(Location location) {
+        if (location == null) {
+            return false;
+        }
+        Segment segment = this.segments.get(Integer.valueOf(location.segment));
+        if (segment != null) {
+            segment.liveBytes -= location.recordBytes;
+            this.liveBytes -= location.recordBytes;
+        }
+        if (location.blob != null) {
+            releaseBlob(location.blob);
+        }
+        return true;
+    }
+
+    private void retainBlob(String blobKey) {
+        Integer count = this.blobReferences.get(blobKey);
+        this.blobReferences.put(blobKey, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+    }
+
+    /**
+     * <p>
+     * 减少共享记录的引用数，没有引用时移除共享记录。加载过程中引用数尚未统计，不做处理
+     * </p>
+     */
+    private void releaseBlob(String blobKey) {
+        Integer count = this.blobReferences.get(blobKey);
+        if (count == null) {
+            return;
+        }
+        if (count.intValue() > 1) {
+            this.blobReferences.put(blobKey, Integer.valueOf(count.intValue() - 1));
+            return;
+        }
+        this.blobReferences.remove(blobKey);
+        release(this.index.remove(blobKey));
+        try {
+            Long hash = Long.valueOf(Long.parseLong(blobKey.substring(BLOB_PREFIX.length()), 16));
+            if (blobKey.equals(this.contentKeys.get(hash))) {
+                this.contentKeys.remove(hash);
+            }
+        } catch (NumberFormatException e) {
+        }
+    }
+
+    private void removePrefix(String prefix) {
+        // 释放引用时可能移除共享记录，先收集再删除
+        List<String> keys = new ArrayList<String>();
+        for (String key : this.index.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (String key : keys) {
+            release(this.index.remove(key));
+        }
+    }
+
+    /**
+     * <p>
+     * 加载完成后统计各共享记录的引用数，移除没有引用的共享记录
+     * </p>
+     */
+    private void countBlobReferences() {
+        this.blobReferences.clear();
+        for (Location location : this.index.values()) {
+            if (location.blob != null) {
+                retainBlob(location.blob);
+            }
+        }
+        Iterator<Entry<String, Location>> it = this.index.entrySet().iterator();
+        while (it.hasNext()) {
+            String key = it.next().getKey();
+            if (isBlob(key)) {
+                if (this.blobReferences.containsKey(key)) {
+                    try {
+                        this.contentKeys.put(Long.valueOf(Long.parseLong(key.substring(BLOB_PREFIX.length()), 16)), key);
+                    } catch (NumberFormatException e) {
+                    }
+                } else {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 打开缓存：加载检查点，再按段号顺序重放检查点之后追加的记录
+     * </p>
+     */
+    private void open() {
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                        this.segments.put(Integer.valueOf(id), new Segment(id, file));
+                        this.nextSegmentId = Math.max(this.nextSegmentId, id + 1);
+                    } catch (NumberFormatException e) {
+                        Log.d(LOG_TAG, "ignore file " + name);
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "open segment " + name + " failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        Map<Integer, Long> covered = loadCheckpoint();
+        for (Segment segment : this.segments.values()) {
+            Long start = covered.get(Integer.valueOf(segment.id));
+            replay(segment, start == null ? 0 : Math.min(start.longValue(), segment.length));
+        }
+        countBlobReferences();
+        // 重放删除记录时已按未统计的有效字节数做过扣减，重新统计
+        this.liveBytes = 0;
+        for (Segment segment : this.segments.values()) {
+            segment.liveBytes = 0;
+        }
+        for (Location location : this.index.values()) {
+            Segment segment = this.segments.get(Integer.valueOf(location.segment));
+            if (segment != null) {
+                segment.liveBytes += location.recordBytes;
+                this.liveBytes += location.recordBytes;
+            }
+        }
+        for (Segment segment : this.segments.values()) {
+            this.diskBytes += segment.length;
+        }
+        if (!this.segments.isEmpty()) {
+            Segment last = this.segments.lastEntry().getValue();
+            if (last.length < MAX_SEGMENT_BYTES) {
+                this.active = last;
+            }
+        }
+        for (Segment segment : this.segments.values()) {
+            if (segment != this.active) {
+                segment.seal();
+            }
+        }
+    }
+
+    private Map<Integer, Long> loadCheckpoint() {
+        Map<Integer, Long> covered = new HashMap<Integer, Long>();
+        File file = new File(this.directory, INDEX_FILE);
+        if (!file.exists()) {
+            return covered;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            if (in.readInt() != INDEX_MAGIC) {
+                return covered;
+            }
+            // 版本1的检查点没有新鲜度信息，仍可加载
+            int version = in.readInt();
+            if (version < 1 || version > INDEX_VERSION) {
+                return covered;
+            }
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.readInt();
+                long length = in.readLong();
+                if (this.segments.containsKey(Integer.valueOf(id))) {
+                    covered.put(Integer.valueOf(id), Long.valueOf(length));
+                }
+            }
+            int entryCount = in.readInt();
+            // 检查点中的瓦片按最近最少使用的顺序排列，按原顺序放入索引
+            Map<String, Location> entries = new LinkedHashMap<String, Location>(entryCount * 4 / 3 + 1);
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                Location location = new Location(in.readInt(), in.readLong(), in.readInt(), in.readInt());
+                if (version >= 2 && in.readBoolean()) {
+                    location.freshness = TileFreshness.readFrom(in);
+                }
+                if (version >= 3 && in.readBoolean()) {
+                    location.blob = in.readUTF();
+                }
+                // 检查点之后被删除的段中的瓦片丢弃
+                if (covered.containsKey(Integer.valueOf(location.segment))) {
+                    entries.put(key, location);
+                }
+            }
+            this.index.putAll(entries);
+        } catch (IOException e) {
+            // 检查点损坏时从头重放所有段
+            Log.w(LOG_TAG, "load checkpoint failed, replay all segments: " + e.getMessage());
+            this.index.clear();
+            covered.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * <p>
+     * 从指定位置重放段中的记录，遇到不完整或校验失败的记录时从该处截断
+     * </p>
+     */
+    private void replay(Segment segment, long position) {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        try {
+            while (position < segment.length) {
+                header.clear();
+                if (segment.channel.read(header, position) < RECORD_HEADER) {
+                    break;
+                }
+                header.flip();
+                byte type = header.get();
+                int keyLength = header.getShort() & 0xFFFF;
+                int dataLength = header.getInt();
+                long recordBytes = (long) RECORD_HEADER + keyLength + dataLength + RECORD_TRAILER;
+                if ((type != RECORD_PUT && type != RECORD_DELETE && type != RECORD_DELETE_PREFIX && type != RECORD_REF) || dataLength < 0
+                        || position + recordBytes > segment.length) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+                while (record.hasRemaining()) {
+                    if (segment.channel.read(record, position + record.position()) < 0) {
+                        break;
+                    }
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), 0, (int) recordBytes - RECORD_TRAILER);
+                if (record.hasRemaining() || record.getInt((int) recordBytes - RECORD_TRAILER) != (int) crc.getValue()) {
+                    break;
+                }
+                String key = new String(record.array(), RECORD_HEADER, keyLength, "UTF-8");
+                if (type == RECORD_PUT) {
+                    this.index.put(key, new Location(segment.id, position + RECORD_HEADER + keyLength, dataLength, (int) recordBytes));
+                } else if (type == RECORD_REF) {
+                    Location location = new Location(segment.id, position + RECORD_HEADER + keyLength, dataLength, (int) recordBytes);
+                    location.blob = new String(record.array(), RECORD_HEADER + keyLength, dataLength, "UTF-8");
+                    this.index.put(key, location);
+                } else if (type == RECORD_DELETE) {
+                    this.index.remove(key);
+                } else {
+                    removePrefix(key);
+                }
+                position += recordBytes;
+            }
+            if (position < segment.length) {
+                Log.w(LOG_TAG, "truncate " + segment.file.getName() + " at " + position);
+                segment.channel.truncate(position);
+                segment.length = position;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "replay " + segment.file.getName() + " failed: " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------- 后台线程执行的检查点和压缩 ----------------------------------------
+
+    /**
+     * <p>
+     * 写检查点：先把段数据刷到存储上，再写临时索引文件并改名为正式索引文件
+     * </p>
+     */
+    void checkpoint() {
+        synchronized (this.checkpointLock) {
+            writeCheckpoint();
+        }
+    }
+
+    private void writeCheckpoint() {
+        List<Object[]> segmentSnapshot = new ArrayList<Object[]>();
+        List<Entry<String, Location>> entrySnapshot;
+        synchronized (this.lock) {
+            // 未加载完成时写检查点会用空索引覆盖原有的检查点
+            if (!this.loaded || this.uncheckpointedRecords == 0 && !this.accessDirty && new File(this.directory, INDEX_FILE).exists()) {
+                return;
+            }
+            for (Segment segment : this.segments.values()) {
+                try {
+                    segment.channel.force(false);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "sync " + segment.file.getName() + " failed: " + e.getMessage());
+                    return;
+                }
+                segmentSnapshot.add(new Object[] { Integer.valueOf(segment.id), Long.valueOf(segment.length) });
+            }
+            entrySnapshot = new ArrayList<Entry<String, Location>>(this.index.entrySet());
+            this.uncheckpointedRecords = 0;
+            this.accessDirty = false;
+        }
+        File temp = new File(this.directory, INDEX_TEMP_FILE);
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(temp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(segmentSnapshot.size());
+            for (Object[] s : segmentSnapshot) {
+                out.writeInt(((Integer) s[0]).intValue());
+                out.writeLong(((Long) s[1]).longValue());
+            }
+            out.writeInt(entrySnapshot.size());
+            for (Entry<String, Location> e : entrySnapshot) {
+                Location location = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(location.segment);
+                out.writeLong(location.offset);
+                out.writeInt(location.length);
+                out.writeInt(location.recordBytes);
+                TileFreshness freshness = location.freshness;
+                out.writeBoolean(freshness != null);
+                if (freshness != null) {
+                    freshness.writeTo(out);
+                }
+                out.writeBoolean(location.blob != null);
+                if (location.blob != null) {
+                    out.writeUTF(location.blob);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+            if (!temp.renameTo(new File(this.directory, INDEX_FILE))) {
+                Log.w(LOG_TAG, "rename checkpoint failed");
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "write checkpoint failed: " + e.getMessage());
+            synchronized (this.lock) {
+                this.uncheckpointedRecords++;
+            }
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 压缩非当前段：把仍有效的瓦片重新追加到当前段，写检查点后删除旧段。有效数据不足一半的段都压缩；
+     * 占用空间超出容量上限时，按有效数据比例从低到高继续压缩，直到预计回收后不超过上限
+     * </p>
+     */
+    void compact() {
+        List<Segment> candidates = new ArrayList<Segment>();
+        synchronized (this.lock) {
+            if (!this.loaded) {
+                return;
+            }
+            List<Segment> sealed = new ArrayList<Segment>(this.segments.values());
+            sealed.remove(this.active);
+            Collections.sort(sealed, LIVE_RATIO_ORDER);
+            // 压缩一个段回收其无效数据，有效数据复制到当前段
+            long projected = this.diskBytes;
+            for (Segment segment : sealed) {
+                long reclaimable = segment.length - segment.liveBytes;
+                if (reclaimable <= 0) {
+                    break;
+                }
+                if (segment.liveBytes >= segment.length * COMPACT_LIVE_RATIO && projected <= this.maxBytes) {
+                    break;
+                }
+                candidates.add(segment);
+                projected -= reclaimable;
+            }
+        }
+        for (Segment segment : candidates) {
+            List<String> keys = new ArrayList<String>();
+            synchronized (this.lock) {
+                for (Entry<String, Location> e : this.index.entrySet()) {
+                    if (e.getValue().segment == segment.id) {
+                        keys.add(e.getKey());
+                    }
+                }
+            }
+            for (String key : keys) {
+                if (this.closed) {
+                    return;
+                }
+                Location location;
+                synchronized (this.lock) {
+                    location = this.index.get(key);
+                }
+                if (location == null || location.segment != segment.id) {
+                    continue;
+                }
+                try {
+                    byte[] data = segment.read(location.offset, location.length);
+                    synchronized (this.lock) {
+                        if (this.index.get(key) == location) {
+                            append(location.blob == null ? RECORD_PUT : RECORD_REF, key, data).freshness = location.freshness;
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "compact " + segment.file.getName() + " failed: " + e.getMessage());
+                    return;
+                }
+            }
+            // 复制的记录写入检查点后才能删除旧段
+            synchronized (this.lock) {
+                this.uncheckpointedRecords++;
+            }
+            checkpoint();
+            synchronized (this.lock) {
+                if (this.segments.remove(Integer.valueOf(segment.id)) != null) {
+                    this.diskBytes -= segment.length;
+                }
+                segment.close();
+                segment.file.delete();
+            }
+            Log.d(LOG_TAG, "compacted " + segment.file.getName() + ", moved " + keys.size() + " tiles");
+        }
+    }
+
+    /**
+     * <p>
+     * 占用空间超出容量上限时，按最近最少使用的顺序淘汰瓦片，直到有效数据不超过上限的四分之三。
+     * 淘汰不追加删除记录，随后写入的检查点即不再包含被淘汰的瓦片，其空间由压缩回收
+     * </p>
+     */
+    void evict() {
+        int evicted = 0;
+        while (!this.closed) {
+            synchronized (this.lock) {
+                if (!this.loaded || this.diskBytes <= this.maxBytes && evicted == 0) {
+                    return;
+                }
+                long target = (long) (this.maxBytes * EVICT_TARGET_RATIO);
+                if (this.liveBytes <= target) {
+                    break;
+                }
+                // 共享记录随最后一个引用移除，不直接淘汰；释放引用时可能移除共享记录，先收集再删除
+                List<String> victims = new ArrayList<String>();
+                long remaining = this.liveBytes;
+                Iterator<Entry<String, Location>> it = this.index.entrySet().iterator();
+                while (victims.size() < EVICT_BATCH && remaining > target && it.hasNext()) {
+                    Entry<String, Location> e = it.next();
+                    if (!isBlob(e.getKey())) {
+                        victims.add(e.getKey());
+                        remaining -= e.getValue().recordBytes;
+                    }
+                }
+                if (victims.isEmpty()) {
+                    break;
+                }
+                for (String key : victims) {
+                    release(this.index.remove(key));
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            Log.d(LOG_TAG, "evicted " + evicted + " tiles");
+            synchronized (this.lock) {
+                this.uncheckpointedRecords++;
+            }
+            checkpoint();
+        }
+    }
+
+    /**
+     * <p>
+     * 瓦片在段文件中的位置
+     * </p>
+     */
+    static class Location {
+        final int segment;
+        // 瓦片数据的起始位置和长度
+        final long offset;
+        final int length;
+        // 整条记录的字节数，用于统计段中的有效数据
+        final int recordBytes;
+        // 新鲜度信息，只保存在检查点中，检查点之后写入的瓦片重放后没有新鲜度信息
+        volatile TileFreshness freshness;
+        // 引用记录指向的共享记录的键，普通记录为null
+        String blob;
+
+        Location(int segment, long offset, int length, int recordBytes) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordBytes = recordBytes;
+        }
+    }
+
+    /**
+     * <p>
+     * 段文件，只在末尾追加写入，读取使用不改变文件位置的FileChannel定位读，可以多线程并发
+     * </p>
+     * <p>
+     * 写满后不再变化的段以只读方式映射到内存，读取时从映射区直接复制到瓦片数组，不再经过系统调用。
+     * </p>
+     */
+    static class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        long length;
+        long liveBytes;
+        // 写满后的只读映射，正在写入的段为null
+        volatile MappedByteBuffer mapped;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = this.raf.getChannel();
+            this.length = this.channel.size();
+        }
+
+        long append(ByteBuffer buffer) throws IOException {
+            long position = this.length;
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer, this.length);
+                this.length = position + buffer.position();
+            }
+            return position;
+        }
+
+        /**
+         * <p>
+         * 段不再追加写入后映射为只读内存，映射失败时继续使用定位读
+         * </p>
+         */
+        void seal() {
+            if (this.mapped != null || this.length == 0) {
+                return;
+            }
+            try {
+                this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "map segment " + this.file.getName() + " failed: " + e.getMessage());
+            }
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            MappedByteBuffer map = this.mapped;
+            if (map != null) {
+                if (offset + length > map.capacity()) {
+                    throw new IOException("unexpected end of " + this.file.getName());
+                }
+                ByteBuffer view = map.duplicate();
+                view.position((int) offset);
+                view.get(bytes, 0, length);
+                return bytes;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of " + this.file.getName());
+                }
+            }
+            return buffer.array();
+        }
+
+        /**
+         * <p>
+         * 比较段中指定位置的内容与data是否相同。已映射的段直接按绝对位置比较，正在写入的段分块读入buffer比较
+         * </p>
+         */
+        boolean contentEquals(long offset, int length, byte[] data, ByteBuffer buffer) throws IOException {
+            if (data == null || length != data.length) {
+                return false;
+            }
+            MappedByteBuffer map = this.mapped;
+            if (map != null) {
+                if (offset + length > map.capacity()) {
+                    throw new IOException("unexpected end of " + this.file.getName());
+                }
+                int start = (int) offset;
+                for (int i = 0; i < length; i++) {
+                    if (map.get(start + i) != data[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            int compared = 0;
+            while (compared < length) {
+                buffer.clear();
+                buffer.limit(Math.min(buffer.capacity(), length - compared));
+                int n = this.channel.read(buffer, offset + compared);
+                if (n < 0) {
+                    throw new IOException("unexpected end of " + this.file.getName());
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buffer.get(i) != data[compared + i]) {
+                        return false;
+                    }
+                }
+                compared += n;
+            }
+            return true;
+        }
+
+        void close() {
+            // 映射区没有显式释放的接口，置空后随垃圾回收释放
+            this.mapped = null;
+            try {
+                this.raf.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private class CacheHandler extends Handler {
+        static final int CHECKPOINT = 0;
+        static final int COMPACT = 1;
+        static final int EVICT = 2;
+        static final int LOAD = 3;
+
+        public CacheHandler(Looper looper) {
+            super(looper);
+        }
+
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+            case CHECKPOINT:
+                removeMessages(CHECKPOINT);
+                PackedTileCache.this.checkpoint();
+                removeMessages(COMPACT);
+                sendEmptyMessage(COMPACT);
+                break;
+            case COMPACT:
+                PackedTileCache.this.compact();
+                break;
+            case LOAD:
+                PackedTileCache.this.load();
+                break;
+            case EVICT:
+                removeMessages(EVICT);
+                PackedTileCache.this.evict();
+                PackedTileCache.this.compact();
+                break;
+            }
+            super.handleMessage(msg);
+        }
+    }
+}
\ No newline at end of file
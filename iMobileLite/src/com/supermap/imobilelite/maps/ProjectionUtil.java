@@ -253,11 +253,21 @@ class ProjectionUtil {
      * @return
      */
     protected Point toGlobalPixels(Point2D in, Point out) {
+        return toGlobalPixels(in, this.layerView.mapView.getResolution() / layerView.mapView.getDensity(), out);
+    }
+
+    /**
+     * 按指定的像素分辨率将地理坐标点转化为地理像素坐标点，不依赖地图当前的缩放层级和缩放比例
+     * @param in
+     * @param res 每个地理像素对应的地理长度，见{@link #getPixelResolution(int)}
+     * @param out
+     * @return
+     */
+    Point toGlobalPixels(Point2D in, double res, Point out) {
         if (out == null) {
             out = new Point();
         }
         initGCSRadius();
-        double res = this.layerView.mapView.getResolution() / layerView.mapView.getDensity();
         double longitude = in.getX();
         double latitude = in.getY();
         out.x = (int) Math.round((longitude - mapBoundsLeft) * prjCoordSysRadio / res);
@@ -273,8 +283,18 @@ class ProjectionUtil {
      * @return
      */
     private Point2D fromGlobalPixels(int x, int y) {
+        return fromGlobalPixels(x, y, this.layerView.mapView.getResolution() / layerView.mapView.getDensity());
+    }
+
+    /**
+     * 按指定的像素分辨率将地理像素坐标转化为地理坐标
+     * @param x
+     * @param y
+     * @param res 每个地理像素对应的地理长度，见{@link #getPixelResolution(int)}
+     * @return
+     */
+    Point2D fromGlobalPixels(int x, int y, double res) {
         initGCSRadius();
-        double res = this.layerView.mapView.getResolution() / layerView.mapView.getDensity();
         // int totalX = (int) Math.round(this.layerView.mapView.getIndexBounds().getWidth() * prjCoordSysRadio / res);
         // int totalY = (int) Math.round(this.layerView.mapView.getIndexBounds().getHeight() * prjCoordSysRadio / res);
         // // x = (totalX + x) % totalX;
@@ -400,10 +420,16 @@ class ProjectionUtil {
         } else {
             initGCSRadius();
         }*/
-        initGCSRadius();
+        return getMapImageSize(this.layerView.mapView.getResolution() / layerView.mapView.getDensity());// 除于mapView.currentScale
+    }
 
-        // int zoom = this.getZoomLevel();
-        double res = this.layerView.mapView.getResolution() / layerView.mapView.getDensity();// 除于mapView.currentScale
+    /**
+     * 按指定的像素分辨率得到当前地图图层对应的地理像素坐标范围
+     * @param res 每个地理像素对应的地理长度，见{@link #getPixelResolution(int)}
+     * @return
+     */
+    Rect getMapImageSize(double res) {
+        initGCSRadius();
         int totalX = (int) Math.round(this.layerView.mapView.getIndexBounds().getWidth() * prjCoordSysRadio / res);
         int totalY = (int) Math.round(this.layerView.mapView.getIndexBounds().getHeight() * prjCoordSysRadio / res);
         // int totalX = (int) Math.round((this.layerView.getBoundsRight() - this.layerView.getBoundsLeft()) * prjCoordSysRadio
@@ -413,6 +439,32 @@ class ProjectionUtil {
         return new Rect((int) (totalX * leftPadRate), (int) (totalY * topPadRate), (int) (totalX * rightPadRate), (int) (totalY * bottomPadRate));
     }
 
+    /**
+     * 获取指定缩放层级、缩放比例为1时每个地理像素对应的地理长度，不依赖地图当前的缩放层级
+     * @param zoom 缩放层级
+     * @return
+     */
+    double getPixelResolution(int zoom) {
+        return this.layerView.mapView.getRealResolution(zoom) / layerView.mapView.getDensity();
+    }
+
+    /**
+     * 计算指定缩放层级下某一瓦片的地理范围，与地图当前的缩放层级和缩放比例无关
+     * @param tileX 瓦片列号
+     * @param tileY 瓦片行号
+     * @param zoom 缩放层级
+     * @return
+     */
+    BoundingBox getTileBounds(int tileX, int tileY, int zoom) {
+        double res = getPixelResolution(zoom);
+        Rect imageSize = getMapImageSize(res);
+        double tileSize = 256.0 * this.layerView.mapView.getDensity();
+        Point2D leftTop = fromGlobalPixels(imageSize.left + (int) Math.round(tileX * tileSize), imageSize.top + (int) Math.round(tileY * tileSize), res);
+        Point2D rightBottom = fromGlobalPixels(imageSize.left + (int) Math.round((tileX + 1) * tileSize),
+                imageSize.top + (int) Math.round((tileY + 1) * tileSize), res);
+        return new BoundingBox(leftTop, rightBottom);
+    }
+
     private int getZoomLevel() {
         if (this.layerView.mapView != null) {
             return this.layerView.mapView.getZoomLevel();
@@ -0,0 +1,238 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * <p>
+ * 离线瓦片数据库（MBTiles、SMTiles、SVTiles）的只读连接池，只允许一个实例。
+ * </p>
+ * <p>
+ * 每个数据库文件最多打开{@link #MAX_CONNECTIONS_PER_FILE}个只读连接，各连接互不阻塞，多个线程可以并行读取同一文件；
+ * 连接都在使用中时，后来的读取等待连接归还。空闲超过{@link #IDLE_TIMEOUT}的连接在下次借出或归还时关闭，
+ * 持有连接的文件数超过{@link #MAX_OPEN_FILES}时，优先关闭最久未使用的文件的空闲连接。
+ * </p>
+ * <p>
+ * 只读连接无法切换WAL日志模式，Android也未开放共享缓存，因而并行读取依靠多个独立连接实现。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class SQLiteReadPool {
+    private static final String LOG_TAG = "com.supermap.android.maps.sqlitereadpool";
+    static final int MAX_CONNECTIONS_PER_FILE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final int MAX_OPEN_FILES = 8;
+    static final long IDLE_TIMEOUT = 60 * 1000L;
+    private static final SQLiteReadPool instance = new SQLiteReadPool();
+
+    // 按最近使用排序，便于淘汰最久未使用的文件
+    private final LinkedHashMap<String, FilePool> pools = new LinkedHashMap<String, FilePool>(16, 0.75F, true);
+
+    private SQLiteReadPool() {
+        super();
+    }
+
+    public static SQLiteReadPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * <p>
+     * 借出指定数据库文件的只读连接，使用后必须调用{@link #release(String, SQLiteDatabase)}归还
+     * </p>
+     * @param path 数据库文件的绝对路径
+     * @return 只读连接，打开失败时返回null
+     */
+    SQLiteDatabase acquire(String path) {
+        FilePool pool;
+        synchronized (this) {
+            pool = this.pools.get(path);
+            if (pool == null) {
+                pool = new FilePool(path);
+                this.pools.put(path, pool);
+            }
+        }
+        SQLiteDatabase db = pool.acquire();
+        trim(System.currentTimeMillis());
+        return db;
+    }
+
+    /**
+     * <p>
+     * 归还借出的连接
+     * </p>
+     * @param path 数据库文件的绝对路径
+     * @param db 借出的连接
+     */
+    void release(String path, SQLiteDatabase db) {
+        if (db == null) {
+            return;
+        }
+        FilePool pool;
+        synchronized (this) {
+            pool = this.pools.get(path);
+        }
+        if (pool == null) {
+            // 文件已关闭，归还的连接直接关闭
+            db.close();
+            return;
+        }
+        pool.release(db);
+    }
+
+    /**
+     * <p>
+     * 关闭指定数据库文件的所有连接，使用中的连接在归还时关闭
+     * </p>
+     * @param path 数据库文件的绝对路径
+     */
+    void close(String path) {
+        FilePool pool;
+        synchronized (this) {
+            pool = this.pools.remove(path);
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * <p>
+     * 关闭所有数据库文件的连接
+     * </p>
+     */
+    void closeAll() {
+        List<FilePool> closing;
+        synchronized (this) {
+            closing = new ArrayList<FilePool>(this.pools.values());
+            this.pools.clear();
+        }
+        for (FilePool pool : closing) {
+            pool.close();
+        }
+    }
+
+    /**
+     * <p>
+     * 关闭空闲过久的连接，持有连接的文件过多时关闭最久未使用的文件的空闲连接
+     * </p>
+     * @param now 当前时间
+     */
+    private void trim(long now) {
+        List<FilePool> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<FilePool>(this.pools.values());
+        }
+        int openFiles = 0;
+        for (FilePool pool : snapshot) {
+            if (pool.openCount() > 0) {
+                openFiles++;
+            }
+        }
+        // snapshot从最久未使用的文件开始
+        for (FilePool pool : snapshot) {
+            boolean overLimit = openFiles > MAX_OPEN_FILES;
+            int closed = pool.closeIdle(overLimit ? now : now - IDLE_TIMEOUT);
+            if (overLimit && closed > 0 && pool.openCount() == 0) {
+                openFiles--;
+            }
+        }
+    }
+
+    private static class FilePool {
+        private final String path;
+        private final LinkedList<SQLiteDatabase> idle = new LinkedList<SQLiteDatabase>();
+        private final LinkedList<Long> idleSince = new LinkedList<Long>();
+        // 借出中的连接，文件关闭后重新打开时，旧连接归还到新的FilePool也能识别出来
+        private final Set<SQLiteDatabase> lent = new HashSet<SQLiteDatabase>();
+        private int open = 0;
+        private boolean closed = false;
+
+        FilePool(String path) {
+            this.path = path;
+        }
+
+        synchronized SQLiteDatabase acquire() {
+            while (this.idle.isEmpty() && this.open >= MAX_CONNECTIONS_PER_FILE && !this.closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (this.closed) {
+                return null;
+            }
+            if (!this.idle.isEmpty()) {
+                this.idleSince.removeLast();
+                SQLiteDatabase db = this.idle.removeLast();
+                this.lent.add(db);
+                return db;
+            }
+            try {
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(this.path, null, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+                this.open++;
+                this.lent.add(db);
+                return db;
+            } catch (SQLiteException e) {
+                Log.w(LOG_TAG, "open " + this.path + " failed: " + e.getMessage());
+                return null;
+            }
+        }
+
+        synchronized void release(SQLiteDatabase db) {
+            if (!this.lent.remove(db)) {
+                db.close();
+                return;
+            }
+            if (this.closed || !db.isOpen()) {
+                db.close();
+                this.open--;
+            } else {
+                this.idle.addLast(db);
+                this.idleSince.addLast(Long.valueOf(System.currentTimeMillis()));
+            }
+            notify();
+        }
+
+        /**
+         * 关闭在指定时间之前开始空闲的连接，返回关闭的连接数
+         */
+        synchronized int closeIdle(long before) {
+            int closed = 0;
+            while (!this.idle.isEmpty() && this.idleSince.getFirst().longValue() <= before) {
+                this.idleSince.removeFirst();
+                this.idle.removeFirst().close();
+                this.open--;
+                closed++;
+            }
+            return closed;
+        }
+
+        synchronized int openCount() {
+            return this.open;
+        }
+
+        synchronized void close() {
+            this.closed = true;
+            for (SQLiteDatabase db : this.idle) {
+                db.close();
+                this.open--;
+            }
+            this.idle.clear();
+            this.idleSince.clear();
+            notifyAll();
+        }
+    }
+}
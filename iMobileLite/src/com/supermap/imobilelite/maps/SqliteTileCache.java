@@ -1,6 +1,13 @@
 package com.supermap.imobilelite.maps;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.os.Environment;
 
@@ -14,6 +21,8 @@ import com.supermap.services.util.ResourceManager;
 class SqliteTileCache implements ITileCache {
     private static final String LOG_TAG = "com.supermap.android.maps.sqlitetilecache";
     private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
+    // 各图层当前视图待读取的瓦片，按比例尺分组，同组瓦片在第一次读取时一次查询全部取出
+    private final Map<String, Map<Double, Batch>> layerBatches = new ConcurrentHashMap<String, Map<Double, Batch>>();
 
     public SqliteTileCache() {
         super();
@@ -27,15 +36,68 @@ class SqliteTileCache implements ITileCache {
             return null;
         }
         if (SqliteTileSourceFactory.getInstance().openSQLiteDatabase(tile.getLayerNameCache())) {
-            byte[] bs = SqliteTileSourceFactory.getInstance().getTileBytes(tile);
+            byte[] bs = getTileBytes(tile);
             if (bs != null) {
                 // Log.i(LOG_TAG, resource.getMessage(MapCommon.SQLITETILECACHE_GETTILE_SUCCESS, tile.toString()));
-                tile.setBytes(bs);
+                tile.adoptBytes(bs);
             }
+        } else {
+            this.layerBatches.remove(String.valueOf(tile.getLayerNameCache()));
         }
         return tile;
     }
 
+    /**
+     * <p>
+     * 登记当前视图需要的瓦片。同一图层、同一比例尺的瓦片在其中任一张第一次读取时一起查询，
+     * 之后的瓦片直接取查询结果，整屏瓦片只需一次数据库查询。
+     * </p>
+     * @param tiles 当前视图需要的瓦片，登记后替换这些图层之前登记的瓦片
+     * @since 8.0.0
+     */
+    void expectTiles(Collection<Tile> tiles) {
+        Map<String, Map<Double, Batch>> batches = new HashMap<String, Map<Double, Batch>>();
+        for (Tile tile : tiles) {
+            String layer = String.valueOf(tile.getLayerNameCache());
+            Map<Double, Batch> scales = batches.get(layer);
+            if (scales == null) {
+                scales = new HashMap<Double, Batch>();
+                batches.put(layer, scales);
+            }
+            Double scale = Double.valueOf(tile.getScale());
+            Batch batch = scales.get(scale);
+            if (batch == null) {
+                batch = new Batch();
+                scales.put(scale, batch);
+            }
+            batch.tiles.put(tile.buildCacheKey(), tile);
+        }
+        this.layerBatches.putAll(batches);
+    }
+
+    private byte[] getTileBytes(Tile tile) {
+        Map<Double, Batch> scales = this.layerBatches.get(String.valueOf(tile.getLayerNameCache()));
+        Batch batch = scales == null ? null : scales.get(Double.valueOf(tile.getScale()));
+        String key = tile.buildCacheKey();
+        if (batch == null || batch.tiles.size() < 2 || !batch.tiles.containsKey(key)) {
+            return SqliteTileSourceFactory.getInstance().getTileBytes(tile);
+        }
+        synchronized (batch) {
+            if (!batch.queried) {
+                batch.queried = true;
+                batch.results = SqliteTileSourceFactory.getInstance().getTilesBytes(tile.getLayerNameCache(), tile.getScale(),
+                        new ArrayList<Tile>(batch.tiles.values()));
+            }
+            // 已登记而查询结果中没有的瓦片，库中不存在
+            if (batch.results != null && batch.served.add(key)) {
+                return batch.results.remove(key);
+            }
+        }
+        // 批量查询失败或瓦片过于分散时没有结果，在锁外逐个读取，不阻塞其他下载线程；
+        // 结果取出后即释放，同一瓦片再次读取时（如内存缓存已淘汰）也单独查询
+        return SqliteTileSourceFactory.getInstance().getTileBytes(tile);
+    }
+
     @Override
     public void addTile(Tile paramTile) {
         // TODO Auto-generated method stub
@@ -56,8 +118,7 @@ class SqliteTileCache implements ITileCache {
 
     @Override
     public void clear() {
-        // TODO Auto-generated method stub
-
+        this.layerBatches.clear();
     }
 
     public boolean clearBySQLiteDBName(String dbName) {
@@ -80,8 +141,15 @@ class SqliteTileCache implements ITileCache {
 
     @Override
     public void destroy() {
-        // TODO Auto-generated method stub
+        this.layerBatches.clear();
+    }
 
+    private static class Batch {
+        final Map<String, Tile> tiles = new HashMap<String, Tile>();
+        final Set<String> served = new HashSet<String>();
+        boolean queried;
+        // 批量查询的结果，查询失败或不适合批量查询时为null
+        Map<String, byte[]> results;
     }
 
 }
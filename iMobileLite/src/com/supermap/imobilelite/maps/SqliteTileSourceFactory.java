@@ -4,9 +4,11 @@ import java.io.File;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -30,12 +32,25 @@ class SqliteTileSourceFactory {
     // private static final String SELECT_TILE_BYRES_SQL = "SELECT tile_data FROM tiles WHERE tile_column=%d AND tile_row=%d AND resolution>%d and resolution<%d;";
     private static final String SELECT_TILE_BYRES_SQL = "SELECT tile_data FROM tiles WHERE tile_column=? AND tile_row=? AND resolution>? and resolution<?;";
     private static final String SELECT_TILE_BYLEVEL = "SELECT tile_data FROM tiles WHERE tile_column=? AND tile_row=? AND zoom_level=?;";
+    // 批量读取：按行列号范围一次取出同一级别的多张瓦片，可使用MBTiles的(zoom_level, tile_column, tile_row)索引
+    private static final String SELECT_TILES_BYLEVEL = "SELECT tile_column, tile_row, tile_data FROM tiles WHERE zoom_level=? AND tile_column>=? AND tile_column<=? AND tile_row>=? AND tile_row<=?;";
+    private static final String SELECT_TILES_BYRES = "SELECT tile_column, tile_row, tile_data FROM tiles WHERE resolution>? AND resolution<? AND tile_column>=? AND tile_column<=? AND tile_row>=? AND tile_row<=?;";
+    // 批量读取时行列号范围内的瓦片数超过请求瓦片数的该倍数，说明请求的瓦片过于分散，改为逐个读取
+    private static final int MAX_BATCH_SPARSENESS = 4;
     private static final double RESOLUTION_PRECESION = 1.0E-6;// 分辨率精度，在该精度范围内，认为两个分辨率相等。
-    private static Map<Integer, Double> resolutions = new HashMap<Integer, Double>();
+    private static final double LEVEL0_RESOLUTION = 156543.033928;
+    private static final int LEVEL_COUNT = 23;
+    // MBTiles规范中各级别的分辨率，下标即级别
+    private static final double[] resolutions = new double[LEVEL_COUNT];
     static final String SQLITE_CACHE_DIRECTORY = "supermap/sqlite";
     private static File cacheFile;
 
     static {
+        double resolution = LEVEL0_RESOLUTION;
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            resolutions[i] = resolution;
+            resolution /= 2.0;
+        }
         String state = Environment.getExternalStorageState();
         if ("mounted".equals(state) || "mounted_ro".equals(state)) {
             // Log.d(LOG_TAG, resource.getMessage(MapCommon.SQLITETILESOURCEFACTORY_SDCARD_STATE, state));
@@ -47,8 +62,13 @@ class SqliteTileSourceFactory {
         }
     }
 
-    private Map<String, SQLiteDatabase> layerDatabaseMap = new ConcurrentHashMap<String, SQLiteDatabase>();
+    // 图层缓存名到离线数据库文件路径，读取时从SQLiteReadPool借出只读连接，多个下载线程可以并行读取
+    private Map<String, String> layerDatabaseMap = new ConcurrentHashMap<String, String>();
     private Map<String, TileResolutionInfo> mapResolutionInfoPair = new ConcurrentHashMap<String, TileResolutionInfo>();
+    // 没有离线数据库文件的图层及检查时间，在RECHECK_MISSING_INTERVAL内不再检查文件是否存在
+    private Map<String, Long> missingLayers = new ConcurrentHashMap<String, Long>();
+    private static final long RECHECK_MISSING_INTERVAL = 30000L;
+    private final AtomicLong avoidedLookups = new AtomicLong();
     private static final SqliteTileSourceFactory instance = new SqliteTileSourceFactory();
 
     private SqliteTileSourceFactory() {
@@ -63,22 +83,30 @@ class SqliteTileSourceFactory {
         if (!canUseSDCard) {
             return false;
         }
-        if (layerDatabaseMap.containsKey(layerName) && layerDatabaseMap.get(layerName) != null && layerDatabaseMap.get(layerName).isOpen()) {
+        if (layerDatabaseMap.containsKey(layerName)) {
             return true;
         }
+        Long checked = missingLayers.get(layerName);
+        if (checked != null && System.currentTimeMillis() - checked.longValue() < RECHECK_MISSING_INTERVAL) {
+            avoidedLookups.incrementAndGet();
+            return false;
+        }
         try {
             File file = new File(cacheFile, layerName + ".mbtiles");
             if (!file.exists()) {
                 file = new File(cacheFile, layerName + ".smtiles");
                 if (!file.exists()) {
+                    missingLayers.put(layerName, Long.valueOf(System.currentTimeMillis()));
                     return false;
                 }
             }
+            missingLayers.remove(layerName);
             String path = file.getAbsolutePath();// "/mnt/sdcard/supermap/" + name;// 默认值应该是这个
             Log.i(LOG_TAG, resource.getMessage(MapCommon.SQLITETILESOURCEFACTORY_DATABASE_INFO, new String[] { layerName, path }));
-            SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, 0);
-            if (db != null && db.isOpen()) {
-                layerDatabaseMap.put(layerName, db);
+            SQLiteDatabase db = SQLiteReadPool.getInstance().acquire(path);
+            if (db != null) {
+                SQLiteReadPool.getInstance().release(path, db);
+                layerDatabaseMap.put(layerName, path);
                 return true;
             }
         } catch (SQLiteException e) {
@@ -87,13 +115,20 @@ class SqliteTileSourceFactory {
         return false;
     }
 
+    /**
+     * 获取因已知图层没有离线数据库而省去的文件系统访问次数
+     */
+    long getAvoidedLookups() {
+        return avoidedLookups.get();
+    }
+
     public byte[] getTileBytes(Tile tile) {
         if (tile == null) {
             return null;
         }
         String layerName = tile.getLayerNameCache();
-        SQLiteDatabase db = layerDatabaseMap.get(layerName);
-        if (db != null) {
+        String path = layerDatabaseMap.get(layerName);
+        if (path != null) {
             double resolution = getResolutionFromScale(layerName, tile.getScale());
             if (Math.abs(resolution) < 1.0E-6 && Math.abs(resolution) > -1.0E-6) {
                 return null;
@@ -103,6 +138,10 @@ class SqliteTileSourceFactory {
             // int y = getDBY(tile, resolution);
             int y = tile.getY();
             int level = getLevel(resolution, "3857");
+            SQLiteDatabase db = SQLiteReadPool.getInstance().acquire(path);
+            if (db == null) {
+                return null;
+            }
             Cursor result = null;
             byte[] resultBytes = null;
             try {
@@ -127,11 +166,88 @@ class SqliteTileSourceFactory {
                 if (result != null) {
                     result.close();
                 }
+                SQLiteReadPool.getInstance().release(path, db);
             }
         }
         return null;
     }
 
+    /**
+     * <p>
+     * 批量获取同一图层、同一比例尺下多张瓦片的数据。分辨率和级别只计算一次，并用一条按行列号范围的查询取出全部瓦片，
+     * 代替逐个瓦片的查询。
+     * </p>
+     * @param layerName 图层缓存名
+     * @param scale 瓦片的比例尺
+     * @param tiles 瓦片
+     * @return 瓦片缓存键到瓦片数据的映射，不包含库中没有的瓦片；请求的瓦片过于分散或查询失败时返回null，由调用者逐个读取
+     * @since 8.0.0
+     */
+    public Map<String, byte[]> getTilesBytes(String layerName, double scale, List<Tile> tiles) {
+        Map<String, byte[]> tilesBytes = new HashMap<String, byte[]>();
+        String path = layerDatabaseMap.get(layerName);
+        if (path == null || tiles == null || tiles.isEmpty()) {
+            return tilesBytes;
+        }
+        double resolution = getResolutionFromScale(layerName, scale);
+        if (Math.abs(resolution) < 1.0E-6 && Math.abs(resolution) > -1.0E-6) {
+            return tilesBytes;
+        }
+        int level = getLevel(resolution, "3857");
+        // 库中实际存储的行列号到瓦片缓存键
+        Map<Long, String> cells = new HashMap<Long, String>();
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Tile tile : tiles) {
+            int x = tile.getX();
+            int y = level > -1 ? (int) displaceY(level, tile.getY()) : tile.getY();
+            cells.put(cellKey(x, y), tile.buildCacheKey());
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        long area = (long) (maxX - minX + 1) * (maxY - minY + 1);
+        if (area > (long) cells.size() * MAX_BATCH_SPARSENESS) {
+            return null;
+        }
+        SQLiteDatabase db = SQLiteReadPool.getInstance().acquire(path);
+        if (db == null) {
+            return null;
+        }
+        Cursor result = null;
+        try {
+            if (level > -1) {
+                String argus[] = { String.valueOf(level), String.valueOf(minX), String.valueOf(maxX), String.valueOf(minY), String.valueOf(maxY) };
+                result = db.rawQuery(SELECT_TILES_BYLEVEL, argus);
+            } else {
+                String argus[] = { String.valueOf(resolution - RESOLUTION_PRECESION), String.valueOf(resolution + RESOLUTION_PRECESION),
+                        String.valueOf(minX), String.valueOf(maxX), String.valueOf(minY), String.valueOf(maxY) };
+                result = db.rawQuery(SELECT_TILES_BYRES, argus);
+            }
+            while (result.moveToNext()) {
+                String key = cells.get(cellKey(result.getInt(0), result.getInt(1)));
+                if (key != null) {
+                    tilesBytes.put(key, result.getBlob(2));
+                }
+            }
+        } catch (RuntimeException e) {
+            // 部分结果不能说明其余瓦片不存在
+            Log.w(LOG_TAG, "batch query on " + layerName + " failed: " + e.getMessage());
+            return null;
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+            SQLiteReadPool.getInstance().release(path, db);
+        }
+        return tilesBytes;
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
     /**
      * 设置地图分辨率
      */
@@ -164,12 +280,12 @@ class SqliteTileSourceFactory {
 
     public boolean dispose() {
         if (layerDatabaseMap.size() > 0) {
-            Iterator<Entry<String, SQLiteDatabase>> it = layerDatabaseMap.entrySet().iterator();
+            Iterator<Entry<String, String>> it = layerDatabaseMap.entrySet().iterator();
             Log.i(LOG_TAG, resource.getMessage(MapCommon.SQLITETILESOURCEFACTORY_OPENED_SQLITEDATABASE, layerDatabaseMap.size()));
             while (it.hasNext()) {
-                Entry<String, SQLiteDatabase> entry = it.next();
+                Entry<String, String> entry = it.next();
                 Log.i(LOG_TAG, resource.getMessage(MapCommon.SQLITETILESOURCEFACTORY_CLOSE_SQLITEDATABASE, entry.getKey()));
-                entry.getValue().close();
+                SQLiteReadPool.getInstance().close(entry.getValue());
             }
             layerDatabaseMap.clear();
         }
@@ -187,14 +303,6 @@ class SqliteTileSourceFactory {
         return y;
     }*/
 
-    private static void initLODInfos() {
-        double resolution = 156543.033928;
-        for (int i = 0; i < 23; i++) {
-            resolutions.put(i, resolution);
-            resolution /= 2.0;
-        }
-    }
-
     /**
      * 根据分辨率，epsgcode获取级别，若投影不是3857或分辨率不是MBTiles规范分辨率返回-1
      * @param resolution
@@ -202,18 +310,16 @@ class SqliteTileSourceFactory {
      * @return
      */
     private int getLevel(double resolution, String epsgCode) {
-        if (!epsgCode.equals("3857")) {
+        if (!epsgCode.equals("3857") || resolution <= 0) {
             return -1;
         }
-        if (resolutions.isEmpty()) {
-            initLODInfos();
+        // 由分辨率直接估算级别，再与规范分辨率表比较确认
+        int level = (int) Math.round(Math.log(LEVEL0_RESOLUTION / resolution) / Math.log(2));
+        if (level < 0 || level >= LEVEL_COUNT) {
+            return -1;
         }
-        Iterator<Entry<Integer, Double>> iter = resolutions.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<Integer, Double> entry = iter.next();
-            if (Math.abs(resolution - entry.getValue()) < RESOLUTION_PRECESION) {
-                return entry.getKey();
-            }
+        if (Math.abs(resolution - resolutions[level]) < RESOLUTION_PRECESION) {
+            return level;
         }
         return -1;
     }
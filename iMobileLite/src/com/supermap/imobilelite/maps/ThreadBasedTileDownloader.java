@@ -7,8 +7,7 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -17,7 +16,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
@@ -44,6 +49,7 @@ import org.apache.http.params.HttpProtocolParams;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -63,20 +69,84 @@ import com.supermap.services.util.ResourceManager;
 class ThreadBasedTileDownloader implements TileDownloader {
     private static final String LOG_TAG = "com.supermap.maps.downloader";
     private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
+    // 默认的最小、最大下载并发数，实际并发数在此范围内根据请求延迟和错误率自适应调整
+    static final int DEFAULT_MIN_RUNNING_DOWNLOADS = 1;
+    static final int DEFAULT_MAX_RUNNING_DOWNLOADS = 8;
+    // 初始并发数和非Wi-Fi网络下的并发数上限
+    private static final int INITIAL_RUNNING_DOWNLOADS = 3;
+    private static final int CELLULAR_MAX_RUNNING_DOWNLOADS = 3;
+    // 设置镜像主机后下载并发数最多放大的倍数，每个主机仍最多使用最大下载并发数个连接
+    static final int MAX_HOST_SHARDS = 4;
+    // 解码任务队列的容量，队列满时由提交任务的线程自己执行，形成反压
+    private static final int DECODE_QUEUE_CAPACITY = 32;
+    // 等待重新验证的过期瓦片数上限，超出时本次不验证，下次从SD卡读取时再验证
+    private static final int REVALIDATE_QUEUE_CAPACITY = 64;
+    // 每个解码线程复用的解码临时缓冲区，避免每次解码都分配32KB
+    private static final ThreadLocal<byte[]> DECODE_TEMP_STORAGE = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[32 * 1024];
+        }
+    };
+    // 非当前层级瓦片的优先级惩罚值，每差一级加一次，保证当前层级的瓦片总是先于其他层级下载
+    private static final long ZOOM_PRIORITY_PENALTY = 1L << 24;
     private Map<String, Tile> queue;
+    // 所有下载线程共享的优先级队列，按瓦片到屏幕锁定点的距离和层级排序，比较时不涉及任何IO操作
+    private BlockQueue<Tile> downloadQueue = new BlockQueue<Tile>(new PriorityBlockingQueue<Tile>(50));
     private MapView mapView;
     private TileCacher tileCacher;
-    private int maxRunningDownloads = 3;
-    Set<String> runningDownloads = Collections.synchronizedSet(new HashSet<String>());// 记住当前正在下载的瓦片（存储瓦片的cacheKey）
+    private int maxRunningDownloads = DEFAULT_MAX_RUNNING_DOWNLOADS;
+    // 按镜像主机数放大后的下载线程数，也是自适应并发数的上限
+    private int shardedRunningDownloads;
+    // 各图层单独设置的每主机最大连接数，主机名不含端口
+    private Map<String, Integer> hostConnectionLimits = new HashMap<String, Integer>();
+    Map<String, Tile> runningDownloads = new ConcurrentHashMap<String, Tile>();// 记住当前正在下载的瓦片（键为瓦片的cacheKey）
+    // 正在网络传输阶段的瓦片，只有这些瓦片的请求可以中止，已在解码阶段的不中止（键为瓦片的cacheKey）
+    private final ConcurrentHashMap<String, Tile> transferringDownloads = new ConcurrentHashMap<String, Tile>();
+    // 视图代数，每次endQueue加一
+    private int generation = 0;
+    // 每个图层最近一次请求瓦片时的视图代数，代数小于该值且不再被请求的瓦片视为过期
+    private Map<String, Integer> layerGenerations = new ConcurrentHashMap<String, Integer>();
+    private TileDownloadStatistics statistics;
+    private AdaptiveConcurrencyController concurrencyController;
+    // 瓦片处理分为网络下载、解码、加入内存缓存、写SD卡几个阶段，下载线程只负责下载，解码由独立的线程池完成，写SD卡由WriteBehindTileCache异步完成
+    private ThreadPoolExecutor decodeExecutor;
+    // SD卡缓存中过期瓦片的后台重新验证，单线程执行，不占用下载并发数
+    private ThreadPoolExecutor revalidateExecutor;
+    // 正在重新验证的瓦片，键为PackedTileCache中的键
+    private Map<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
     HttpConnectionPool httpConnectionPool = null;
     private ArrayList<TileDownloadThread> threads = null;
     private boolean networkAvailable = true;
     private NetworkListener listener = new NetworkListener();
 
     public ThreadBasedTileDownloader(MapView mapView, TileCacher tileCacher) {
+        this(mapView, tileCacher, DEFAULT_MIN_RUNNING_DOWNLOADS, DEFAULT_MAX_RUNNING_DOWNLOADS);
+    }
+
+    /**
+     * <p>
+     * 构造函数。
+     * </p>
+     * @param mapView 地图视图。
+     * @param tileCacher 瓦片缓存。
+     * @param minRunningDownloads 最小下载并发数，小于1时使用1。
+     * @param maxRunningDownloads 最大下载并发数，即每个主机的下载线程数和连接数，小于1时使用默认值。设置镜像主机后按主机数放大，最多{@link #MAX_HOST_SHARDS}倍。
+     */
+    public ThreadBasedTileDownloader(MapView mapView, TileCacher tileCacher, int minRunningDownloads, int maxRunningDownloads) {
         this.mapView = mapView;
         this.tileCacher = tileCacher;
+        if (maxRunningDownloads > 0) {
+            this.maxRunningDownloads = maxRunningDownloads;
+        }
+        this.shardedRunningDownloads = this.maxRunningDownloads;
+        this.concurrencyController = new AdaptiveConcurrencyController(minRunningDownloads, this.maxRunningDownloads, CELLULAR_MAX_RUNNING_DOWNLOADS,
+                INITIAL_RUNNING_DOWNLOADS);
         this.queue = new LinkedHashMap<String, Tile>(30);
+        this.statistics = mapView.getTileDownloadStatistics();
+        int decodeThreads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        this.decodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+                DECODE_QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.revalidateExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(REVALIDATE_QUEUE_CAPACITY));
         this.threads = new ArrayList<TileDownloadThread>();
         this.networkAvailable = NetworkConnectivityListener.getLastKnownNetworkState();
         mapView.getEventDispatcher().registerHandler(this.listener);
@@ -95,11 +165,14 @@ class ThreadBasedTileDownloader implements TileDownloader {
         }
     }*/
 
-    private HttpConnectionPool getHttpConnectionPoolInstance() {
+    HttpConnectionPool getHttpConnectionPoolInstance() {
         if (this.httpConnectionPool == null) {
             synchronized (this) {
                 if (this.httpConnectionPool == null) {
-                    this.httpConnectionPool = new HttpConnectionPool(this.maxRunningDownloads, this.maxRunningDownloads, 3000, 5000);
+                    // 总连接数按最多的镜像主机数预留，每个主机默认最多使用maxRunningDownloads个连接，实际并发由下载线程数和自适应并发数限制
+                    HttpConnectionPool pool = new HttpConnectionPool(this.maxRunningDownloads * MAX_HOST_SHARDS, this.maxRunningDownloads, 3000, 5000);
+                    pool.setHostConnectionLimits(this.hostConnectionLimits);
+                    this.httpConnectionPool = pool;
                 }
             }
         }
@@ -108,11 +181,15 @@ class ThreadBasedTileDownloader implements TileDownloader {
 
     public void destroy() {
         this.queue.clear();
+        this.downloadQueue.clear();
         this.runningDownloads.clear();
+        this.transferringDownloads.clear();
         for (TileDownloadThread t : this.threads) {
             t.shutdown();
         }
         this.threads.clear();
+        this.decodeExecutor.shutdownNow();
+        this.revalidateExecutor.shutdownNow();
         mapView.getEventDispatcher().removeHandler(this.listener);
         this.tileCacher = null;
         if (this.httpConnectionPool != null)
@@ -121,46 +198,147 @@ class ThreadBasedTileDownloader implements TileDownloader {
         System.gc();
     }
 
+    /**
+     * <p>
+     * 从SD卡缓存读取到过期瓦片时调用：瓦片照常显示，同时在后台用If-None-Match/If-Modified-Since重新验证。
+     * 服务端返回304时只更新新鲜度信息，返回新内容时替换SD卡缓存中的瓦片，内存缓存中的旧瓦片在被淘汰后更新。
+     * </p>
+     * @param tile 从SD卡缓存读取的瓦片
+     */
+    private void revalidateIfExpired(final Tile tile) {
+        final TileFreshness cached = tile.getFreshness();
+        final String url = tile.getUrl();
+        if (cached == null || !cached.hasValidator() || !cached.isExpired(System.currentTimeMillis()) || url == null || "".equals(url)) {
+            return;
+        }
+        // 通过WriteBehindTileCache更新，验证期间切换了SD卡缓存格式时不会写入已关闭的缓存
+        final WriteBehindTileCache store = getDiskCache();
+        if (store == null || !(store.getDelegate() instanceof PackedTileCache) && !(store.getDelegate() instanceof MBTilesTileCache)) {
+            return;
+        }
+        final String key = PackedTileCache.buildKey(tile);
+        if (this.revalidating.put(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            this.revalidateExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        HttpConnectionPool.Result result = getHttpConnectionPoolInstance().fetch(url, cached);
+                        if (result.statusCode == 304) {
+                            store.refresh(key, tile, null, cached.revalidated(result.freshness));
+                            ThreadBasedTileDownloader.this.statistics.addRevalidatedTile(true);
+                        } else if (result.bytes != null) {
+                            store.refresh(key, tile, result.bytes, result.freshness);
+                            ThreadBasedTileDownloader.this.statistics.addRevalidatedTile(false);
+                            ThreadBasedTileDownloader.this.statistics.addDownloadedTile(result.bytes.length);
+                        }
+                    } finally {
+                        ThreadBasedTileDownloader.this.revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.revalidating.remove(key);
+        }
+    }
+
+    private WriteBehindTileCache getDiskCache() {
+        TileCacher cacher = this.tileCacher;
+        if (cacher == null) {
+            return null;
+        }
+        ITileCache cache = cacher.getCache(TileCacher.CacheType.DB);
+        return cache instanceof WriteBehindTileCache ? (WriteBehindTileCache) cache : null;
+    }
+
+    private boolean isInDiskCache(Tile tile) {
+        TileCacher cacher = this.tileCacher;
+        if (cacher == null) {
+            return false;
+        }
+        ITileCache cache = cacher.getCache(TileCacher.CacheType.DB);
+        return cache != null && cache.contains(tile);
+    }
+
     public void beginQueue() {
         this.queue.clear();
     }
 
     public void queueTile(Tile tile) {
+        // 最近请求失败、仍在暂停期内的瓦片不再入队，SD卡缓存中已有的除外
+        if (NegativeTileCache.getInstance().shouldSkip(tile.getUrl(), System.currentTimeMillis()) && !isInDiskCache(tile)) {
+            this.statistics.addNegativeCachedTile();
+            return;
+        }
         String key = tile.buildCacheKey();
+        tile.setPriority(computePriority(tile));
         this.queue.put(key, tile);
     }
 
+    /**
+     * <p>
+     * 计算瓦片的下载优先级：瓦片中心到屏幕锁定点的像素距离的平方，非当前层级的瓦片按层级差追加惩罚值。
+     * </p>
+     * @param tile 瓦片，其矩形为屏幕坐标。
+     * @return 下载优先级，值越小越先下载。
+     */
+    private int computePriority(Tile tile) {
+        MapView mv = this.mapView;
+        Rect rect = tile.getRect();
+        if (mv == null || rect == null) {
+            return Integer.MAX_VALUE;
+        }
+        long dx = rect.centerX() - mv.focalPoint.x;
+        long dy = rect.centerY() - mv.focalPoint.y;
+        long priority = dx * dx + dy * dy;
+        priority += Math.abs(tile.getZoomLevel() - mv.getZoomLevel()) * ZOOM_PRIORITY_PENALTY;
+        return (int) Math.min(priority, Integer.MAX_VALUE);
+    }
+
     public void endQueue() {
-        int intersectionCount = 0;
-        int runningSize = this.runningDownloads.size();
         int queueSize = this.queue.size();
         if (queueSize == 0) {
             return;
         }
         // Log.d(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_ENDQUEUE_QUEUESIZE, queueSize));
-        // Log.d(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_ENDQUEUE_RUNNINGSIZE, runningSize));
 
-        for (Iterator<Entry<String, Tile>> it = this.queue.entrySet().iterator(); it.hasNext();) {
-            Tile tile = (Tile) ((Entry<String, Tile>) it.next()).getValue();
-            if (this.runningDownloads.contains(tile.buildCacheKey())) {
-                intersectionCount++;
-                // Log.d(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_BUILDCACHEKEY_INTHREAD, tile.buildCacheKey()));
-            }
+        // 本次请求的瓦片标记为新的视图代数，只对本次涉及的图层判断过期，避免多个图层相互取消
+        int gen = ++this.generation;
+        Set<String> layers = new HashSet<String>();
+        for (Tile tile : this.queue.values()) {
+            tile.setGeneration(gen);
+            layers.add(layerKey(tile));
+        }
+        for (String layer : layers) {
+            this.layerGenerations.put(layer, Integer.valueOf(gen));
         }
-        int numberOfTilesToProcess = queueSize - intersectionCount + (runningSize - intersectionCount);
 
-        if (numberOfTilesToProcess > (int) (queueSize * 1.25D)) {
-            for (Iterator<TileDownloadThread> it = this.threads.iterator(); it.hasNext();) {
-                TileDownloadThread t = (TileDownloadThread) it.next();
-                if (t.isAlive()) {
-                    t.shutdown();
-                }
+        // 下载队列中这些图层的瓦片全部移出：仍需要的按新的优先级重新入队，已不可见的直接丢弃
+        for (Iterator<Tile> it = this.downloadQueue.iterator(); it.hasNext();) {
+            Tile tile = it.next();
+            if (layers.contains(layerKey(tile))) {
                 it.remove();
+                if (!this.queue.containsKey(tile.buildCacheKey())) {
+                    this.statistics.addCancelledTile();
+                }
             }
-            this.runningDownloads.clear();
         }
 
-        int numberOfThreadsToCreate = this.maxRunningDownloads;
+        // 正在下载的瓦片仍需要时更新代数并继续下载，不再重复入队；已不可见且仍在网络传输的中止请求，已在解码的让其完成并写入缓存
+        for (Tile tile : this.runningDownloads.values()) {
+            if (!layers.contains(layerKey(tile))) {
+                continue;
+            }
+            if (this.queue.remove(tile.buildCacheKey()) != null) {
+                tile.setGeneration(gen);
+            } else if (this.transferringDownloads.get(tile.buildCacheKey()) == tile) {
+                abortDownload(tile);
+            }
+        }
+
+        updateHostSharding();
+        int numberOfThreadsToCreate = this.shardedRunningDownloads;
         for (Iterator<TileDownloadThread> it = this.threads.iterator(); it.hasNext();) {
             TileDownloadThread t = (TileDownloadThread) it.next();
 
@@ -169,7 +347,6 @@ class ThreadBasedTileDownloader implements TileDownloader {
             else {
                 it.remove();
             }
-            t.clearQueue();
         }
 
         if (numberOfThreadsToCreate > 0) {
@@ -180,28 +357,122 @@ class ThreadBasedTileDownloader implements TileDownloader {
             }
         }
 
-        int i = 0;
-        for (Iterator<Entry<String, Tile>> it = this.queue.entrySet().iterator(); it.hasNext(); i++) {
+        // 离线数据库中的瓦片按整屏批量读取
+        TileCacher cacher = this.tileCacher;
+        if (cacher != null) {
+            ITileCache sqlite = cacher.getCache(TileCacher.CacheType.SQLITE);
+            if (sqlite instanceof SqliteTileCache) {
+                ((SqliteTileCache) sqlite).expectTiles(this.queue.values());
+            }
+        }
+
+        // 统一放入共享优先级队列，空闲线程总是先取离屏幕中心最近的瓦片
+        for (Iterator<Entry<String, Tile>> it = this.queue.entrySet().iterator(); it.hasNext();) {
             Tile tile = (Tile) ((Entry<String, Tile>) it.next()).getValue();
-            ((TileDownloadThread) this.threads.get(i % this.maxRunningDownloads)).addToQueue(tile);
+            this.downloadQueue.add(tile);
             it.remove();
         }
-        for (Iterator<TileDownloadThread> it = this.threads.iterator(); it.hasNext();) {
-            TileDownloadThread t = (TileDownloadThread) it.next();
-            t.endQueue();
+    }
+
+    /**
+     * <p>
+     * 按各图层的镜像主机数放大下载线程数和自适应并发数上限，并同步各图层单独设置的每主机最大连接数到连接池。
+     * </p>
+     */
+    private void updateHostSharding() {
+        MapView mv = this.mapView;
+        AbstractTileLayerView[] layers = mv == null ? null : mv.getLayers();
+        int shards = 1;
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        if (layers != null) {
+            for (AbstractTileLayerView layer : layers) {
+                String[] hosts = layer.getTileHosts();
+                shards = Math.max(shards, hosts.length);
+                int perHost = layer.getMaxConnectionsPerHost();
+                if (perHost < 1) {
+                    continue;
+                }
+                for (String host : hosts) {
+                    int port = host.lastIndexOf(':');
+                    limits.put(port > 0 ? host.substring(0, port) : host, Integer.valueOf(perHost));
+                }
+            }
+        }
+        int sharded = this.maxRunningDownloads * Math.min(shards, MAX_HOST_SHARDS);
+        if (sharded != this.shardedRunningDownloads) {
+            this.shardedRunningDownloads = sharded;
+            this.concurrencyController.setMaxLimit(sharded);
+        }
+        if (!limits.equals(this.hostConnectionLimits)) {
+            synchronized (this) {
+                this.hostConnectionLimits = limits;
+                if (this.httpConnectionPool != null) {
+                    this.httpConnectionPool.setHostConnectionLimits(limits);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 获取下载线程数，即按镜像主机数放大后的最大下载并发数。
+     * </p>
+     * @return 下载线程数。
+     */
+    int getMaxRunningDownloads() {
+        return this.shardedRunningDownloads;
+    }
+
+    /**
+     * <p>
+     * 获取当前自适应调整后的下载并发数。
+     * </p>
+     * @return 下载并发数。
+     */
+    int getConcurrencyLimit() {
+        return this.concurrencyController.getLimit();
+    }
+
+    private static String layerKey(Tile tile) {
+        return String.valueOf(tile.getLayerNameCache());
+    }
+
+    /**
+     * <p>
+     * 判断瓦片请求是否已过期，即其所属图层在之后又发起了新的请求而该瓦片不在其中。
+     * </p>
+     * @param tile 瓦片。
+     * @return true表示已过期。
+     */
+    boolean isStale(Tile tile) {
+        Integer gen = this.layerGenerations.get(layerKey(tile));
+        return gen != null && tile.getGeneration() < gen.intValue();
+    }
+
+    private void abortDownload(Tile tile) {
+        this.runningDownloads.remove(tile.buildCacheKey());
+        // 其他图层或MapView仍在等待该请求的结果时不中止
+        if (TileFetchRegistry.getInstance().isShared(tile.getUrl())) {
+            return;
+        }
+        long remaining = this.httpConnectionPool != null ? this.httpConnectionPool.abort(tile) : HttpConnectionPool.NOT_ACTIVE;
+        // 请求已经结束时不计为中止
+        if (remaining != HttpConnectionPool.NOT_ACTIVE) {
+            this.statistics.addAbortedDownload(remaining);
         }
     }
 
     private void addToRunning(Tile tile) {
-        this.runningDownloads.add(tile.buildCacheKey());
+        this.runningDownloads.put(tile.buildCacheKey(), tile);
     }
 
     private void removeFromRunning(Tile tile) {
-        this.runningDownloads.remove(tile.buildCacheKey());
+        this.runningDownloads.remove(tile.buildCacheKey(), tile);
     }
 
     public void clearQueue() {
         beginQueue();
+        this.downloadQueue.clear();
     }
 
     public void finishedDownload(Tile tile) {
@@ -254,6 +525,21 @@ class ThreadBasedTileDownloader implements TileDownloader {
             return this.queue.poll();
         }
 
+        /**
+         * <p>
+         * 阻塞式获取队头元素，队列为空时等待直到有新元素加入，仅当内部队列为BlockingQueue时支持阻塞。
+         * </p>
+         * @return 队头元素。
+         * @throws InterruptedException 等待时线程被中断。
+         */
+        public E take() throws InterruptedException {
+            throwExceptionIfBlocked();
+            if (this.queue instanceof BlockingQueue) {
+                return ((BlockingQueue<E>) this.queue).take();
+            }
+            return this.queue.poll();
+        }
+
         public E remove() {
             throwExceptionIfBlocked();
             return this.queue.remove();
@@ -362,6 +648,8 @@ class ThreadBasedTileDownloader implements TileDownloader {
 
         public HttpPipelinerThread() {
             super();
+            // 管线化线程使用自己的队列，不与其他下载线程共享
+            this.queue = new BlockQueue<Tile>(new LinkedList<Tile>());
             this.params = new BasicHttpParams();
             // this.params = new BasicHttpParams();
             HttpProtocolParams.setVersion(this.params, HttpVersion.HTTP_1_1);
@@ -664,36 +952,18 @@ class ThreadBasedTileDownloader implements TileDownloader {
         }
     }
 
-    private class TileDownloadThread extends Thread implements Comparator<Tile> {
-        BlockQueue<Tile> queue = new BlockQueue<Tile>(new PriorityBlockingQueue<Tile>(50, this));
+    private class TileDownloadThread extends Thread {
+        BlockQueue<Tile> queue = ThreadBasedTileDownloader.this.downloadQueue;
         volatile boolean stop = false;
 
         private TileDownloadThread() {
         }
 
-        void addToQueue(Tile tile) {
-            this.queue.add(tile);
-        }
-
-        public void clearQueue() {
-            this.queue.clear();
-        }
-
         void shutdown() {
-            this.queue.clear();
             this.stop = true;
             interrupt();
         }
 
-        public int compare(Tile tile1, Tile tile2) {
-            ITileCache cache = ThreadBasedTileDownloader.this.tileCacher;
-
-            if (cache != null && cache.contains(tile2)) {
-                return 1;
-            }
-            return -1;
-        }
-
         /**
          * <p>
          * 构建Tile的BitMap用于内存缓存存储
@@ -711,10 +981,9 @@ class ThreadBasedTileDownloader implements TileDownloader {
                 BitmapFactory.Options options = new BitmapFactory.Options();
                 // options.inPreferredConfig = Config.ARGB_8888;
                 options.inDither = false;
-                options.inPurgeable = true;
-                options.inInputShareable = true;
-                options.inTempStorage = new byte[32 * 1024];
-                Bitmap bm = BitmapFactory.decodeByteArray(b, 0, b.length, options);
+                options.inTempStorage = DECODE_TEMP_STORAGE.get();
+                // 优先复用内存缓存淘汰下来的同尺寸Bitmap
+                Bitmap bm = BitmapPool.getInstance().decode(b, options);
                 // Log.d(LOG_TAG, "bm.getByteCount():"+(bm.getRowBytes()*bm.getHeight()));
                 tile.setBitMap(bm);
                 // Log.d(LOG_TAG, "constructTileBitMap一次长度为"+b.length+"所需的时间："+(System.currentTimeMillis()-start)+" ms");
@@ -743,17 +1012,88 @@ class ThreadBasedTileDownloader implements TileDownloader {
          * @param tile
          * @return
          */
-        Tile fetchTileFromNetwork(Tile tile) {
+        Tile fetchTileFromNetwork(final Tile tile) {
             if (tile.getUrl() == null || "".equals(tile.getUrl())) {
                 return tile;
             }
-            byte[] b = ThreadBasedTileDownloader.this.getHttpConnectionPoolInstance().get(tile.getUrl());
+            // 入队后该url或其主机可能已进入暂停期
+            if (NegativeTileCache.getInstance().shouldSkip(tile.getUrl(), System.currentTimeMillis())) {
+                ThreadBasedTileDownloader.this.statistics.addNegativeCachedTile();
+                return tile;
+            }
+            // 相同url的瓦片在进程内只下载一次，其他图层或MapView的相同请求等待并共享结果
+            HttpConnectionPool.Result result = TileFetchRegistry.getInstance().fetch(tile.getUrl(), new TileFetchRegistry.Fetcher() {
+                public HttpConnectionPool.Result fetch() {
+                    return download(tile);
+                }
+            }, new TileFetchRegistry.CoalesceListener() {
+                public void onCoalesced() {
+                    ThreadBasedTileDownloader.this.statistics.addCoalescedTile();
+                }
+            });
+            byte[] b = result == null ? null : result.bytes;
+            // 合并到同一请求上的瓦片同样带上新鲜度信息，写入SD卡后才能按时重新验证
+            if (b != null) {
+                tile.setFreshness(result.freshness);
+            }
             tile.setBytes(b);
 
             // tile.setBytes(b);
             return tile;
         }
 
+        /**
+         * <p>
+         * 在并发控制下发起网络请求
+         * </p>
+         * @param tile
+         * @return 请求结果，失败时内容为null，线程被中断时返回null
+         */
+        private HttpConnectionPool.Result download(Tile tile) {
+            AdaptiveConcurrencyController controller = ThreadBasedTileDownloader.this.concurrencyController;
+            try {
+                controller.acquire();
+            } catch (InterruptedException e) {
+                // 线程被关闭，保留中断状态由run方法退出
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            HttpConnectionPool.Result result = null;
+            long start = System.nanoTime();
+            String key = tile.buildCacheKey();
+            ThreadBasedTileDownloader.this.transferringDownloads.put(key, tile);
+            try {
+                result = ThreadBasedTileDownloader.this.getHttpConnectionPoolInstance().fetch(tile.getUrl(), null, tile);
+            } finally {
+                ThreadBasedTileDownloader.this.transferringDownloads.remove(key, tile);
+                controller.release();
+            }
+            byte[] b = result.bytes;
+            long elapsed = System.nanoTime() - start;
+            if (result.attempts > 1) {
+                ThreadBasedTileDownloader.this.statistics.addRetriedRequests(result.attempts - 1);
+            }
+            if (result.statusCode == HttpConnectionPool.STATUS_CIRCUIT_OPEN) {
+                // 主机熔断期间没有发起请求，只能使用缓存中的瓦片
+                ThreadBasedTileDownloader.this.statistics.addShortCircuitedTile();
+                return result;
+            }
+            // 被中止的请求不计入延迟和错误率，也不记为失败
+            if (!ThreadBasedTileDownloader.this.isStale(tile)) {
+                controller.onRequestFinished(elapsed / 1000000L, b != null);
+                if (b != null) {
+                    NegativeTileCache.getInstance().onSuccess(tile.getUrl());
+                } else {
+                    NegativeTileCache.getInstance().onFailure(tile.getUrl(), result.statusCode, System.currentTimeMillis());
+                }
+            }
+            if (b != null) {
+                ThreadBasedTileDownloader.this.statistics.addDownloadedTile(b.length);
+                ThreadBasedTileDownloader.this.statistics.addStage(TileDownloadStatistics.Stage.FETCH, elapsed);
+            }
+            return result;
+        }
+
         /**
          * <p>
          * 先从缓存系统中找到Tile，没有找到则从网络下载后得到Tile
@@ -763,8 +1103,11 @@ class ThreadBasedTileDownloader implements TileDownloader {
          */
         Tile fetchTile(Tile tile) {
             Tile t = fetchTileFromCache(tile);
-            if ((t == null) || (!t.isValid())) {
+            if (((t == null) || (!t.isValid())) && !ThreadBasedTileDownloader.this.isStale(tile)) {
                 t = fetchTileFromNetwork(tile);
+            } else if (t != null && t.getBitmap() == null) {
+                // 从SD卡缓存读取的瓦片，过期时先显示再后台重新验证
+                ThreadBasedTileDownloader.this.revalidateIfExpired(t);
             }
             return t;
         }
@@ -790,17 +1133,30 @@ class ThreadBasedTileDownloader implements TileDownloader {
             }
         }
 
-        public void processTile(Tile tile) {
+        public void processTile(final Tile tile) {
             if (tile != null) {
                 ThreadBasedTileDownloader.this.addToRunning(tile);
+                boolean handedOff = false;
                 try {
                     if (ThreadBasedTileDownloader.this.tileCacher == null)
                         return;
+                    // 出队前视图已变化且该瓦片不再可见，直接丢弃
+                    if (ThreadBasedTileDownloader.this.isStale(tile)) {
+                        ThreadBasedTileDownloader.this.statistics.addCancelledTile();
+                        return;
+                    }
                     fetchTile(tile);// 从内存或者网络中获取
-                    constructTileBitMap(tile);// 如果bitMap为空则构建bitMap
-                    addToMemoryCache(tile);// 加入内存缓存
-                    addToDiskCache(tile);// 加入文件卡缓存
-                    ThreadBasedTileDownloader.this.finishedDownload(tile);
+                    // 下载过程中被中止的请求无需再处理
+                    if (!tile.isValid() && ThreadBasedTileDownloader.this.isStale(tile)) {
+                        return;
+                    }
+                    // 解码及之后的阶段交给解码线程池，下载线程立即处理下一个瓦片
+                    ThreadBasedTileDownloader.this.decodeExecutor.execute(new Runnable() {
+                        public void run() {
+                            decodeTile(tile);
+                        }
+                    });
+                    handedOff = true;
                 } catch (OutOfMemoryError e) {
                     Log.w(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_OUTOFMEMORY, e.getMessage()));
                     System.gc();
@@ -811,8 +1167,43 @@ class ThreadBasedTileDownloader implements TileDownloader {
                     // ThreadBasedTileDownloader.this.mapView.preLoadDelayed(5000L);
                     // Log.d(LOG_TAG, "processTile mapView.preLoadDelayed(5000L)");
                     // }
-                    ThreadBasedTileDownloader.this.removeFromRunning(tile);
+                    if (!handedOff) {
+                        ThreadBasedTileDownloader.this.removeFromRunning(tile);
+                    }
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * 解码阶段，在解码线程池中执行：构建BitMap、加入内存缓存、通知绘制，然后加入SD卡缓存的待写队列
+         * </p>
+         * @param tile
+         */
+        void decodeTile(final Tile tile) {
+            TileDownloadStatistics statistics = ThreadBasedTileDownloader.this.statistics;
+            try {
+                if (tile.getBitmap() == null && tile.getBytes() != null) {
+                    long start = System.nanoTime();
+                    constructTileBitMap(tile);// 如果bitMap为空则构建bitMap
+                    statistics.addStage(TileDownloadStatistics.Stage.DECODE, System.nanoTime() - start);
                 }
+                long start = System.nanoTime();
+                addToMemoryCache(tile);// 加入内存缓存
+                statistics.addStage(TileDownloadStatistics.Stage.CACHE, System.nanoTime() - start);
+                ThreadBasedTileDownloader.this.finishedDownload(tile);
+                if (tile.getBytes() != null) {
+                    start = System.nanoTime();
+                    addToDiskCache(tile);// 加入文件卡缓存，由WriteBehindTileCache异步写入
+                    statistics.addStage(TileDownloadStatistics.Stage.DISK, System.nanoTime() - start);
+                }
+            } catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_OUTOFMEMORY, e.getMessage()));
+                System.gc();
+            } catch (Exception e) {
+                Log.w(LOG_TAG, resource.getMessage(MapCommon.THREADBASEDTILEDOWNLOADER_OUTOFMEMORY_ERROR, e.getMessage()));
+            } finally {
+                ThreadBasedTileDownloader.this.removeFromRunning(tile);
             }
         }
 
@@ -820,9 +1211,9 @@ class ThreadBasedTileDownloader implements TileDownloader {
             while (!this.stop) {
                 Tile tile = null;
                 try {
-                    tile = (Tile) this.queue.poll();
+                    // 队列为空时阻塞等待，有瓦片入队立即唤醒处理，不再固定休眠
+                    tile = (Tile) this.queue.take();
                     processTile(tile);
-                    Thread.sleep(400L);// 必须的，避免cpu空转，占用cpu
                 } catch (InterruptedException e1) {
                     String msg = "InterruptedException occurs :";
                     if (e1.getMessage() != null) {
@@ -847,11 +1238,16 @@ class ThreadBasedTileDownloader implements TileDownloader {
                 // ThreadBasedTileDownloader.access$102(ThreadBasedTileDownloader.this,
                 // true);
                 networkAvailable = true; // added by zhouxu
+                concurrencyController.setNetworkAvailable(true);
+                // 断网期间的网络异常不代表服务端问题，恢复后立即重试
+                NegativeTileCache.getInstance().clearTransientFailures();
+                HttpConnectionPool.resetCircuitBreakers();
                 break;
             case 62:
                 // ThreadBasedTileDownloader.access$102(ThreadBasedTileDownloader.this,
                 // false);
                 networkAvailable = false; // added by zhouxu
+                concurrencyController.setNetworkAvailable(false);
                 break;
             }
 
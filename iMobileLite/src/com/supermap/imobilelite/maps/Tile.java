@@ -27,8 +27,14 @@ public class Tile implements Comparable<Tile> {
     private final int x;
     private final int y;
     private int priority;
+    // 请求该瓦片的视图代数，视图每变化一次代数加一，用于判断瓦片请求是否已过期
+    private volatile int generation;
     private Bitmap bitmap;
+    // 设置Bitmap时其像素内容的代数，Bitmap被复用池交给其他瓦片解码后代数改变，本瓦片不再使用该Bitmap
+    private int bitmapGeneration;
     private byte[] bytes;
+    // 网络响应或SD卡缓存中的新鲜度信息，没有时为null
+    private volatile TileFreshness freshness;
     private final String provider;
     private Rect rect;
     private String key;
@@ -155,7 +161,47 @@ public class Tile implements Comparable<Tile> {
      * @return 
      */
     public int compareTo(Tile tile) {
-        return this.priority - tile.priority;
+        return this.priority < tile.priority ? -1 : (this.priority == tile.priority ? 0 : 1);
+    }
+
+    /**
+     * <p>
+     * 获取瓦片的下载优先级，值越小越先下载。
+     * </p>
+     * @return 下载优先级。
+     */
+    int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * <p>
+     * 设置瓦片的下载优先级，值越小越先下载。
+     * </p>
+     * @param priority 下载优先级。
+     */
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * <p>
+     * 获取请求该瓦片的视图代数。
+     * </p>
+     * @return 视图代数。
+     */
+    int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * <p>
+     * 设置请求该瓦片的视图代数。
+     * </p>
+     * @param generation 视图代数。
+     */
+    void setGeneration(int generation) {
+        this.generation = generation;
     }
 
     /**
@@ -180,6 +226,44 @@ public class Tile implements Comparable<Tile> {
         }
     }
 
+    /**
+     * <p>
+     * 直接使用传入的数组作为瓦片的bytes值，不再复制。
+     * </p>
+     * <p>
+     * 只用于缓存读取新分配的数组，调用方之后不能再修改该数组。
+     * </p>
+     * @param bytes
+     * @since 8.0.0
+     */
+    void adoptBytes(byte[] bytes) {
+        if (bytes != null) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取瓦片的新鲜度信息。
+     * </p>
+     * @return 新鲜度信息，没有时返回null。
+     * @since 8.0.0
+     */
+    TileFreshness getFreshness() {
+        return this.freshness;
+    }
+
+    /**
+     * <p>
+     * 设置瓦片的新鲜度信息。
+     * </p>
+     * @param freshness
+     * @since 8.0.0
+     */
+    void setFreshness(TileFreshness freshness) {
+        this.freshness = freshness;
+    }
+
     /**
      * <p>
      * 获取瓦片的bytes值。
@@ -190,6 +274,26 @@ public class Tile implements Comparable<Tile> {
         return this.bytes;
     }
 
+    /**
+     * <p>
+     * 复制瓦片的标识信息（行列号、缩放层级、图层、缓存键等）、内容和新鲜度信息，不复制Bitmap，供异步写入SD卡缓存时使用。
+     * 内容数组与原瓦片共用，瓦片的内容只会整体替换而不会被修改。
+     * </p>
+     * @return 不带Bitmap的瓦片副本。
+     * @since 8.0.0
+     */
+    Tile copyForStorage() {
+        Tile copy = new Tile(this.x, this.y, this.pixelX, this.pixelY, this.zoomLevel, this.provider, this.layerNameCache);
+        copy.url = this.url;
+        copy.scale = this.scale;
+        copy.transparent = this.transparent;
+        copy.epsgCode = this.epsgCode;
+        copy.key = this.key;
+        copy.bytes = this.bytes;
+        copy.freshness = this.freshness;
+        return copy;
+    }
+
     /**
      * <p>
      * 获取瓦片的矩形。
@@ -314,12 +418,16 @@ public class Tile implements Comparable<Tile> {
 
     /**
      * <p>
-     * 获取瓦片的Bitmap。
+     * 获取瓦片的Bitmap。Bitmap已被内存缓存淘汰并复用于其他瓦片时返回null，不会取到其他瓦片的内容。
      * </p>
      * @return 瓦片的Bitmap。
      */
     public Bitmap getBitmap() {
-        return this.bitmap;
+        Bitmap bm = this.bitmap;
+        if (bm != null && !bm.isRecycled() && bm.getGenerationId() != this.bitmapGeneration) {
+            return null;
+        }
+        return bm;
     }
 
     /**
@@ -329,6 +437,7 @@ public class Tile implements Comparable<Tile> {
      * @param bitmap
      */
     public void setBitMap(Bitmap bitmap) {
+        this.bitmapGeneration = bitmap == null || bitmap.isRecycled() ? 0 : bitmap.getGenerationId();
         this.bitmap = bitmap;
     }
 
@@ -0,0 +1,26 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 内存瓦片缓存的淘汰策略。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public enum TileCachePolicy {
+    /**
+     * <p>
+     * 最近最少使用策略，默认策略。新瓦片总是被缓存，长距离平移或快速滑动时会挤出常用区域的瓦片。
+     * </p>
+     */
+    LRU,
+    /**
+     * <p>
+     * W-TinyLFU策略。新瓦片先进入容量约为总容量五分之一的窗口区，窗口区满时，其中最旧的瓦片只有在近期访问频率高于主区待淘汰瓦片时才能进入主区，
+     * 因而一次性经过的瓦片不会挤出反复访问的区域的瓦片。
+     * </p>
+     */
+    TINY_LFU;
+}
\ No newline at end of file
@@ -1,6 +1,10 @@
 package com.supermap.imobilelite.maps;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.util.Log;
 import android.view.Display;
@@ -13,16 +17,29 @@ class TileCacher implements ITileCache {
     private static ResourceManager resource = new ResourceManager("com.supermap.android.MapCommon");
     // 多少屏幕瓦片的内存缓存，目前设置8个。
     private static final int SCREENCOUNT = 8;
+    // 内存缓存默认占应用可用内存的比例
+    static final float DEFAULT_MEMORY_CACHE_FRACTION = 0.25F;
     private ITileCache memory;
-    private ITileCache db;
+    private volatile ITileCache db;
+    private Context context;
+    private DiskCacheFormat diskCacheFormat = DiskCacheFormat.PACKED;
     private ITileCache sqliteTileCache;
     private int total = 0;
+    // 应用可用内存（ActivityManager.getMemoryClass()），单位字节
+    private long memoryClassBytes = Runtime.getRuntime().maxMemory();
+    private float memoryFraction = DEFAULT_MEMORY_CACHE_FRACTION;
+    private TileCachePolicy memoryPolicy = TileCachePolicy.LRU;
 
     public TileCacher(Context ctx) {
         if (ctx != null) {
+            ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+            if (am != null && am.getMemoryClass() > 0) {
+                this.memoryClassBytes = am.getMemoryClass() * 1024L * 1024L;
+            }
             Display display = ((Activity) ctx).getWindowManager().getDefaultDisplay();
             checkCacheSize(display.getHeight(), display.getWidth());
-            this.db = new FSTileCache(ctx, true);
+            this.context = ctx;
+            this.db = new WriteBehindTileCache(PackedTileCache.acquire(ctx));
             sqliteTileCache = new SqliteTileCache();
         }
     }
@@ -99,10 +116,173 @@ class TileCacher implements ITileCache {
                 this.total = t;
                 if (this.memory != null)
                     this.memory.destroy();
-                this.memory = new MemoryTileCache(this.total);
+                this.memory = new MemoryTileCache(this.total, getMemoryBudget());
+                ((MemoryTileCache) this.memory).setPolicy(this.memoryPolicy);
             }
     }
 
+    /**
+     * <p>
+     * 设置内存缓存的淘汰策略
+     * </p>
+     * @param policy 淘汰策略
+     * @since 8.0.0
+     */
+    public void setMemoryCachePolicy(TileCachePolicy policy) {
+        this.memoryPolicy = policy == null ? TileCachePolicy.LRU : policy;
+        if (this.memory instanceof MemoryTileCache) {
+            ((MemoryTileCache) this.memory).setPolicy(this.memoryPolicy);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置SD卡缓存的容量上限，超出时后台按最近最少使用的顺序淘汰
+     * </p>
+     * @param maxBytes 容量上限，单位字节
+     * @since 8.0.0
+     */
+    public void setDiskCacheSize(long maxBytes) {
+        ITileCache cache = this.db;
+        if (cache instanceof WriteBehindTileCache) {
+            cache = ((WriteBehindTileCache) cache).getDelegate();
+        }
+        if (cache instanceof PackedTileCache) {
+            ((PackedTileCache) cache).setMaxBytes(maxBytes);
+        } else if (cache instanceof MBTilesTileCache) {
+            ((MBTilesTileCache) cache).setMaxBytes(maxBytes);
+        }
+    }
+
+    /**
+     * <p>
+     * 设置SD卡缓存的存储格式，切换时关闭原来的SD卡缓存，原格式中已缓存的瓦片不会迁移
+     * </p>
+     * <p>
+     * 其他线程可能仍在读写原来的缓存，原缓存在这些操作结束后才真正关闭，见{@link WriteBehindTileCache#destroy()}
+     * </p>
+     * @param format 存储格式
+     * @since 8.0.0
+     */
+    public synchronized void setDiskCacheFormat(DiskCacheFormat format) {
+        if (format == null || format == this.diskCacheFormat || this.context == null || this.db == null) {
+            return;
+        }
+        ITileCache old = this.db;
+        long maxBytes = getDiskCacheMaxBytes(old);
+        ITileCache cache = format == DiskCacheFormat.MBTILES ? MBTilesTileCache.acquire(this.context) : PackedTileCache.acquire(this.context);
+        this.db = new WriteBehindTileCache(cache);
+        this.diskCacheFormat = format;
+        if (maxBytes > 0) {
+            setDiskCacheSize(maxBytes);
+        }
+        old.destroy();
+    }
+
+    /**
+     * <p>
+     * 获取SD卡缓存的存储格式
+     * </p>
+     * @return 存储格式
+     * @since 8.0.0
+     */
+    public DiskCacheFormat getDiskCacheFormat() {
+        return this.diskCacheFormat;
+    }
+
+    private static long getDiskCacheMaxBytes(ITileCache cache) {
+        if (cache instanceof WriteBehindTileCache) {
+            cache = ((WriteBehindTileCache) cache).getDelegate();
+        }
+        if (cache instanceof PackedTileCache) {
+            return ((PackedTileCache) cache).getMaxBytes();
+        } else if (cache instanceof MBTilesTileCache) {
+            return ((MBTilesTileCache) cache).getMaxBytes();
+        }
+        return 0;
+    }
+
+    private long getMemoryBudget() {
+        return (long) (this.memoryClassBytes * this.memoryFraction);
+    }
+
+    /**
+     * <p>
+     * 设置内存缓存占应用可用内存的比例，内存缓存按瓦片Bitmap实际占用的字节数淘汰
+     * </p>
+     * @param fraction 比例，取值范围(0,1]
+     * @since 8.0.0
+     */
+    public void setMemoryCacheFraction(float fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            return;
+        }
+        this.memoryFraction = fraction;
+        if (this.memory instanceof MemoryTileCache) {
+            ((MemoryTileCache) this.memory).setMaxBytes(getMemoryBudget());
+        }
+    }
+
+    /**
+     * <p>
+     * 获取内存缓存当前占用的字节数
+     * </p>
+     * @return 字节数
+     * @since 8.0.0
+     */
+    public long getMemoryCacheBytes() {
+        if (this.memory instanceof MemoryTileCache) {
+            return ((MemoryTileCache) this.memory).getCurrentBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * <p>
+     * 获取内存缓存中各图层占用的字节数
+     * </p>
+     * @return 图层缓存名到字节数的映射
+     * @since 8.0.0
+     */
+    public Map<String, Long> getMemoryCacheBytesByLayer() {
+        if (this.memory instanceof MemoryTileCache) {
+            return ((MemoryTileCache) this.memory).getBytesByLayer();
+        }
+        return new HashMap<String, Long>();
+    }
+
+    /**
+     * <p>
+     * 获取内存缓存的去重比例，即缓存的瓦片数与实际持有的Bitmap数之比
+     * </p>
+     * @return 去重比例
+     * @since 8.0.0
+     */
+    public double getMemoryCacheDedupRatio() {
+        if (this.memory instanceof MemoryTileCache) {
+            return ((MemoryTileCache) this.memory).getDedupRatio();
+        }
+        return 1;
+    }
+
+    /**
+     * <p>
+     * 获取SD卡缓存的去重比例，即各瓦片内容的总字节数与实际保存的字节数之比
+     * </p>
+     * @return 去重比例
+     * @since 8.0.0
+     */
+    public double getDiskCacheDedupRatio() {
+        ITileCache cache = this.db;
+        if (cache instanceof WriteBehindTileCache) {
+            cache = ((WriteBehindTileCache) cache).getDelegate();
+        }
+        if (cache instanceof PackedTileCache) {
+            return ((PackedTileCache) cache).getDedupRatio();
+        }
+        return 1;
+    }
+
     public static enum CacheType {
         DB, MEMORY, SQLITE, ALL;
     }
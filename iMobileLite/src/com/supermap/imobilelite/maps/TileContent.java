@@ -0,0 +1,51 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 瓦片内容去重的公共方法。
+ * </p>
+ * <p>
+ * 底图中大量的海洋、空白透明瓦片内容完全相同，且编码后都很小，因此只对不超过{@link #SHAREABLE_MAX_BYTES}的瓦片计算内容散列，
+ * 散列相同时还要逐字节比较确认，散列只用于查找候选。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+final class TileContent {
+    // 参与去重的瓦片内容的最大字节数
+    static final int SHAREABLE_MAX_BYTES = 8 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private TileContent() {
+    }
+
+    /**
+     * <p>
+     * 内容是否参与去重
+     * </p>
+     * @param bytes 瓦片内容
+     * @return
+     */
+    static boolean isShareable(byte[] bytes) {
+        return bytes != null && bytes.length > 0 && bytes.length <= SHAREABLE_MAX_BYTES;
+    }
+
+    /**
+     * <p>
+     * 计算内容的64位FNV-1a散列
+     * </p>
+     * @param bytes 瓦片内容
+     * @return
+     */
+    static long hash(byte[] bytes) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < bytes.length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
\ No newline at end of file
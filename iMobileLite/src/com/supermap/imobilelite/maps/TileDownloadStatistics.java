@@ -0,0 +1,326 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 瓦片下载统计类，记录网络下载的瓦片数和字节数、因视图变化而取消的下载请求，以及被合并的重复请求。
+ * </p>
+ * <p>
+ * 通过 {@link MapView#getTileDownloadStatistics()} 获取，所有计数在多个下载线程间安全累加。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class TileDownloadStatistics {
+    private final AtomicLong downloadedTiles = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong cancelledTiles = new AtomicLong();
+    private final AtomicLong abortedDownloads = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong coalescedTiles = new AtomicLong();
+    private final AtomicLong notModifiedTiles = new AtomicLong();
+    private final AtomicLong refreshedTiles = new AtomicLong();
+    private final AtomicLong negativeCachedTiles = new AtomicLong();
+    private final AtomicLong shortCircuitedTiles = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+    private final AtomicLong[] stageTiles = new AtomicLong[Stage.values().length];
+    private final AtomicLong[] stageNanos = new AtomicLong[Stage.values().length];
+
+    TileDownloadStatistics() {
+        for (int i = 0; i < this.stageTiles.length; i++) {
+            this.stageTiles[i] = new AtomicLong();
+            this.stageNanos[i] = new AtomicLong();
+        }
+    }
+
+    void addStage(Stage stage, long nanos) {
+        this.stageTiles[stage.ordinal()].incrementAndGet();
+        this.stageNanos[stage.ordinal()].addAndGet(nanos);
+    }
+
+    void addDownloadedTile(int bytes) {
+        this.downloadedTiles.incrementAndGet();
+        this.downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * <p>
+     * 记录一个尚未开始下载就被丢弃的瓦片，节省的字节数按已下载瓦片的平均大小估算。
+     * </p>
+     */
+    void addCancelledTile() {
+        this.cancelledTiles.incrementAndGet();
+        this.bytesSaved.addAndGet(getAverageTileBytes());
+    }
+
+    /**
+     * <p>
+     * 记录一个下载过程中被中止的请求。
+     * </p>
+     * @param remainingBytes 中止时尚未读取的字节数，未知时按已下载瓦片的平均大小估算。
+     */
+    void addAbortedDownload(long remainingBytes) {
+        this.abortedDownloads.incrementAndGet();
+        this.bytesSaved.addAndGet(remainingBytes >= 0 ? remainingBytes : getAverageTileBytes());
+    }
+
+    void addCoalescedTile() {
+        this.coalescedTiles.incrementAndGet();
+    }
+
+    void addNegativeCachedTile() {
+        this.negativeCachedTiles.incrementAndGet();
+    }
+
+    void addShortCircuitedTile() {
+        this.shortCircuitedTiles.incrementAndGet();
+    }
+
+    void addRetriedRequests(int count) {
+        this.retriedRequests.addAndGet(count);
+    }
+
+    /**
+     * <p>
+     * 记录一次过期瓦片的重新验证。
+     * </p>
+     * @param notModified 服务端是否返回304。
+     */
+    void addRevalidatedTile(boolean notModified) {
+        if (notModified) {
+            this.notModifiedTiles.incrementAndGet();
+        } else {
+            this.refreshedTiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * <p>
+     * 获取从网络下载成功的瓦片数。
+     * </p>
+     * @return 下载成功的瓦片数。
+     */
+    public long getDownloadedTiles() {
+        return this.downloadedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取从网络下载的瓦片字节总数。
+     * </p>
+     * @return 下载的字节总数。
+     */
+    public long getDownloadedBytes() {
+        return this.downloadedBytes.get();
+    }
+
+    /**
+     * <p>
+     * 获取在下载队列中因不再可见而被丢弃的瓦片数。
+     * </p>
+     * @return 被丢弃的瓦片数。
+     */
+    public long getCancelledTiles() {
+        return this.cancelledTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取下载过程中因不再可见而被中止的请求数。
+     * </p>
+     * @return 被中止的请求数。
+     */
+    public long getAbortedDownloads() {
+        return this.abortedDownloads.get();
+    }
+
+    /**
+     * <p>
+     * 获取因取消和中止请求而节省的字节数（估算值）。
+     * </p>
+     * @return 节省的字节数。
+     */
+    public long getBytesSaved() {
+        return this.bytesSaved.get();
+    }
+
+    /**
+     * <p>
+     * 获取合并到其他图层或MapView正在进行的相同请求上、未单独发起网络请求的瓦片数。
+     * </p>
+     * @return 被合并的瓦片数。
+     */
+    public long getCoalescedTiles() {
+        return this.coalescedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取因最近请求失败仍在暂停期内而跳过的瓦片请求数。
+     * </p>
+     * @return 跳过的请求数。
+     * @since 8.0.0
+     */
+    public long getNegativeCachedTiles() {
+        return this.negativeCachedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取因所在主机熔断而未发起网络请求的瓦片数。
+     * </p>
+     * @return 瓦片数。
+     * @since 8.0.0
+     */
+    public long getShortCircuitedTiles() {
+        return this.shortCircuitedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取网络异常或服务端暂时不可用时的重试次数。
+     * </p>
+     * @return 重试次数。
+     * @since 8.0.0
+     */
+    public long getRetriedRequests() {
+        return this.retriedRequests.get();
+    }
+
+    /**
+     * <p>
+     * 获取重新验证时服务端返回304、只更新了新鲜度信息的过期瓦片数。
+     * </p>
+     * @return 未修改的瓦片数。
+     * @since 8.0.0
+     */
+    public long getNotModifiedTiles() {
+        return this.notModifiedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取重新验证时服务端返回新内容、替换了SD卡缓存的过期瓦片数。
+     * </p>
+     * @return 更新的瓦片数。
+     * @since 8.0.0
+     */
+    public long getRefreshedTiles() {
+        return this.refreshedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取经过指定处理阶段的瓦片数。
+     * </p>
+     * @param stage 处理阶段。
+     * @return 瓦片数。
+     */
+    public long getStageTiles(Stage stage) {
+        return this.stageTiles[stage.ordinal()].get();
+    }
+
+    /**
+     * <p>
+     * 获取指定处理阶段累计耗时，单位毫秒。
+     * </p>
+     * @param stage 处理阶段。
+     * @return 累计耗时。
+     */
+    public long getStageTimeMillis(Stage stage) {
+        return this.stageNanos[stage.ordinal()].get() / 1000000L;
+    }
+
+    /**
+     * <p>
+     * 获取指定处理阶段单个线程每秒可处理的瓦片数，即该阶段的瓦片数除以累计耗时，尚无数据时返回0。
+     * </p>
+     * @param stage 处理阶段。
+     * @return 每秒处理的瓦片数。
+     */
+    public double getStageThroughput(Stage stage) {
+        long nanos = this.stageNanos[stage.ordinal()].get();
+        return nanos > 0 ? this.stageTiles[stage.ordinal()].get() * 1.0E9 / nanos : 0;
+    }
+
+    /**
+     * <p>
+     * 获取已下载瓦片的平均字节数，尚无下载时返回0。
+     * </p>
+     * @return 平均字节数。
+     */
+    public long getAverageTileBytes() {
+        long tiles = this.downloadedTiles.get();
+        return tiles > 0 ? this.downloadedBytes.get() / tiles : 0;
+    }
+
+    /**
+     * <p>
+     * 将所有计数清零。
+     * </p>
+     */
+    public void reset() {
+        this.downloadedTiles.set(0);
+        this.downloadedBytes.set(0);
+        this.cancelledTiles.set(0);
+        this.abortedDownloads.set(0);
+        this.bytesSaved.set(0);
+        this.coalescedTiles.set(0);
+        this.notModifiedTiles.set(0);
+        this.refreshedTiles.set(0);
+        this.negativeCachedTiles.set(0);
+        this.shortCircuitedTiles.set(0);
+        this.retriedRequests.set(0);
+        for (int i = 0; i < this.stageTiles.length; i++) {
+            this.stageTiles[i].set(0);
+            this.stageNanos[i].set(0);
+        }
+    }
+
+    /**
+     * <p>
+     * 统计信息的描述字符串。
+     * </p>
+     * @return 描述字符串。
+     */
+    public String toString() {
+        return "TileDownloadStatistics [downloadedTiles=" + getDownloadedTiles() + ", downloadedBytes=" + getDownloadedBytes() + ", cancelledTiles="
+                + getCancelledTiles() + ", abortedDownloads=" + getAbortedDownloads() + ", bytesSaved=" + getBytesSaved() + ", coalescedTiles=" + getCoalescedTiles() + ", notModifiedTiles=" + getNotModifiedTiles() + ", refreshedTiles=" + getRefreshedTiles() + ", negativeCachedTiles=" + getNegativeCachedTiles() + ", shortCircuitedTiles=" + getShortCircuitedTiles() + ", retriedRequests=" + getRetriedRequests() + ", fetch/s=" + getStageThroughput(Stage.FETCH) + ", decode/s="
+                + getStageThroughput(Stage.DECODE) + ", cache/s=" + getStageThroughput(Stage.CACHE) + ", disk/s=" + getStageThroughput(Stage.DISK) + "]";
+    }
+
+    /**
+     * <p>
+     * 瓦片处理阶段。
+     * </p>
+     */
+    public static enum Stage {
+        /**
+         * <p>
+         * 网络下载。
+         * </p>
+         */
+        FETCH,
+        /**
+         * <p>
+         * 图片解码。
+         * </p>
+         */
+        DECODE,
+        /**
+         * <p>
+         * 加入内存缓存。
+         * </p>
+         */
+        CACHE,
+        /**
+         * <p>
+         * 写入SD卡缓存。
+         * </p>
+         */
+        DISK;
+    }
+}
@@ -0,0 +1,130 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 进程内瓦片网络请求的合并登记表，只允许一个实例。
+ * </p>
+ * <p>
+ * 以瓦片url为键，同一时刻相同url只发起一次网络请求，其他请求者（不同图层或不同MapView）挂到正在进行的请求上等待并共享结果。
+ * 共享的结果包括内容和新鲜度信息，各请求者都能据此写入缓存并在过期后重新验证。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * 
+ */
+class TileFetchRegistry {
+    private static final TileFetchRegistry instance = new TileFetchRegistry();
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong networkFetches = new AtomicLong();
+    private final AtomicLong coalescedFetches = new AtomicLong();
+
+    private TileFetchRegistry() {
+        super();
+    }
+
+    public static TileFetchRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * <p>
+     * 获取瓦片内容，相同键已有请求在进行时等待其结果，否则由当前线程执行请求。
+     * </p>
+     * @param key 请求的键，一般为瓦片url。
+     * @param fetcher 实际执行网络请求的回调。
+     * @param listener 请求被合并时的回调，可为null。
+     * @return 请求结果，所有请求者共享同一对象，不能修改；请求未完成（如线程被中断）时返回null。
+     */
+    HttpConnectionPool.Result fetch(String key, Fetcher fetcher, CoalesceListener listener) {
+        Flight flight = new Flight();
+        Flight existing = this.flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            this.coalescedFetches.incrementAndGet();
+            if (listener != null) {
+                listener.onCoalesced();
+            }
+            return existing.await();
+        }
+        this.networkFetches.incrementAndGet();
+        HttpConnectionPool.Result result = null;
+        try {
+            result = fetcher.fetch();
+        } finally {
+            this.flights.remove(key, flight);
+            flight.complete(result);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * 判断该键的请求是否有其他请求者在等待，有则不应中止该请求。
+     * </p>
+     * @param key 请求的键。
+     * @return true表示有其他请求者在等待。
+     */
+    boolean isShared(String key) {
+        if (key == null) {
+            return false;
+        }
+        Flight flight = this.flights.get(key);
+        return flight != null && flight.waiters.get() > 0;
+    }
+
+    /**
+     * <p>
+     * 获取实际发起的网络请求数。
+     * </p>
+     * @return 网络请求数。
+     */
+    long getNetworkFetches() {
+        return this.networkFetches.get();
+    }
+
+    /**
+     * <p>
+     * 获取被合并到已有请求上的请求数。
+     * </p>
+     * @return 被合并的请求数。
+     */
+    long getCoalescedFetches() {
+        return this.coalescedFetches.get();
+    }
+
+    static abstract interface Fetcher {
+        public abstract HttpConnectionPool.Result fetch();
+    }
+
+    static abstract interface CoalesceListener {
+        public abstract void onCoalesced();
+    }
+
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicInteger waiters = new AtomicInteger();
+        private volatile HttpConnectionPool.Result result;
+
+        void complete(HttpConnectionPool.Result result) {
+            this.result = result;
+            this.done.countDown();
+        }
+
+        HttpConnectionPool.Result await() {
+            this.waiters.incrementAndGet();
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                this.waiters.decrementAndGet();
+            }
+            return this.result;
+        }
+    }
+}
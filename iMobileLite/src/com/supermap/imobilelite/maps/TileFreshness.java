@@ -0,0 +1,168 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * <p>
+ * 瓦片的新鲜度信息：获取时间、服务端的ETag/Last-Modified校验值和有效期。
+ * </p>
+ * <p>
+ * 有效期优先取Cache-Control的max-age，其次取Expires；两者都没有时按Last-Modified距今时间的十分之一估算，最长一天。
+ * 无法确定有效期的瓦片视为一直有效，与没有新鲜度信息的旧缓存一致。对象不可变。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+final class TileFreshness {
+    // 有效期未知
+    static final long UNKNOWN_MAX_AGE = -1L;
+    // 按Last-Modified估算的有效期上限
+    private static final long MAX_HEURISTIC_AGE = 24L * 60 * 60 * 1000;
+    private final long fetchTime;
+    private final long maxAge;
+    private final String etag;
+    private final String lastModified;
+
+    TileFreshness(long fetchTime, long maxAge, String etag, String lastModified) {
+        this.fetchTime = fetchTime;
+        this.maxAge = maxAge;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * <p>
+     * 从响应头解析新鲜度信息
+     * </p>
+     * @param response HTTP响应
+     * @param now 收到响应的时间
+     * @return
+     */
+    static TileFreshness fromResponse(HttpResponse response, long now) {
+        String etag = headerValue(response, "ETag");
+        String lastModified = headerValue(response, "Last-Modified");
+        long maxAge = UNKNOWN_MAX_AGE;
+        Header[] cacheControls = response.getHeaders("Cache-Control");
+        for (int i = 0; i < cacheControls.length && maxAge == UNKNOWN_MAX_AGE; i++) {
+            for (HeaderElement element : cacheControls[i].getElements()) {
+                String name = element.getName();
+                if ("no-cache".equalsIgnoreCase(name)) {
+                    maxAge = 0;
+                    break;
+                }
+                if ("max-age".equalsIgnoreCase(name) && element.getValue() != null) {
+                    try {
+                        maxAge = Math.max(Long.parseLong(element.getValue().trim()), 0) * 1000L;
+                    } catch (NumberFormatException e) {
+                    }
+                    break;
+                }
+            }
+        }
+        if (maxAge == UNKNOWN_MAX_AGE) {
+            Date expires = parseDate(headerValue(response, "Expires"));
+            if (expires != null) {
+                Date date = parseDate(headerValue(response, "Date"));
+                maxAge = Math.max(expires.getTime() - (date == null ? now : date.getTime()), 0);
+            }
+        }
+        if (maxAge == UNKNOWN_MAX_AGE) {
+            Date modified = parseDate(lastModified);
+            if (modified != null && modified.getTime() < now) {
+                maxAge = Math.min((now - modified.getTime()) / 10, MAX_HEURISTIC_AGE);
+            }
+        }
+        return new TileFreshness(now, maxAge, etag, lastModified);
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static Date parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return DateUtils.parseDate(value);
+        } catch (DateParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * 服务端返回304后得到的新信息：获取时间和有效期以304响应为准，响应中没有的校验值沿用原值
+     * </p>
+     * @param notModified 从304响应解析的新鲜度信息
+     * @return
+     */
+    TileFreshness revalidated(TileFreshness notModified) {
+        return new TileFreshness(notModified.fetchTime, notModified.maxAge == UNKNOWN_MAX_AGE ? this.maxAge : notModified.maxAge,
+                notModified.etag == null ? this.etag : notModified.etag, notModified.lastModified == null ? this.lastModified : notModified.lastModified);
+    }
+
+    /**
+     * <p>
+     * 是否已过有效期
+     * </p>
+     * @param now 当前时间
+     * @return
+     */
+    boolean isExpired(long now) {
+        return this.maxAge != UNKNOWN_MAX_AGE && now - this.fetchTime > this.maxAge;
+    }
+
+    /**
+     * <p>
+     * 是否有可用于条件请求的校验值
+     * </p>
+     * @return
+     */
+    boolean hasValidator() {
+        return this.etag != null || this.lastModified != null;
+    }
+
+    long getFetchTime() {
+        return this.fetchTime;
+    }
+
+    long getMaxAge() {
+        return this.maxAge;
+    }
+
+    String getEtag() {
+        return this.etag;
+    }
+
+    String getLastModified() {
+        return this.lastModified;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(this.fetchTime);
+        out.writeLong(this.maxAge);
+        out.writeUTF(this.etag == null ? "" : this.etag);
+        out.writeUTF(this.lastModified == null ? "" : this.lastModified);
+    }
+
+    static TileFreshness readFrom(DataInputStream in) throws IOException {
+        long fetchTime = in.readLong();
+        long maxAge = in.readLong();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        return new TileFreshness(fetchTime, maxAge, etag.length() == 0 ? null : etag, lastModified.length() == 0 ? null : lastModified);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * 瓦片请求的多主机分配。
+ * </p>
+ * <p>
+ * 按瓦片的列号、行号和层级计算稳定的散列值选择主机，同一瓦片总是请求同一主机，服务端和代理的缓存保持有效。
+ * 主机可以带端口（host:port），不带端口时保留原url的端口。对象不可变。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+final class TileHostSelector {
+    private final String[] hosts;
+
+    TileHostSelector(String[] hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * <p>
+     * 按主机列表创建，列表为空时返回null
+     * </p>
+     * @param hosts 主机列表
+     * @return
+     */
+    static TileHostSelector create(String[] hosts) {
+        if (hosts == null) {
+            return null;
+        }
+        List<String> valid = new ArrayList<String>();
+        for (String host : hosts) {
+            if (host != null && host.trim().length() > 0) {
+                valid.add(host.trim());
+            }
+        }
+        return valid.isEmpty() ? null : new TileHostSelector(valid.toArray(new String[valid.size()]));
+    }
+
+    /**
+     * <p>
+     * 展开主机模式，模式中的{a-b}展开为a到b的整数，{x,y,z}展开为各个取值，如t{0-7}.supermapcloud.com展开为t0到t7八个主机。
+     * 只支持一处占位符，没有占位符时返回只含模式本身的数组
+     * </p>
+     * @param pattern 主机模式
+     * @return 主机列表
+     */
+    static String[] expand(String pattern) {
+        if (pattern == null) {
+            return new String[0];
+        }
+        int start = pattern.indexOf('{');
+        int end = pattern.indexOf('}', start + 1);
+        if (start < 0 || end < 0) {
+            return new String[] { pattern };
+        }
+        String prefix = pattern.substring(0, start);
+        String suffix = pattern.substring(end + 1);
+        String body = pattern.substring(start + 1, end);
+        List<String> hosts = new ArrayList<String>();
+        int dash = body.indexOf('-');
+        if (dash > 0 && body.indexOf(',') < 0) {
+            try {
+                int from = Integer.parseInt(body.substring(0, dash).trim());
+                int to = Integer.parseInt(body.substring(dash + 1).trim());
+                for (int i = from; i <= to; i++) {
+                    hosts.add(prefix + i + suffix);
+                }
+                return hosts.toArray(new String[hosts.size()]);
+            } catch (NumberFormatException e) {
+                // 不是数字范围，按列表处理
+            }
+        }
+        for (String value : body.split(",")) {
+            hosts.add(prefix + value.trim() + suffix);
+        }
+        return hosts.toArray(new String[hosts.size()]);
+    }
+
+    String[] getHosts() {
+        return this.hosts.clone();
+    }
+
+    /**
+     * <p>
+     * 选择瓦片对应的主机
+     * </p>
+     * @param tile 瓦片
+     * @return 主机
+     */
+    String select(Tile tile) {
+        int hash = tile.getX() * 0x9E3779B1 + tile.getY() * 0x85EBCA6B + tile.getZoomLevel() * 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return this.hosts[(hash & 0x7FFFFFFF) % this.hosts.length];
+    }
+
+    /**
+     * <p>
+     * 把瓦片url中的主机替换为分配的主机
+     * </p>
+     * @param tile 已设置url的瓦片
+     */
+    void apply(Tile tile) {
+        String url = tile.getUrl();
+        if (url == null) {
+            return;
+        }
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return;
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        String authority = url.substring(authorityStart, authorityEnd);
+        String host = select(tile);
+        if (host.indexOf(':') < 0) {
+            int port = authority.lastIndexOf(':');
+            if (port >= 0 && authority.indexOf(']', port) < 0) {
+                host = host + authority.substring(port);
+            }
+        }
+        tile.setUrl(url.substring(0, authorityStart) + host + url.substring(authorityEnd));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,879 @@
+package com.supermap.imobilelite.maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+/**
+ * <p>
+ * 离线区域下载任务，把指定范围和缩放层级区间内的瓦片下载到SD卡瓦片缓存中，通过{@link MapView#seedTiles}创建。
+ * </p>
+ * <p>
+ * 瓦片按层级、行、列的顺序编号，由UI线程分批构造（与地图浏览时请求的瓦片url和缓存键一致），放入有界队列，
+ * 再由固定个数的下载线程通过任务自己的HTTP连接池下载，已在缓存中的瓦片直接跳过。连接池在任务结束时关闭，不受地图销毁或调整下载并发数的影响；主机熔断仍与地图浏览共用。下载的瓦片每攒够一批写入一次缓存。
+ * </p>
+ * <p>
+ * 进度保存在应用私有目录的tile_seed目录中，记录编号连续完成的位置、其后零散完成的编号和下载失败的编号，每隔几秒先写临时文件再改名。
+ * 任务被取消或进程退出后，用相同的图层、范围和层级区间再次创建任务，会从上次停下的位置继续，并先重试上次失败的瓦片。
+ * 全部完成且没有失败的瓦片时才删除进度文件。
+ * </p>
+ * <p>
+ * 网络异常或5xx的瓦片在本次任务中等待退避后重试几次；仍失败或暂停期较长（如404）的瓦片计入{@link #getFailedTiles()}，留待下次继续任务时重试。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class TileSeedJob {
+    private static final String LOG_TAG = "com.supermap.android.maps.tileseedjob";
+    static final int DEFAULT_THREAD_COUNT = 2;
+    static final int MAX_THREAD_COUNT = 4;
+    // UI线程每次构造的瓦片数，避免长时间占用UI线程
+    private static final int BUILD_CHUNK_SIZE = 64;
+    private static final int QUEUE_CAPACITY = 256;
+    // 队列中的瓦片少于该值时请求UI线程构造下一批
+    private static final int QUEUE_LOW_WATER = 64;
+    private static final int WRITE_BATCH_SIZE = 16;
+    private static final long POLL_TIMEOUT = 500L;
+    private static final long SAVE_INTERVAL = 2000L;
+    private static final long NOTIFY_INTERVAL = 500L;
+    private static final long CIRCUIT_OPEN_WAIT = 2000L;
+    private static final int PROGRESS_MAGIC = 0x53454544;
+    private static final int PROGRESS_VERSION = 2;
+    // 负缓存剩余暂停期不超过该值时等待后重试，否则本次记为失败
+    private static final long NEGATIVE_MAX_WAIT = 30000L;
+    // 网络异常或5xx时每张瓦片最多请求的轮数，每轮连接池内部还会重试
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String PROGRESS_DIR = "tile_seed";
+    private static final int MSG_BUILD = 1;
+
+    private static final int RESULT_DOWNLOADED = 0;
+    private static final int RESULT_SKIPPED = 1;
+    private static final int RESULT_FAILED = 2;
+    private static final int RESULT_CANCELLED = 3;
+
+    private final AbstractTileLayerView layerView;
+    private final ITileCache store;
+    private final HttpConnectionPool connectionPool;
+    private final TileSeedListener listener;
+    private final int minZoom;
+    // 各层级的瓦片行列号范围，没有瓦片的层级为null
+    private final int[][] ranges;
+    // 各层级第一张瓦片的编号，最后一个元素为瓦片总数
+    private final long[] zoomOffsets;
+    private final long totalTiles;
+    private final String jobKey;
+    private final File progressFile;
+    private final LinkedBlockingQueue<SeedTile> queue = new LinkedBlockingQueue<SeedTile>(QUEUE_CAPACITY);
+    private final SeedWorker[] workers;
+    private final Handler handler;
+    private final Object lock = new Object();
+
+    // 以下三项只在UI线程访问
+    private long nextIndex;
+    // 上次保存进度时零散完成、本次继续时不再按顺序构造的瓦片编号
+    private final Set<Long> resumedDone = new HashSet<Long>();
+    // 上次失败、本次先重新构造下载的瓦片编号
+    private final TreeSet<Long> retryIndices = new TreeSet<Long>();
+
+    // 以下由lock保护
+    private boolean buildRequested;
+    private long watermark;
+    private final TreeSet<Long> doneAhead = new TreeSet<Long>();
+    // 最近一次下载失败的瓦片编号，重试成功后移除
+    private final TreeSet<Long> failedIndices = new TreeSet<Long>();
+    private long completedTiles;
+    private long skippedTiles;
+    private long downloadedTiles;
+    private long downloadedBytes;
+    private long sessionStartTime;
+    private long sessionCompletedTiles;
+    private long sessionDownloadedBytes;
+    private long lastSaveTime;
+    private long lastNotifyTime;
+    private int runningWorkers;
+    private long saveSequence;
+
+    // 进度文件的读写在lock之外进行，以saveLock串行化，只写入比已写入的更新的快照
+    private final Object saveLock = new Object();
+    private long writtenSequence;
+
+    private volatile boolean producerDone;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    /**
+     * <p>
+     * 构造下载任务并加载上次保存的进度，必须在UI线程调用。
+     * </p>
+     * @param layerView 已初始化的图层。
+     * @param bounds 下载范围。
+     * @param minZoom 最小缩放层级。
+     * @param maxZoom 最大缩放层级。
+     * @param store 瓦片写入的缓存，任务结束时调用其destroy方法释放。
+     * @param threadCount 下载线程数。
+     * @param listener 监听器，可以为null。
+     */
+    TileSeedJob(AbstractTileLayerView layerView, BoundingBox bounds, int minZoom, int maxZoom, ITileCache store, int threadCount,
+            TileSeedListener listener) {
+        this.layerView = layerView;
+        this.store = store;
+        this.listener = listener;
+        this.minZoom = minZoom;
+        int count = maxZoom - minZoom + 1;
+        this.ranges = new int[count][];
+        this.zoomOffsets = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            int[] range = layerView.getTileRange(bounds, minZoom + i);
+            this.ranges[i] = range;
+            long tiles = range == null ? 0 : (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+            this.zoomOffsets[i + 1] = this.zoomOffsets[i] + tiles;
+        }
+        this.totalTiles = this.zoomOffsets[count];
+        this.jobKey = layerView.getLayerCacheFileName() + "|" + bounds.leftTop.getX() + "," + bounds.leftTop.getY() + ","
+                + bounds.rightBottom.getX() + "," + bounds.rightBottom.getY() + "|" + minZoom + "-" + maxZoom + "|" + this.totalTiles;
+        Context context = layerView.mapView.getContext();
+        File dir = new File(context.getFilesDir(), PROGRESS_DIR);
+        this.progressFile = new File(dir, Integer.toHexString(this.jobKey.hashCode()) + ".progress");
+        loadProgress();
+        this.nextIndex = this.watermark;
+        this.handler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_BUILD) {
+                    buildNextChunk();
+                    return true;
+                }
+                return false;
+            }
+        });
+        int threads = Math.max(1, Math.min(threadCount, MAX_THREAD_COUNT));
+        this.workers = new SeedWorker[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new SeedWorker(i);
+        }
+        this.connectionPool = new HttpConnectionPool(threads, threads, HttpConnectionPool.CONNECTION_TIMEOUT, HttpConnectionPool.READ_TIMEOUT);
+    }
+
+    void start() {
+        synchronized (this.lock) {
+            this.sessionStartTime = System.currentTimeMillis();
+            this.lastSaveTime = this.sessionStartTime;
+            this.runningWorkers = this.workers.length;
+        }
+        if (this.nextIndex >= this.totalTiles && this.retryIndices.isEmpty()) {
+            this.producerDone = true;
+        }
+        Log.d(LOG_TAG, "seeding " + this.totalTiles + " tiles of " + this.layerView.getLayerCacheFileName() + ", resumed at " + this.completedTiles);
+        buildNextChunk();
+        for (SeedWorker worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * <p>
+     * 取消下载任务。已下载的瓦片会写入缓存并保存进度，随后回调{@link TileSeedListener#onFinished(TileSeedJob)}。
+     * </p>
+     * @since 8.0.0
+     */
+    public void cancel() {
+        this.cancelled = true;
+        this.handler.removeMessages(MSG_BUILD);
+        this.queue.clear();
+    }
+
+    /**
+     * <p>
+     * 任务是否已被取消。
+     * </p>
+     * @return 已取消返回true。
+     * @since 8.0.0
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * <p>
+     * 任务是否已结束，包括全部完成和被取消两种情况。
+     * </p>
+     * @return 已结束返回true。
+     * @since 8.0.0
+     */
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * <p>
+     * 获取下载范围内的瓦片总数。
+     * </p>
+     * @return 瓦片总数。
+     * @since 8.0.0
+     */
+    public long getTotalTiles() {
+        return this.totalTiles;
+    }
+
+    /**
+     * <p>
+     * 获取已处理的瓦片数，包括下载成功、下载失败和已在缓存中跳过的瓦片，继续执行的任务包括之前完成的部分。
+     * </p>
+     * @return 已处理的瓦片数。
+     * @since 8.0.0
+     */
+    public long getCompletedTiles() {
+        synchronized (this.lock) {
+            return this.completedTiles;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取下载失败的瓦片数，重试成功的瓦片不再计入。
+     * </p>
+     * @return 下载失败的瓦片数。
+     * @since 8.0.0
+     */
+    public long getFailedTiles() {
+        synchronized (this.lock) {
+            return this.failedIndices.size();
+        }
+    }
+
+    /**
+     * <p>
+     * 获取已在缓存中或不需要下载而跳过的瓦片数。
+     * </p>
+     * @return 跳过的瓦片数。
+     * @since 8.0.0
+     */
+    public long getSkippedTiles() {
+        synchronized (this.lock) {
+            return this.skippedTiles;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取下载成功的瓦片数。
+     * </p>
+     * @return 下载成功的瓦片数。
+     * @since 8.0.0
+     */
+    public long getDownloadedTiles() {
+        synchronized (this.lock) {
+            return this.downloadedTiles;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取已下载的字节数。
+     * </p>
+     * @return 已下载的字节数。
+     * @since 8.0.0
+     */
+    public long getDownloadedBytes() {
+        synchronized (this.lock) {
+            return this.downloadedBytes;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取本次执行以来平均每秒处理的瓦片数。
+     * </p>
+     * @return 每秒处理的瓦片数。
+     * @since 8.0.0
+     */
+    public double getTilesPerSecond() {
+        synchronized (this.lock) {
+            long elapsed = System.currentTimeMillis() - this.sessionStartTime;
+            return elapsed <= 0 ? 0 : this.sessionCompletedTiles * 1000.0 / elapsed;
+        }
+    }
+
+    /**
+     * <p>
+     * 获取本次执行以来平均每秒下载的字节数。
+     * </p>
+     * @return 每秒下载的字节数。
+     * @since 8.0.0
+     */
+    public double getBytesPerSecond() {
+        synchronized (this.lock) {
+            long elapsed = System.currentTimeMillis() - this.sessionStartTime;
+            return elapsed <= 0 ? 0 : this.sessionDownloadedBytes * 1000.0 / elapsed;
+        }
+    }
+
+    /**
+     * <p>
+     * 按本次执行以来的处理速度估算剩余时间。
+     * </p>
+     * @return 剩余时间，单位毫秒，尚无法估算时返回-1。
+     * @since 8.0.0
+     */
+    public long getEstimatedRemainingTime() {
+        double rate = getTilesPerSecond();
+        if (rate <= 0) {
+            return -1;
+        }
+        synchronized (this.lock) {
+            return (long) ((this.totalTiles - this.completedTiles) * 1000.0 / rate);
+        }
+    }
+
+    /**
+     * <p>
+     * 按已下载瓦片的平均大小估算整个下载范围的瓦片占用的字节数。
+     * </p>
+     * @return 估算的字节数，尚未下载任何瓦片时返回-1。
+     * @since 8.0.0
+     */
+    public long getEstimatedTotalBytes() {
+        synchronized (this.lock) {
+            if (this.downloadedTiles == 0) {
+                return -1;
+            }
+            return (long) ((double) this.downloadedBytes / this.downloadedTiles * this.totalTiles);
+        }
+    }
+
+    /**
+     * <p>
+     * 按已下载瓦片的平均大小估算还需要下载的字节数。
+     * </p>
+     * @return 估算的字节数，尚未下载任何瓦片时返回-1。
+     * @since 8.0.0
+     */
+    public long getEstimatedRemainingBytes() {
+        synchronized (this.lock) {
+            if (this.downloadedTiles == 0) {
+                return -1;
+            }
+            return (long) ((double) this.downloadedBytes / this.downloadedTiles * (this.totalTiles - this.completedTiles));
+        }
+    }
+
+    /**
+     * <p>
+     * 在UI线程构造下一批瓦片放入队列，先构造上次失败的瓦片，再按编号顺序构造。
+     * </p>
+     */
+    private void buildNextChunk() {
+        synchronized (this.lock) {
+            this.buildRequested = false;
+        }
+        if (this.cancelled || this.producerDone) {
+            return;
+        }
+        if (this.layerView.mapView == null || this.layerView.getProjection() == null) {
+            Log.w(LOG_TAG, "layer removed from map, seeding cancelled");
+            cancel();
+            return;
+        }
+        if (!this.retryIndices.isEmpty()) {
+            buildRetryChunk();
+        } else {
+            buildSequentialChunk();
+        }
+        // 最后一批入队之后再置位，下载线程看到队列为空且构造完毕才退出
+        if (this.nextIndex >= this.totalTiles && this.retryIndices.isEmpty()) {
+            this.producerDone = true;
+        } else if (this.queue.size() < QUEUE_LOW_WATER) {
+            requestBuild();
+        }
+    }
+
+    private void buildSequentialChunk() {
+        int zi = zoomIndexOf(this.nextIndex);
+        long start = this.nextIndex;
+        int count = (int) Math.min(Math.min(BUILD_CHUNK_SIZE, this.zoomOffsets[zi + 1] - start), this.queue.remainingCapacity());
+        if (count <= 0) {
+            return;
+        }
+        long[] indices = new long[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = start + i;
+        }
+        List<Tile> tiles = buildTiles(zi, indices, count);
+        this.nextIndex = start + count;
+        for (int i = 0; i < count; i++) {
+            if (!this.resumedDone.isEmpty() && this.resumedDone.remove(indices[i])) {
+                continue;
+            }
+            enqueue(indices[i], tiles.get(i), false);
+        }
+    }
+
+    /**
+     * <p>
+     * 构造一批上次失败的瓦片，每批只包含同一层级的瓦片。
+     * </p>
+     */
+    private void buildRetryChunk() {
+        int zi = zoomIndexOf(this.retryIndices.first().longValue());
+        int capacity = Math.min(BUILD_CHUNK_SIZE, this.queue.remainingCapacity());
+        long[] indices = new long[capacity];
+        int count = 0;
+        while (count < capacity && !this.retryIndices.isEmpty() && this.retryIndices.first().longValue() < this.zoomOffsets[zi + 1]) {
+            indices[count++] = this.retryIndices.pollFirst().longValue();
+        }
+        if (count == 0) {
+            return;
+        }
+        List<Tile> tiles = buildTiles(zi, indices, count);
+        for (int i = 0; i < count; i++) {
+            enqueue(indices[i], tiles.get(i), true);
+        }
+    }
+
+    private List<Tile> buildTiles(int zi, long[] indices, int count) {
+        int[] range = this.ranges[zi];
+        int width = range[2] - range[0] + 1;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            long pos = indices[i] - this.zoomOffsets[zi];
+            xs[i] = range[0] + (int) (pos % width);
+            ys[i] = range[1] + (int) (pos / width);
+        }
+        return this.layerView.buildTiles(this.minZoom + zi, xs, ys, count);
+    }
+
+    private void enqueue(long index, Tile tile, boolean retry) {
+        if (tile == null || StringUtils.isEmpty(tile.getUrl())) {
+            markDone(index, RESULT_SKIPPED, 0, retry);
+        } else {
+            this.queue.offer(new SeedTile(index, tile, retry));
+        }
+    }
+
+    private int zoomIndexOf(long index) {
+        int zi = 0;
+        while (this.zoomOffsets[zi + 1] <= index) {
+            zi++;
+        }
+        return zi;
+    }
+
+    private void requestBuild() {
+        synchronized (this.lock) {
+            if (this.buildRequested || this.producerDone || this.cancelled) {
+                return;
+            }
+            this.buildRequested = true;
+        }
+        this.handler.sendEmptyMessage(MSG_BUILD);
+    }
+
+    /**
+     * <p>
+     * 下载一张瓦片。主机熔断期间等待恢复后重试，不记为失败；网络异常或5xx时等待负缓存的退避期后重试，最多{@link #MAX_ATTEMPTS}轮。
+     * </p>
+     */
+    private int download(SeedTile seedTile) {
+        Tile tile = seedTile.tile;
+        try {
+            if (this.store.contains(tile)) {
+                return RESULT_SKIPPED;
+            }
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "check cached tile failed: " + e.getMessage());
+        }
+        String url = tile.getUrl();
+        NegativeTileCache negative = NegativeTileCache.getInstance();
+        int attempts = 0;
+        while (!this.cancelled) {
+            long delay = negative.getRetryDelay(url, System.currentTimeMillis());
+            if (delay > 0) {
+                // 暂停期较长的（如404）本次记为失败，保存到进度中下次继续任务时重试
+                if (delay > NEGATIVE_MAX_WAIT) {
+                    return RESULT_FAILED;
+                }
+                pause(delay);
+                continue;
+            }
+            HttpConnectionPool.Result result = this.connectionPool.fetch(url, null);
+            if (result.statusCode == HttpConnectionPool.STATUS_CIRCUIT_OPEN) {
+                pause(CIRCUIT_OPEN_WAIT);
+                continue;
+            }
+            if (result.bytes == null) {
+                negative.onFailure(url, result.statusCode, System.currentTimeMillis());
+                boolean transientError = result.statusCode == 0 || result.statusCode >= 500;
+                if (transientError && ++attempts < MAX_ATTEMPTS) {
+                    continue;
+                }
+                return RESULT_FAILED;
+            }
+            negative.onSuccess(url);
+            tile.adoptBytes(result.bytes);
+            tile.setFreshness(result.freshness);
+            seedTile.size = result.bytes.length;
+            return RESULT_DOWNLOADED;
+        }
+        return RESULT_CANCELLED;
+    }
+
+    private void pause(long millis) {
+        // 不使用中断唤醒，避免中断正在读写缓存文件的线程
+        long end = System.currentTimeMillis() + millis;
+        while (!this.cancelled && System.currentTimeMillis() < end) {
+            try {
+                Thread.sleep(Math.min(POLL_TIMEOUT, millis));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * 把一批下载成功的瓦片写入缓存，写入后才记为完成，保证保存的进度不超过缓存中实际有的瓦片。
+     * </p>
+     */
+    private void flush(List<SeedTile> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Tile> tiles = new ArrayList<Tile>(batch.size());
+        for (SeedTile seedTile : batch) {
+            tiles.add(seedTile.tile);
+        }
+        boolean written = true;
+        try {
+            if (this.store instanceof PackedTileCache) {
+                ((PackedTileCache) this.store).addTiles(tiles);
+            } else if (this.store instanceof MBTilesTileCache) {
+                ((MBTilesTileCache) this.store).addTiles(tiles);
+            } else {
+                for (Tile tile : tiles) {
+                    this.store.addTile(tile);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "write seeded tiles failed: " + e.getMessage());
+            written = false;
+        }
+        for (SeedTile seedTile : batch) {
+            markDone(seedTile.index, written ? RESULT_DOWNLOADED : RESULT_FAILED, seedTile.size, seedTile.retry);
+        }
+        batch.clear();
+    }
+
+    /**
+     * <p>
+     * 记录一张瓦片的处理结果。重试的瓦片已在编号连续完成的位置之前或零散完成的编号中，只更新失败编号和计数。
+     * </p>
+     */
+    private void markDone(long index, int result, int size, boolean retry) {
+        boolean notify = false;
+        ProgressSnapshot snapshot = null;
+        synchronized (this.lock) {
+            if (result == RESULT_DOWNLOADED) {
+                this.downloadedTiles++;
+                this.downloadedBytes += size;
+                this.sessionDownloadedBytes += size;
+            } else if (result == RESULT_SKIPPED) {
+                this.skippedTiles++;
+            }
+            if (result == RESULT_FAILED) {
+                this.failedIndices.add(Long.valueOf(index));
+            } else if (retry) {
+                this.failedIndices.remove(Long.valueOf(index));
+            }
+            this.completedTiles++;
+            this.sessionCompletedTiles++;
+            if (!retry) {
+                if (index == this.watermark) {
+                    this.watermark++;
+                    while (!this.doneAhead.isEmpty() && this.doneAhead.first().longValue() == this.watermark) {
+                        this.doneAhead.pollFirst();
+                        this.watermark++;
+                    }
+                } else {
+                    this.doneAhead.add(Long.valueOf(index));
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - this.lastSaveTime >= SAVE_INTERVAL) {
+                this.lastSaveTime = now;
+                snapshot = snapshotProgress();
+            }
+            if (this.listener != null && now - this.lastNotifyTime >= NOTIFY_INTERVAL) {
+                this.lastNotifyTime = now;
+                notify = true;
+            }
+        }
+        if (snapshot != null) {
+            saveProgress(snapshot);
+        }
+        if (notify) {
+            this.handler.post(new Runnable() {
+                public void run() {
+                    TileSeedJob.this.listener.onProgress(TileSeedJob.this);
+                }
+            });
+        }
+    }
+
+    private void workerExited() {
+        ProgressSnapshot snapshot = null;
+        synchronized (this.lock) {
+            if (--this.runningWorkers > 0) {
+                return;
+            }
+            // 仍有失败的瓦片时保留进度文件，再次创建同一任务时重试
+            if (this.cancelled || this.completedTiles < this.totalTiles || !this.failedIndices.isEmpty()) {
+                snapshot = snapshotProgress();
+            }
+        }
+        if (snapshot != null) {
+            saveProgress(snapshot);
+        } else {
+            deleteProgress();
+        }
+        this.handler.removeMessages(MSG_BUILD);
+        this.store.destroy();
+        // 所有下载线程都已退出，连接池不再被使用
+        this.connectionPool.shutdown();
+        this.finished = true;
+        Log.d(LOG_TAG, "seeding " + (this.cancelled ? "cancelled" : "finished") + ", downloaded " + getDownloadedTiles() + " tiles, failed "
+                + getFailedTiles());
+        if (this.listener != null) {
+            this.handler.post(new Runnable() {
+                public void run() {
+                    TileSeedJob.this.listener.onFinished(TileSeedJob.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>
+     * 复制当前进度，调用时需持有lock。
+     * </p>
+     */
+    private ProgressSnapshot snapshotProgress() {
+        ProgressSnapshot snapshot = new ProgressSnapshot();
+        snapshot.sequence = ++this.saveSequence;
+        snapshot.watermark = this.watermark;
+        snapshot.skippedTiles = this.skippedTiles;
+        snapshot.downloadedTiles = this.downloadedTiles;
+        snapshot.downloadedBytes = this.downloadedBytes;
+        snapshot.doneAhead = toArray(this.doneAhead);
+        snapshot.failed = toArray(this.failedIndices);
+        return snapshot;
+    }
+
+    private static long[] toArray(Set<Long> indices) {
+        long[] array = new long[indices.size()];
+        int i = 0;
+        for (Long index : indices) {
+            array[i++] = index.longValue();
+        }
+        return array;
+    }
+
+    /**
+     * <p>
+     * 把进度快照写入进度文件，调用时不持有lock。比已写入的快照旧时忽略。
+     * </p>
+     */
+    private void saveProgress(ProgressSnapshot snapshot) {
+        synchronized (this.saveLock) {
+            if (snapshot.sequence <= this.writtenSequence) {
+                return;
+            }
+            this.writtenSequence = snapshot.sequence;
+            File dir = this.progressFile.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.w(LOG_TAG, "create seed progress directory failed: " + dir.getAbsolutePath());
+                return;
+            }
+            File tmp = new File(dir, this.progressFile.getName() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                out.writeInt(PROGRESS_MAGIC);
+                out.writeInt(PROGRESS_VERSION);
+                out.writeUTF(this.jobKey);
+                out.writeLong(snapshot.watermark);
+                out.writeLong(snapshot.skippedTiles);
+                out.writeLong(snapshot.downloadedTiles);
+                out.writeLong(snapshot.downloadedBytes);
+                out.writeInt(snapshot.doneAhead.length);
+                for (long index : snapshot.doneAhead) {
+                    out.writeLong(index);
+                }
+                out.writeInt(snapshot.failed.length);
+                for (long index : snapshot.failed) {
+                    out.writeLong(index);
+                }
+                out.close();
+                out = null;
+                if (!tmp.renameTo(this.progressFile)) {
+                    Log.w(LOG_TAG, "rename seed progress failed: " + this.progressFile.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "save seed progress failed: " + e.getMessage());
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void deleteProgress() {
+        synchronized (this.saveLock) {
+            // 删除后不再写入较早的快照
+            this.writtenSequence = Long.MAX_VALUE;
+            if (this.progressFile.exists() && !this.progressFile.delete()) {
+                Log.w(LOG_TAG, "delete seed progress failed: " + this.progressFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void loadProgress() {
+        if (!this.progressFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.progressFile)));
+            if (in.readInt() != PROGRESS_MAGIC || in.readInt() != PROGRESS_VERSION || !this.jobKey.equals(in.readUTF())) {
+                Log.w(LOG_TAG, "ignore mismatched seed progress: " + this.progressFile.getAbsolutePath());
+                return;
+            }
+            long savedWatermark = in.readLong();
+            long skipped = in.readLong();
+            long downloaded = in.readLong();
+            long bytes = in.readLong();
+            int ahead = in.readInt();
+            TreeSet<Long> done = new TreeSet<Long>();
+            for (int i = 0; i < ahead; i++) {
+                done.add(Long.valueOf(in.readLong()));
+            }
+            int failedCount = in.readInt();
+            TreeSet<Long> failed = new TreeSet<Long>();
+            for (int i = 0; i < failedCount; i++) {
+                failed.add(Long.valueOf(in.readLong()));
+            }
+            this.watermark = Math.min(savedWatermark, this.totalTiles);
+            this.doneAhead.addAll(done);
+            this.resumedDone.addAll(done);
+            this.failedIndices.addAll(failed);
+            this.retryIndices.addAll(failed);
+            this.skippedTiles = skipped;
+            this.downloadedTiles = downloaded;
+            this.downloadedBytes = bytes;
+            // 失败的瓦片重试后再计入完成数
+            this.completedTiles = this.watermark + done.size() - failed.size();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "load seed progress failed: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static class SeedTile {
+        final long index;
+        final Tile tile;
+        // 是否为上次失败后重试的瓦片
+        final boolean retry;
+        int size;
+
+        SeedTile(long index, Tile tile, boolean retry) {
+            this.index = index;
+            this.tile = tile;
+            this.retry = retry;
+        }
+    }
+
+    private static class ProgressSnapshot {
+        long sequence;
+        long watermark;
+        long skippedTiles;
+        long downloadedTiles;
+        long downloadedBytes;
+        long[] doneAhead;
+        long[] failed;
+    }
+
+    private class SeedWorker extends Thread {
+        SeedWorker(int id) {
+            super("TileSeedWorker-" + id);
+            setDaemon(true);
+        }
+
+        public void run() {
+            List<SeedTile> batch = new ArrayList<SeedTile>(WRITE_BATCH_SIZE);
+            try {
+                while (!TileSeedJob.this.cancelled) {
+                    SeedTile seedTile;
+                    try {
+                        seedTile = TileSeedJob.this.queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (TileSeedJob.this.queue.size() < QUEUE_LOW_WATER) {
+                        requestBuild();
+                    }
+                    if (seedTile == null) {
+                        if (TileSeedJob.this.producerDone && TileSeedJob.this.queue.isEmpty()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    int result = download(seedTile);
+                    if (result == RESULT_DOWNLOADED) {
+                        batch.add(seedTile);
+                        if (batch.size() >= WRITE_BATCH_SIZE) {
+                            flush(batch);
+                        }
+                    } else if (result != RESULT_CANCELLED) {
+                        markDone(seedTile.index, result, 0, seedTile.retry);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "seed worker failed: " + e.getMessage());
+            } finally {
+                flush(batch);
+                workerExited();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.supermap.imobilelite.maps;
+
+/**
+ * <p>
+ * 离线区域下载任务的监听器，回调均在UI线程执行。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public interface TileSeedListener {
+    /**
+     * <p>
+     * 下载进度更新，大约每半秒回调一次。
+     * </p>
+     * @param job 下载任务。
+     */
+    public void onProgress(TileSeedJob job);
+
+    /**
+     * <p>
+     * 下载任务结束，包括全部完成和被取消两种情况，可以通过{@link TileSeedJob#isCancelled()}区分。
+     * </p>
+     * @param job 下载任务。
+     */
+    public void onFinished(TileSeedJob job);
+}
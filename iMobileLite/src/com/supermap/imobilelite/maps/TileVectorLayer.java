@@ -54,15 +54,10 @@ public class TileVectorLayer extends AbstractTileLayerView {
     private VectorTileCacher vectorTileCacher;
     // 存储当前所需的不在内存缓存中的所有的瓦片信息
     private List<SVTileMessage> tileList = new ArrayList<SVTileMessage>();
-    private GetSVTilesTask getSVTilesTask;
-    private boolean getSVTilesTaskOver = false;
+    // 读取离线缓存的任务队列，只执行最新视图的读取任务
+    private OfflineTileReader tileReader;
     private RefreshHandler refreshHandler;
     private double[] metaResolutions;
-    private boolean sleep = true;
-    // 读取图片的线程睡眠的时间，单位ms
-    private long sleepTime = 400L;
-    // 是否是第一次出图，第一次就不让读取图片的线程睡眠
-    private boolean firstOutputTile = true;
 
     /**
      * <p>
@@ -345,7 +340,7 @@ public class TileVectorLayer extends AbstractTileLayerView {
         // }
         // }
         // 不包含当前瓦片则查询数据库获取瓦片并存储到 缓存中
-        int index = getResolutionIndex();
+        int index = getResolutionIndex(tile.getZoomLevel());
         if (StringUtils.isEmpty(svtilesPath) || mbtilesHelper == null || !mbtilesHelper.isOpen() || index < 0 || this.tileSize != 256) {
             return;
         }
@@ -363,17 +358,13 @@ public class TileVectorLayer extends AbstractTileLayerView {
     @Override
     public void asyncGetTilesFromCache() {
         // 异步去读取缓存数据tileList
-        if (getSVTilesTask == null) {
-            getSVTilesTask = new GetSVTilesTask();
-            getSVTilesTask.start();
-        }
-        if (!getSVTilesTask.isAlive()) {
-            getSVTilesTask.start();
+        if (tileReader == null) {
+            tileReader = new OfflineTileReader();
         }
         SyncTask task = buildSyncTask();
         if (!"".equals(task.sql)) {
-            // 根据需要不断同步修改需要执行的同步任务
-            getSVTilesTask.setSyncTask(task);
+            // 新的任务取代之前未完成的任务
+            tileReader.submit(new GetSVTilesTask(task));
         }
     }
 
@@ -428,81 +419,65 @@ public class TileVectorLayer extends AbstractTileLayerView {
 
     /**
      * <p>
-     * 读取SVTiles的任务线程，运行一次读取当前屏幕所需的不在内存缓存的所有瓦片，即tileList存储的瓦片
+     * 读取SVTiles的任务，运行一次读取当前屏幕所需的不在内存缓存的所有瓦片，即tileList存储的瓦片
      * </p>
      * @author ${huangqh}
      * @version ${Version}
      * @since 6.1.3
      * 
      */
-    class GetSVTilesTask extends Thread {
+    class GetSVTilesTask extends OfflineTileReader.Task {
         private static final String ROOT_SQL = "SELECT tile_id FROM tiles WHERE (";
-        private SyncTask task = null;// 任务修改需要同步，保证最后加入的任务得以执行而且覆盖以往的等待任务
+        private final SyncTask task;
+
+        GetSVTilesTask(SyncTask task) {
+            this.task = task;
+        }
 
         @Override
         public void run() {
-            while (!getSVTilesTaskOver) {
-                List<String> argus = new ArrayList<String>();
-                // 根据sql语句和sql参数执行查询返回瓦片二进制数组，并做缓存
-                Map<String, List<VectorGeometryData>> byteMap = null;
-                try {
-                    // 异步读取同步任务，非空执行任务
-                    SyncTask st = getSyncTask();
-                    if (st != null && !"".equals(st.sql)) {
-                        String mySql = st.sql;
-                        mySql = ROOT_SQL + mySql + ");";
-                        Log.d(LOG_TAG, "sql:" + mySql);
-                        byteMap = mbtilesHelper.getVectorTiles(mySql, argus);
-//                        if (byteMap != null) {
-//                            Log.d(LOG_TAG, "tileFromMBTiles byteMap size:" + byteMap.size());
-//                        }
-                        if (getTileCacher() != null) {// 判断的原因是主线程停止会置空TileCacher，而子线程还没有立即结束
-                            ITileCache mCache = getTileCacher().getCache(TileCacher.CacheType.MEMORY);
-                            Log.d(LOG_TAG, "st.tiles.size():" + st.tiles.size());
-                            if (byteMap != null && byteMap.size() > 0) {
-                                String rs = getResolutionStr(byteMap);
-                                // int index = getResolutionIndex();
-                                // if (index >= 0 && index < TiledVectorLayer.this.metaResolutions.length) {
-                                if (rs != null) {
-                                    // double r = TiledVectorLayer.this.metaResolutions[index];
-                                    for (int i = 0; i < st.tiles.size(); i++) {
-                                        Tile mTile = st.tiles.get(i);
-                                        // getResolutionString(r)避开科学技术法的double值
-                                        // String key = MBTilesUtil.getResolutionString(r) + "_" + mTile.getX() + "_" + mTile.getY();
-                                        String key = rs + "_" + mTile.getX() + "_" + mTile.getY();
-                                        Log.d(LOG_TAG, "key:" + key);
-                                        List<VectorGeometryData> vgds = byteMap.get(key);
-                                        if (vgds != null && vgds.size() > 0) {
-                                            // todo
-                                            // mTile.setBytes(bs.getBytes(Charset.forName("utf-8")));
-                                            Log.d(LOG_TAG, "List<VectorGeometryData> size:" + vgds.size());
-                                            if (mCache != null && mCache instanceof MemoryVectorTileCache) {
-                                                ((MemoryVectorTileCache) mCache).addTile(mTile, vgds);
-                                            }
-                                        } else {
-                                            Log.d(LOG_TAG, "List<VectorGeometryData> is null");
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    // 刷新地图
-                    if (byteMap != null && byteMap.size() > 0) {
-                        firstOutputTile = false;
-                        // refresh();
-                        // 子线程不能直接调用UI相关控件，所以只能通过把结果以消息的方式告知UI主线程展示结果
-                        refreshHandler.sendEmptyMessage(1);
-                    } else {
-                        if (sleep && !firstOutputTile) {
-                            Thread.sleep(sleepTime);
-                        }
+            SyncTask st = this.task;
+            MBTilesUtil helper = mbtilesHelper;
+            if (st == null || "".equals(st.sql) || helper == null) {
+                return;
+            }
+            List<String> argus = new ArrayList<String>();
+            String mySql = ROOT_SQL + st.sql + ");";
+            Log.d(LOG_TAG, "sql:" + mySql);
+            // 根据sql语句执行查询返回瓦片数据，并做缓存
+            Map<String, List<VectorGeometryData>> byteMap = helper.getVectorTiles(mySql, argus);
+            TileCacher tileCacher = getTileCacher();
+            // 判断TileCacher的原因是主线程停止会置空TileCacher，而读取任务还没有立即结束
+            if (byteMap == null || byteMap.size() < 1 || tileCacher == null) {
+                return;
+            }
+            ITileCache mCache = tileCacher.getCache(TileCacher.CacheType.MEMORY);
+            Log.d(LOG_TAG, "st.tiles.size():" + st.tiles.size());
+            String rs = getResolutionStr(byteMap);
+            if (rs == null) {
+                return;
+            }
+            boolean added = false;
+            for (int i = 0; i < st.tiles.size(); i++) {
+                // 已被新的视图取代，剩余瓦片由新任务读取
+                if (isCancelled()) {
+                    break;
+                }
+                Tile mTile = st.tiles.get(i);
+                String key = rs + "_" + mTile.getX() + "_" + mTile.getY();
+                List<VectorGeometryData> vgds = byteMap.get(key);
+                if (vgds != null && vgds.size() > 0) {
+                    if (mCache != null && mCache instanceof MemoryVectorTileCache) {
+                        ((MemoryVectorTileCache) mCache).addTile(mTile, vgds);
                     }
-                } catch (InterruptedException e) {
-                    Log.d(LOG_TAG, "InterruptedException occurs:" + e.getMessage());
+                    added = true;
                 }
             }
-            // Log.d(LOG_TAG, "成功退出读取离线缓存的子线程");
+            // 刷新地图
+            if (added) {
+                // 子线程不能直接调用UI相关控件，所以只能通过把结果以消息的方式告知UI主线程展示结果
+                refreshHandler.sendEmptyMessage(1);
+            }
         }
 
         private String getResolutionStr(Map<String, List<VectorGeometryData>> byteMap) {
@@ -515,33 +490,6 @@ public class TileVectorLayer extends AbstractTileLayerView {
             }
             return null;
         }
-
-        /**
-         * <p>
-         * 同步修改需要执行的同步任务
-         * </p>
-         * @param task
-         * @since 6.1.3
-         */
-        public synchronized void setSyncTask(SyncTask task) {
-            this.task = task;
-        }
-
-        /**
-         * <p>
-         * 同步读取需要执行的同步任务后并把同步任务置空，置空保证循环执行有意义的任务
-         * </p>
-         * @return
-         * @since 6.1.3
-         */
-        public synchronized SyncTask getSyncTask() {
-            if (task == null) {
-                return null;
-            }
-            SyncTask st = new SyncTask(task.tiles, task.sql);
-            task = null;
-            return st;
-        }
     }
 
     private class RefreshHandler extends Handler {
@@ -558,10 +506,9 @@ public class TileVectorLayer extends AbstractTileLayerView {
     }
 
     public void destroy() {
-        if (getSVTilesTask != null) {
-            getSVTilesTask.interrupt();// 存在sleep，中断无效，所以增加getSVTilesTaskOver标志
-            getSVTilesTaskOver = true;
-            getSVTilesTask = null;
+        if (tileReader != null) {
+            tileReader.close();
+            tileReader = null;
         }
         if (mbtilesHelper != null) {
             mbtilesHelper.close();
@@ -1000,6 +947,19 @@ public class TileVectorLayer extends AbstractTileLayerView {
         }
     }
 
+    /**
+     * <p>
+     * 设置矢量瓦片内存缓存的淘汰策略，默认为{@link TileCachePolicy#LRU}
+     * </p>
+     * @param policy 淘汰策略
+     * @since 8.0.0
+     */
+    public void setMemoryCachePolicy(TileCachePolicy policy) {
+        if (this.vectorTileCacher != null) {
+            this.vectorTileCacher.setMemoryCachePolicy(policy);
+        }
+    }
+
     // public void setSleep(boolean sleep, long time) {
     // this.sleep = sleep;
     // this.sleepTime = time;
@@ -10,13 +10,14 @@ class VectorTileCacher extends TileCacher {
     private ITileCache memoryVT;
     private ITileCache dbVT;
     private int total = 0;
+    private TileCachePolicy memoryPolicy = TileCachePolicy.LRU;
 
     public VectorTileCacher(Context ctx) {
         super(null);
         if (ctx != null) {
             Display display = ((Activity) ctx).getWindowManager().getDefaultDisplay();
             checkMemCacheSize(display.getHeight(), display.getWidth());
-            this.dbVT = new FSTileCache(ctx, true);
+            this.dbVT = new WriteBehindTileCache(PackedTileCache.acquire(ctx));
         }
     }
 
@@ -28,6 +29,7 @@ class VectorTileCacher extends TileCacher {
                 if (this.memoryVT != null)
                     this.memoryVT.destroy();
                 this.memoryVT = new MemoryVectorTileCache(this.total);
+                ((MemoryVectorTileCache) this.memoryVT).setPolicy(this.memoryPolicy);
             }
     }
 
@@ -102,4 +104,12 @@ class VectorTileCacher extends TileCacher {
             ((MemoryVectorTileCache) memoryVT).setCacheSize(size);
         //}
     }
+
+    @Override
+    public void setMemoryCachePolicy(TileCachePolicy policy) {
+        this.memoryPolicy = policy == null ? TileCachePolicy.LRU : policy;
+        if (this.memoryVT instanceof MemoryVectorTileCache) {
+            ((MemoryVectorTileCache) this.memoryVT).setPolicy(this.memoryPolicy);
+        }
+    }
 }
@@ -5,7 +5,6 @@ import org.apache.commons.lang3.StringUtils;
 import com.supermap.imobilelite.commons.Credential;
 
 import android.content.Context;
-import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
 
@@ -281,11 +280,10 @@ public class WMSLayerView extends AbstractTileLayerView {
     public void initTileContext(Tile tile) {
         // http://192.168.120.9:8090/iserver/services/maps/wms111/世界地图_Day?VERSION=1.1.1&REQUEST=GetMap&layers=0.12&STYLES=World&SRS=EPSG:4326&BBOX=-180.0,-90.0,180.0,90.0&WIDTH=800&HEIGHT=400&FORMAT=image/png
         // http://192.168.120.9:8090/iserver/services/map-world/wms130/世界地图_Day?VERSION=1.3.0&REQUEST=GetMap&LAYERS=0.11&STYLES=&CRS=CRS:84&BBOX=-180,-90,180,90&WIDTH=800&HEIGHT=400&FORMAT=image/png。
-        Rect tileRect = tile.getRect();
-        // Point leftTop = new Point(tileRect.left,tileRect.top);
-        // Point rightBottom = new Point(tileRect.right,tileRect.bottom);
-        Point2D leftTop = this.mapView.getProjection().fromPixels(tileRect.left, tileRect.top);
-        Point2D rightBottom = this.mapView.getProjection().fromPixels(tileRect.right, tileRect.bottom);
+        // 按瓦片的行列号和层级计算范围，不依赖瓦片在屏幕上的位置和地图当前的缩放比例
+        BoundingBox tileBounds = this.getProjection().getProjectionUtil().getTileBounds(tile.getX(), tile.getY(), tile.getZoomLevel());
+        Point2D leftTop = tileBounds.leftTop;
+        Point2D rightBottom = tileBounds.rightBottom;
         // 如果要做范围控制的话，对比当前瓦片的bounds是否跟图层的bounds有交集，没有则不设置无效的请求url直接返回，先注释
         // BoundingBox tileBounds = new BoundingBox(leftTop, rightBottom);
         // if (!BoundingBox.intersect(tileBounds, layerBounds)) {
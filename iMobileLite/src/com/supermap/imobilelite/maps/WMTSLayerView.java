@@ -524,7 +524,7 @@ public class WMTSLayerView extends AbstractTileLayerView {
         // if (!BoundingBox.intersect(tileBounds, layerBounds)) {
         // return;
         // }
-        int index = getResolutionIndex();
+        int index = getResolutionIndex(tile.getZoomLevel());
         if (index == -1) {
             return;
         }
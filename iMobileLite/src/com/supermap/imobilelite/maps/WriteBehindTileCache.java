@@ -0,0 +1,436 @@
+package com.supermap.imobilelite.maps;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * <p>
+ * 异步写入的SD卡瓦片缓存。
+ * </p>
+ * <p>
+ * 包装实际的SD卡缓存，addTile只把瓦片放入有界的待写队列后立即返回，由单独的写线程批量写入，下载线程不再等待SD卡。
+ * 相同键的待写瓦片合并为一次写入；待写数据超出上限或可用堆内存不足时直接丢弃新的写入。尚未写入的瓦片仍可通过getTile和contains读到。
+ * </p>
+ * <p>
+ * 待写队列保存的是内容、新鲜度信息和不带Bitmap的瓦片副本，不持有下载线程的瓦片对象，待写期间不会让已解码的Bitmap无法释放。
+ * </p>
+ * <p>
+ * 对实际缓存的每次访问都计数，destroy只通知写线程，不等待写入；写线程写完待写瓦片后不再接受新的访问，等正在进行的访问全部结束后才释放实际缓存，
+ * 切换SD卡缓存格式时已接受的瓦片不会丢失，其他线程也不会用到已关闭的缓存。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+class WriteBehindTileCache implements ITileCache {
+    private static final String LOG_TAG = "com.supermap.android.maps.writebehindtilecache";
+    // 待写数据的上限，单位字节
+    private static final long MAX_PENDING_BYTES = 4L * 1024 * 1024;
+    // 每批最多写入的瓦片数
+    private static final int BATCH_SIZE = 64;
+
+    private final ITileCache delegate;
+    // 待写瓦片，键为瓦片缓存键，以自身为锁
+    private final LinkedHashMap<String, PendingTile> pending = new LinkedHashMap<String, PendingTile>();
+    private long pendingBytes = 0;
+    private volatile boolean closed = false;
+    private final Thread writer;
+    private final AtomicLong writtenTiles = new AtomicLong();
+    private final AtomicLong mergedTiles = new AtomicLong();
+    private final AtomicLong droppedTiles = new AtomicLong();
+    // 正在访问实际缓存的操作数，以usage为锁
+    private final Object usage = new Object();
+    private int users = 0;
+    private boolean retired = false;
+
+    public WriteBehindTileCache(ITileCache delegate) {
+        this.delegate = delegate;
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "tile-write-behind");
+        this.writer.setPriority(Thread.MIN_PRIORITY);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * <p>
+     * 获取实际的SD卡缓存
+     * </p>
+     * @return
+     */
+    ITileCache getDelegate() {
+        return this.delegate;
+    }
+
+    public void addTile(Tile tile) {
+        if ((!tile.isValid()) || (tile.getBytes() == null) || this.closed)
+            return;
+        PendingTile record = new PendingTile(tile);
+        int bytes = record.bytes.length;
+        synchronized (this.pending) {
+            PendingTile old = this.pending.remove(record.key);
+            if (old != null) {
+                this.pendingBytes -= old.bytes.length;
+                this.mergedTiles.incrementAndGet();
+            } else if (this.pendingBytes + bytes > MAX_PENDING_BYTES || isLowMemory()) {
+                this.droppedTiles.incrementAndGet();
+                return;
+            }
+            this.pending.put(record.key, record);
+            this.pendingBytes += bytes;
+            this.pending.notifyAll();
+        }
+    }
+
+    public Tile getTile(Tile tile) {
+        PendingTile queued;
+        synchronized (this.pending) {
+            queued = this.pending.get(tile.buildCacheKey());
+        }
+        if (queued != null) {
+            tile.setBytes(queued.bytes);
+            // 带上新鲜度信息，写入前读回的瓦片过期后同样会重新验证
+            tile.setFreshness(queued.freshness);
+            return tile;
+        }
+        if (!enter()) {
+            return tile;
+        }
+        try {
+            return this.delegate.getTile(tile);
+        } finally {
+            exit();
+        }
+    }
+
+    public void removeTile(Tile tile) {
+        synchronized (this.pending) {
+            PendingTile old = this.pending.remove(tile.buildCacheKey());
+            if (old != null) {
+                this.pendingBytes -= old.bytes.length;
+            }
+        }
+        if (!enter()) {
+            return;
+        }
+        try {
+            this.delegate.removeTile(tile);
+        } finally {
+            exit();
+        }
+    }
+
+    public boolean contains(Tile tile) {
+        synchronized (this.pending) {
+            if (this.pending.containsKey(tile.buildCacheKey())) {
+                return true;
+            }
+        }
+        if (!enter()) {
+            return false;
+        }
+        try {
+            return this.delegate.contains(tile);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * <p>
+     * 重新验证后更新实际缓存中的瓦片，已关闭时忽略
+     * </p>
+     * @param key 瓦片在PackedTileCache中的键
+     * @param tile 瓦片
+     * @param data 新的瓦片内容，服务端返回304时为null
+     * @param freshness 新的新鲜度信息
+     */
+    void refresh(String key, Tile tile, byte[] data, TileFreshness freshness) {
+        if (!enter()) {
+            return;
+        }
+        try {
+            if (this.delegate instanceof PackedTileCache) {
+                ((PackedTileCache) this.delegate).refresh(key, data, freshness);
+            } else if (this.delegate instanceof MBTilesTileCache) {
+                ((MBTilesTileCache) this.delegate).refresh(tile, data, freshness);
+            }
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * <p>
+     * 按目录名清除缓存，参数与{@link FSTileCache#clearByDirName(String)}相同
+     * </p>
+     * @param directoryName Provider的值/图层名，如rest-map/world
+     */
+    public void clearByDirName(String directoryName) {
+        String layerName = directoryName.substring(directoryName.lastIndexOf('/') + 1);
+        synchronized (this.pending) {
+            Iterator<Entry<String, PendingTile>> it = this.pending.entrySet().iterator();
+            while (it.hasNext()) {
+                PendingTile t = it.next().getValue();
+                if (layerName.equals(t.layer)) {
+                    this.pendingBytes -= t.bytes.length;
+                    it.remove();
+                }
+            }
+        }
+        if (!enter()) {
+            return;
+        }
+        try {
+            if (this.delegate instanceof PackedTileCache) {
+                ((PackedTileCache) this.delegate).clearByDirName(directoryName);
+            } else if (this.delegate instanceof MBTilesTileCache) {
+                ((MBTilesTileCache) this.delegate).clearByDirName(directoryName);
+            } else if (this.delegate instanceof FSTileCache) {
+                ((FSTileCache) this.delegate).clearByDirName(directoryName);
+            }
+        } finally {
+            exit();
+        }
+    }
+
+    public void clear() {
+        synchronized (this.pending) {
+            this.pending.clear();
+            this.pendingBytes = 0;
+        }
+        if (!enter()) {
+            return;
+        }
+        try {
+            this.delegate.clear();
+        } finally {
+            exit();
+        }
+    }
+
+    public int size() {
+        long size = 0;
+        if (enter()) {
+            try {
+                size = this.delegate.size();
+            } finally {
+                exit();
+            }
+        }
+        synchronized (this.pending) {
+            return (int) Math.min(size + this.pendingBytes, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * <p>
+     * 关闭缓存：不再接受新的瓦片并立即返回，写线程写完已接受的待写瓦片后不再接受新的访问，正在进行的访问结束后释放实际缓存
+     * </p>
+     */
+    public void destroy() {
+        this.closed = true;
+        synchronized (this.pending) {
+            this.pending.notifyAll();
+        }
+    }
+
+    /**
+     * <p>
+     * 停止访问实际缓存，没有正在进行的访问时立即释放，否则由最后一个访问结束时释放
+     * </p>
+     */
+    private void retire() {
+        boolean release;
+        synchronized (this.usage) {
+            if (this.retired) {
+                return;
+            }
+            this.retired = true;
+            release = this.users == 0;
+        }
+        if (release) {
+            this.delegate.destroy();
+        }
+    }
+
+    /**
+     * <p>
+     * 开始访问实际缓存
+     * </p>
+     * @return 已关闭时返回false，此时不能访问实际缓存
+     */
+    private boolean enter() {
+        synchronized (this.usage) {
+            if (this.retired) {
+                return false;
+            }
+            this.users++;
+            return true;
+        }
+    }
+
+    /**
+     * <p>
+     * 结束访问实际缓存，已关闭且是最后一个访问时释放实际缓存
+     * </p>
+     */
+    private void exit() {
+        boolean release;
+        synchronized (this.usage) {
+            release = --this.users == 0 && this.retired;
+        }
+        if (release) {
+            this.delegate.destroy();
+        }
+    }
+
+    /**
+     * <p>
+     * 获取已写入的瓦片数
+     * </p>
+     * @return
+     */
+    public long getWrittenTiles() {
+        return this.writtenTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取因相同键合并而省去的写入次数
+     * </p>
+     * @return
+     */
+    public long getMergedTiles() {
+        return this.mergedTiles.get();
+    }
+
+    /**
+     * <p>
+     * 获取因待写数据超出上限或内存不足而丢弃的写入次数
+     * </p>
+     * @return
+     */
+    public long getDroppedTiles() {
+        return this.droppedTiles.get();
+    }
+
+    private static boolean isLowMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return available < 2 * MAX_PENDING_BYTES;
+    }
+
+    /**
+     * <p>
+     * 写线程：取一批待写瓦片写入实际的缓存，写完后再从待写队列中移除，写入期间仍可读到。关闭后写完剩余的瓦片再退出，退出时停止访问实际缓存
+     * </p>
+     */
+    private void writeLoop() {
+        try {
+            drain();
+        } finally {
+            retire();
+        }
+    }
+
+    private void drain() {
+        List<PendingTile> records = new ArrayList<PendingTile>(BATCH_SIZE);
+        List<Tile> batch = new ArrayList<Tile>(BATCH_SIZE);
+        while (true) {
+            synchronized (this.pending) {
+                while (this.pending.isEmpty() && !this.closed) {
+                    try {
+                        this.pending.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.pending.isEmpty()) {
+                    return;
+                }
+                Iterator<PendingTile> it = this.pending.values().iterator();
+                while (it.hasNext() && records.size() < BATCH_SIZE) {
+                    records.add(it.next());
+                }
+            }
+            for (PendingTile record : records) {
+                batch.add(record.toTile());
+            }
+            if (!enter()) {
+                return;
+            }
+            try {
+                if (this.delegate instanceof PackedTileCache) {
+                    ((PackedTileCache) this.delegate).addTiles(batch);
+                } else if (this.delegate instanceof MBTilesTileCache) {
+                    ((MBTilesTileCache) this.delegate).addTiles(batch);
+                } else {
+                    for (Tile tile : batch) {
+                        if (!this.delegate.contains(tile)) {
+                            this.delegate.addTile(tile);
+                        }
+                    }
+                }
+                this.writtenTiles.addAndGet(batch.size());
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "write tiles failed: " + e.getMessage());
+            } finally {
+                exit();
+            }
+            synchronized (this.pending) {
+                for (PendingTile record : records) {
+                    // 写入期间被新数据替换的瓦片留到下一批
+                    if (this.pending.get(record.key) == record) {
+                        this.pending.remove(record.key);
+                        this.pendingBytes -= record.bytes.length;
+                    }
+                }
+            }
+            records.clear();
+            batch.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * 待写瓦片，创建后不再改变
+     * </p>
+     */
+    private static final class PendingTile {
+        final String key;
+        final String layer;
+        final byte[] bytes;
+        final TileFreshness freshness;
+        // 不带Bitmap的瓦片副本，只用于向实际缓存传递行列号、图层等标识
+        private final Tile identity;
+
+        PendingTile(Tile tile) {
+            // Tile.setBytes总是复制数据，瓦片的内容数组只会整体替换，不会被修改
+            this.identity = tile.copyForStorage();
+            this.key = this.identity.buildCacheKey();
+            this.layer = this.identity.getLayerNameCache();
+            this.bytes = this.identity.getBytes();
+            this.freshness = this.identity.getFreshness();
+        }
+
+        /**
+         * <p>
+         * 构造写入实际缓存用的瓦片，每次写入新建，写入过程对瓦片的修改不影响本记录
+         * </p>
+         */
+        Tile toTile() {
+            return this.identity.copyForStorage();
+        }
+    }
+}
\ No newline at end of file
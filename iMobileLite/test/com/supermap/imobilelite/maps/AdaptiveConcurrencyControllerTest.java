@@ -0,0 +1,145 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * {@link AdaptiveConcurrencyController}的AIMD模拟测试。
+ * </p>
+ * <p>
+ * 模拟的服务端能同时处理capacity个请求，超出时请求排队，延迟按并发数与capacity之比增长；并发数超过capacity的两倍时多出的请求返回错误。
+ * 网络类型通过{@link NetworkConnectivityListener#setLastKnownNetworkWifi(boolean)}设置。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class AdaptiveConcurrencyControllerTest {
+    private static final long BASE_LATENCY = 80L;
+
+    @Before
+    public void setUp() {
+        NetworkConnectivityListener.setLastKnownNetworkWifi(true);
+    }
+
+    @After
+    public void tearDown() {
+        NetworkConnectivityListener.setLastKnownNetworkWifi(true);
+    }
+
+    @Test
+    public void convergesAroundServerCapacity() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 32, 4, 2);
+        int capacity = 6;
+        simulate(controller, capacity, 200);
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = 0; i < 200; i++) {
+            simulateWindow(controller, capacity);
+            min = Math.min(min, controller.getLimit());
+            max = Math.max(max, controller.getLimit());
+        }
+        // 锯齿形波动：超过两倍容量后错误率很快超过阈值而减半，减半后不低于容量的一半
+        assertTrue("min " + min, min >= capacity / 2);
+        assertTrue("max " + max, max <= capacity * 5 / 2);
+    }
+
+    @Test
+    public void growsToMaxLimitOnFastServer() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 8, 4, 2);
+        simulate(controller, 100, 50);
+        assertEquals(8, controller.getLimit());
+    }
+
+    @Test
+    public void backsOffWhenLatencyRises() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 8);
+        simulate(controller, 100, 10);
+        int before = controller.getLimit();
+        // 服务端变慢：延迟为基准的三倍
+        for (int i = 0; i < before; i++) {
+            controller.onRequestFinished(BASE_LATENCY * 3, true);
+        }
+        assertEquals(before / 2, controller.getLimit());
+    }
+
+    @Test
+    public void cellularCapBoundsGrowth() {
+        NetworkConnectivityListener.setLastKnownNetworkWifi(false);
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 2);
+        for (int i = 0; i < 50; i++) {
+            simulateWindow(controller, 100);
+            assertTrue(controller.getLimit() <= 4);
+        }
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void halvesFromCellularCapAfterSwitchingFromWifi() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 16);
+        NetworkConnectivityListener.setLastKnownNetworkWifi(false);
+        assertEquals(4, controller.getLimit());
+        // 拥塞时从上限4减半，而不是从Wi-Fi下的16减半后仍被上限截成4
+        for (int i = 0; i < 16; i++) {
+            controller.onRequestFinished(BASE_LATENCY, false);
+        }
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void reclampsWhenNetworkTypeChanges() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 16);
+        NetworkConnectivityListener.setLastKnownNetworkWifi(false);
+        controller.setNetworkAvailable(true);
+        // 回到Wi-Fi后从上限4开始加性增，不直接恢复到16
+        NetworkConnectivityListener.setLastKnownNetworkWifi(true);
+        controller.setNetworkAvailable(true);
+        assertEquals(4, controller.getLimit());
+        simulateWindow(controller, 100);
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    public void disconnectDropsToMinLimit() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(2, 16, 4, 10);
+        controller.setNetworkAvailable(false);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void loweringMaxLimitLowersLimit() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 12);
+        controller.setMaxLimit(6);
+        assertEquals(6, controller.getLimit());
+        controller.setMaxLimit(24);
+        simulate(controller, 100, 30);
+        assertEquals(24, controller.getLimit());
+    }
+
+    private static void simulate(AdaptiveConcurrencyController controller, int capacity, int windows) {
+        for (int i = 0; i < windows; i++) {
+            simulateWindow(controller, capacity);
+        }
+    }
+
+    /**
+     * <p>
+     * 以当前并发数同时发出一个评估窗口的请求并反馈结果。
+     * </p>
+     */
+    private static void simulateWindow(AdaptiveConcurrencyController controller, int capacity) {
+        int concurrency = controller.getLimit();
+        int samples = Math.max(4, concurrency);
+        long latency = BASE_LATENCY * Math.max(capacity, concurrency) / capacity;
+        int failures = Math.max(0, concurrency - capacity * 2);
+        for (int i = 0; i < samples; i++) {
+            controller.onRequestFinished(latency, i >= failures);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * {@link FrequencySketch}的计数、衰减和准入测试。
+ * </p>
+ * <p>
+ * 命中率模拟按{@link MemoryTileCache}的结构简化：LRU为单一队列；TINY_LFU为占五分之一容量的窗口区加主区，
+ * 窗口区溢出的瓦片与主区最久未访问的瓦片比较近期访问频率，频率高者留下。主区用LRU代替CLOCK，不影响准入判断的比较。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void countsUpToFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        assertEquals(0, sketch.frequency("0/0/0"));
+        for (int i = 1; i <= 20; i++) {
+            sketch.increment("0/0/0");
+            assertEquals(Math.min(i, 15), sketch.frequency("0/0/0"));
+        }
+    }
+
+    @Test
+    public void neverUnderestimatesBeforeAging() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 5; j++) {
+                sketch.increment("hot/" + i);
+            }
+        }
+        int coldTotal = 0;
+        for (int i = 0; i < 1000; i++) {
+            sketch.increment("cold/" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            coldTotal += sketch.frequency("cold/" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.frequency("hot/" + i) >= 5);
+        }
+        // 散列冲突只会高估，只访问一次的键平均频率应接近1
+        assertTrue("cold average " + coldTotal / 1000.0, coldTotal < 1500);
+    }
+
+    @Test
+    public void halvesCountersAfterSampleSize() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("hot");
+        }
+        // 表宽1024，累计10240次计数后减半
+        int i = 0;
+        while (sketch.frequency("hot") == 15 && i < 20000) {
+            sketch.increment("cold/" + i++);
+        }
+        assertEquals(7, sketch.frequency("hot"));
+        assertTrue("aged after " + i, i > 10000 && i < 10240);
+    }
+
+    @Test
+    public void agingLetsNewHotKeysOvertakeOldOnes() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("old");
+        }
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 640; i++) {
+                sketch.increment(i % 8 == 0 ? "new" : "filler/" + i);
+            }
+        }
+        assertTrue(sketch.frequency("new") > sketch.frequency("old"));
+    }
+
+    @Test
+    public void growingClearsCountsShrinkingKeepsThem() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("key");
+        }
+        sketch.ensureCapacity(16);
+        assertEquals(3, sketch.frequency("key"));
+        sketch.ensureCapacity(4096);
+        assertEquals(0, sketch.frequency("key"));
+    }
+
+    @Test
+    public void tinyLfuBeatsLruWhenPanningPastHomeArea() {
+        // 一半请求落在常看的80张瓦片上，另一半是漫游经过、只看一次的瓦片
+        int capacity = 100;
+        Random random = new Random(42);
+        String[] trace = new String[100000];
+        int scan = 0;
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = random.nextBoolean() ? "home/" + random.nextInt(80) : "pan/" + scan++;
+        }
+        double lru = simulateLru(trace, capacity);
+        double tinyLfu = simulateTinyLfu(trace, capacity);
+        assertTrue("lru " + lru + " tinyLfu " + tinyLfu, tinyLfu > lru + 0.1);
+        // 常看的瓦片几乎都留在缓存中
+        assertTrue("tinyLfu " + tinyLfu, tinyLfu > 0.45);
+    }
+
+    @Test
+    public void tinyLfuStaysCloseToLruOnRecencyTrace() {
+        // 视野内的瓦片反复绘制，视野缓慢移动。新进入视野的瓦片需要积累访问频率才能替换主区的瓦片，
+        // 命中率略低于LRU，这也是默认策略仍为LRU的原因；差距应限制在几个百分点内
+        int capacity = 100;
+        String[] trace = new String[50000];
+        for (int i = 0; i < trace.length; i++) {
+            int origin = i / 500;
+            trace[i] = "view/" + (origin + i % 60);
+        }
+        double lru = simulateLru(trace, capacity);
+        double tinyLfu = simulateTinyLfu(trace, capacity);
+        assertTrue("lru " + lru + " tinyLfu " + tinyLfu, tinyLfu > lru - 0.1);
+    }
+
+    private static double simulateLru(String[] trace, int capacity) {
+        LinkedHashMap<String, Boolean> cache = new LinkedHashMap<String, Boolean>(16, 0.75F, true);
+        int hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+                continue;
+            }
+            cache.put(key, Boolean.TRUE);
+            if (cache.size() > capacity) {
+                Iterator<String> it = cache.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static double simulateTinyLfu(String[] trace, int capacity) {
+        int windowCapacity = Math.max(1, capacity / 5);
+        int mainCapacity = capacity - windowCapacity;
+        FrequencySketch sketch = new FrequencySketch(capacity);
+        LinkedHashMap<String, Boolean> window = new LinkedHashMap<String, Boolean>(16, 0.75F, true);
+        LinkedHashMap<String, Boolean> main = new LinkedHashMap<String, Boolean>(16, 0.75F, true);
+        int hits = 0;
+        for (String key : trace) {
+            sketch.increment(key);
+            if (window.get(key) != null || main.get(key) != null) {
+                hits++;
+                continue;
+            }
+            window.put(key, Boolean.TRUE);
+            if (window.size() <= windowCapacity) {
+                continue;
+            }
+            Iterator<String> it = window.keySet().iterator();
+            String candidate = it.next();
+            it.remove();
+            if (main.size() < mainCapacity) {
+                main.put(candidate, Boolean.TRUE);
+                continue;
+            }
+            Iterator<String> victims = main.keySet().iterator();
+            String victim = victims.next();
+            if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                victims.remove();
+                main.put(candidate, Boolean.TRUE);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+}
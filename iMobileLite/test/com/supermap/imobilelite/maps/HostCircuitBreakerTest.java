@@ -0,0 +1,131 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.supermap.imobilelite.maps.HostCircuitBreaker.State;
+
+/**
+ * <p>
+ * {@link HostCircuitBreaker}的状态转换测试：关闭、打开、半开探测、关闭，以及打开时间的指数退避。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class HostCircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        HostCircuitBreaker breaker = new HostCircuitBreaker();
+        for (int i = 0; i < HostCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest(0));
+            breaker.onFailure(0);
+            assertEquals(State.CLOSED, breaker.getState());
+        }
+        breaker.onFailure(0);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(HostCircuitBreaker.BASE_OPEN_TIME - 1));
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        HostCircuitBreaker breaker = new HostCircuitBreaker();
+        for (int i = 0; i < HostCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.onFailure(0);
+        }
+        breaker.onSuccess();
+        for (int i = 0; i < HostCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.onFailure(0);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbeThenCloses() {
+        HostCircuitBreaker breaker = open(0);
+        long now = HostCircuitBreaker.BASE_OPEN_TIME;
+        assertTrue(breaker.allowRequest(now));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // 探测请求结束前不放行其他请求
+        assertFalse(breaker.allowRequest(now));
+        assertFalse(breaker.allowRequest(now + 1000));
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(now));
+    }
+
+    @Test
+    public void failedProbeDoublesOpenTime() {
+        HostCircuitBreaker breaker = open(0);
+        long now = HostCircuitBreaker.BASE_OPEN_TIME;
+        assertTrue(breaker.allowRequest(now));
+        breaker.onFailure(now);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(now + 2 * HostCircuitBreaker.BASE_OPEN_TIME - 1));
+        assertTrue(breaker.allowRequest(now + 2 * HostCircuitBreaker.BASE_OPEN_TIME));
+    }
+
+    @Test
+    public void openTimeIsCapped() {
+        HostCircuitBreaker breaker = open(0);
+        long now = 0;
+        long openTime = HostCircuitBreaker.BASE_OPEN_TIME;
+        for (int i = 0; i < 30; i++) {
+            now += openTime;
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+            openTime = Math.min(openTime * 2, HostCircuitBreaker.MAX_OPEN_TIME);
+        }
+        assertFalse(breaker.allowRequest(now + HostCircuitBreaker.MAX_OPEN_TIME - 1));
+        assertTrue(breaker.allowRequest(now + HostCircuitBreaker.MAX_OPEN_TIME));
+    }
+
+    @Test
+    public void successAfterBackoffRestartsFromBaseOpenTime() {
+        HostCircuitBreaker breaker = open(0);
+        long now = HostCircuitBreaker.BASE_OPEN_TIME;
+        breaker.allowRequest(now);
+        breaker.onFailure(now);
+        now += 2 * HostCircuitBreaker.BASE_OPEN_TIME;
+        breaker.allowRequest(now);
+        breaker.onSuccess();
+        for (int i = 0; i < HostCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onFailure(now);
+        }
+        assertTrue(breaker.allowRequest(now + HostCircuitBreaker.BASE_OPEN_TIME));
+    }
+
+    @Test
+    public void failuresWhileOpenDoNotExtendOpenTime() {
+        HostCircuitBreaker breaker = open(0);
+        // 打开之前发出的请求陆续失败
+        breaker.onFailure(1000);
+        breaker.onFailure(1500);
+        assertTrue(breaker.allowRequest(HostCircuitBreaker.BASE_OPEN_TIME));
+    }
+
+    @Test
+    public void cancelledProbeReturnsToOpenAndNextRequestProbes() {
+        HostCircuitBreaker breaker = open(0);
+        long now = HostCircuitBreaker.BASE_OPEN_TIME;
+        assertTrue(breaker.allowRequest(now));
+        breaker.onCancelled();
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest(now));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    private static HostCircuitBreaker open(long now) {
+        HostCircuitBreaker breaker = new HostCircuitBreaker();
+        for (int i = 0; i < HostCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onFailure(now);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,119 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * {@link NegativeTileCache}的暂停时间测试：按响应状态区分首次暂停时间，连续失败按指数退避，最长{@link NegativeTileCache#MAX_BACKOFF}。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class NegativeTileCacheTest {
+    private static final String URL = "http://tiles.example.com/1/2/3.png";
+    private NegativeTileCache cache;
+
+    @Before
+    public void setUp() {
+        this.cache = NegativeTileCache.getInstance();
+        this.cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        this.cache.clear();
+    }
+
+    @Test
+    public void notFoundUsesLongestTtl() {
+        this.cache.onFailure(URL, 404, 0);
+        assertEquals(NegativeTileCache.NOT_FOUND_TTL, this.cache.getRetryDelay(URL, 0));
+        this.cache.onFailure("http://tiles.example.com/gone.png", 410, 0);
+        assertEquals(NegativeTileCache.NOT_FOUND_TTL, this.cache.getRetryDelay("http://tiles.example.com/gone.png", 0));
+    }
+
+    @Test
+    public void otherClientErrorsUseClientTtl() {
+        this.cache.onFailure(URL, 403, 0);
+        assertEquals(NegativeTileCache.CLIENT_ERROR_TTL, this.cache.getRetryDelay(URL, 0));
+    }
+
+    @Test
+    public void serverAndNetworkErrorsUseShortTtl() {
+        this.cache.onFailure(URL, 503, 0);
+        assertEquals(NegativeTileCache.SERVER_ERROR_TTL, this.cache.getRetryDelay(URL, 0));
+        this.cache.onFailure("http://tiles.example.com/timeout.png", 0, 0);
+        assertEquals(NegativeTileCache.SERVER_ERROR_TTL, this.cache.getRetryDelay("http://tiles.example.com/timeout.png", 0));
+    }
+
+    @Test
+    public void skipsOnlyUntilRetryTime() {
+        this.cache.onFailure(URL, 500, 1000);
+        assertTrue(this.cache.shouldSkip(URL, 1000 + NegativeTileCache.SERVER_ERROR_TTL - 1));
+        assertFalse(this.cache.shouldSkip(URL, 1000 + NegativeTileCache.SERVER_ERROR_TTL));
+        assertEquals(0, this.cache.getRetryDelay(URL, 1000 + NegativeTileCache.SERVER_ERROR_TTL));
+    }
+
+    @Test
+    public void repeatedFailuresDoubleTheDelay() {
+        long now = 0;
+        long expected = NegativeTileCache.SERVER_ERROR_TTL;
+        for (int i = 0; i < 5; i++) {
+            this.cache.onFailure(URL, 502, now);
+            assertEquals(expected, this.cache.getRetryDelay(URL, now));
+            now += expected;
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        for (int i = 0; i < 40; i++) {
+            this.cache.onFailure(URL, 404, 0);
+        }
+        assertEquals(NegativeTileCache.MAX_BACKOFF, this.cache.getRetryDelay(URL, 0));
+        for (int i = 0; i < 40; i++) {
+            this.cache.onFailure(URL, 0, 0);
+        }
+        assertEquals(NegativeTileCache.MAX_BACKOFF, this.cache.getRetryDelay(URL, 0));
+    }
+
+    @Test
+    public void successClearsBackoff() {
+        this.cache.onFailure(URL, 500, 0);
+        this.cache.onFailure(URL, 500, 0);
+        this.cache.onSuccess(URL);
+        assertFalse(this.cache.shouldSkip(URL, 0));
+        this.cache.onFailure(URL, 500, 0);
+        assertEquals(NegativeTileCache.SERVER_ERROR_TTL, this.cache.getRetryDelay(URL, 0));
+    }
+
+    @Test
+    public void networkRecoveryKeepsOnlyPermanentFailures() {
+        this.cache.onFailure(URL, 404, 0);
+        this.cache.onFailure("http://tiles.example.com/busy.png", 503, 0);
+        this.cache.onFailure("http://tiles.example.com/offline.png", 0, 0);
+        this.cache.clearTransientFailures();
+        assertTrue(this.cache.shouldSkip(URL, 0));
+        assertFalse(this.cache.shouldSkip("http://tiles.example.com/busy.png", 0));
+        assertFalse(this.cache.shouldSkip("http://tiles.example.com/offline.png", 0));
+    }
+
+    @Test
+    public void dropsOldestFailuresBeyondMaxEntries() {
+        for (int i = 0; i <= NegativeTileCache.MAX_ENTRIES; i++) {
+            this.cache.onFailure("http://tiles.example.com/" + i + ".png", 404, 0);
+        }
+        assertEquals(NegativeTileCache.MAX_ENTRIES, this.cache.size());
+        assertFalse(this.cache.shouldSkip("http://tiles.example.com/0.png", 0));
+        assertTrue(this.cache.shouldSkip("http://tiles.example.com/" + NegativeTileCache.MAX_ENTRIES + ".png", 0));
+    }
+}
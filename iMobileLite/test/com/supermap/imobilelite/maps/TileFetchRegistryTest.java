@@ -0,0 +1,283 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * {@link TileFetchRegistry}的请求合并测试。
+ * </p>
+ * <p>
+ * 登记表是进程内唯一实例，计数在各测试间累计，测试只比较前后差值；每个测试使用不同的键。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class TileFetchRegistryTest {
+    private static final long TIMEOUT = 5000L;
+    private final TileFetchRegistry registry = TileFetchRegistry.getInstance();
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        final String key = "http://tiles.example.com/shared.png";
+        final int callers = 8;
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        final AtomicInteger coalesced = new AtomicInteger();
+        final HttpConnectionPool.Result expected = result(200);
+        final HttpConnectionPool.Result[] results = new HttpConnectionPool.Result[callers];
+        long networkBefore = this.registry.getNetworkFetches();
+        long coalescedBefore = this.registry.getCoalescedFetches();
+
+        Thread[] threads = new Thread[callers];
+        for (int i = 0; i < callers; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = registry.fetch(key, new TileFetchRegistry.Fetcher() {
+                        public HttpConnectionPool.Result fetch() {
+                            fetches.incrementAndGet();
+                            await(gate);
+                            return expected;
+                        }
+                    }, new TileFetchRegistry.CoalesceListener() {
+                        public void onCoalesced() {
+                            coalesced.incrementAndGet();
+                        }
+                    });
+                }
+            });
+            threads[i].start();
+        }
+        // 其余请求者都挂到进行中的请求上后再让请求完成
+        waitUntil(new Condition() {
+            public boolean isMet() {
+                return coalesced.get() == callers - 1;
+            }
+        });
+        waitUntil(new Condition() {
+            public boolean isMet() {
+                return registry.isShared(key);
+            }
+        });
+        gate.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+        }
+
+        assertEquals(1, fetches.get());
+        for (HttpConnectionPool.Result result : results) {
+            assertSame(expected, result);
+        }
+        assertEquals(1, this.registry.getNetworkFetches() - networkBefore);
+        assertEquals(callers - 1, this.registry.getCoalescedFetches() - coalescedBefore);
+        assertFalse(this.registry.isShared(key));
+    }
+
+    @Test
+    public void completedFetchIsNotReused() {
+        String key = "http://tiles.example.com/sequential.png";
+        CountingFetcher fetcher = new CountingFetcher(result(200));
+        long networkBefore = this.registry.getNetworkFetches();
+        this.registry.fetch(key, fetcher, null);
+        this.registry.fetch(key, fetcher, null);
+        assertEquals(2, fetcher.count.get());
+        assertEquals(2, this.registry.getNetworkFetches() - networkBefore);
+    }
+
+    @Test
+    public void differentKeysAreNotCoalesced() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        final TileFetchRegistry.Fetcher blocking = new TileFetchRegistry.Fetcher() {
+            public HttpConnectionPool.Result fetch() {
+                fetches.incrementAndGet();
+                await(gate);
+                return result(200);
+            }
+        };
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                registry.fetch("http://tiles.example.com/a.png", blocking, null);
+            }
+        });
+        Thread second = new Thread(new Runnable() {
+            public void run() {
+                registry.fetch("http://tiles.example.com/b.png", blocking, null);
+            }
+        });
+        first.start();
+        second.start();
+        waitUntil(new Condition() {
+            public boolean isMet() {
+                return fetches.get() == 2;
+            }
+        });
+        gate.countDown();
+        first.join(TIMEOUT);
+        second.join(TIMEOUT);
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void failedFetchReleasesWaitersAndKey() throws Exception {
+        final String key = "http://tiles.example.com/failing.png";
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger coalesced = new AtomicInteger();
+        final AtomicReference<HttpConnectionPool.Result> waiterResult = new AtomicReference<HttpConnectionPool.Result>(result(200));
+        Thread owner = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    registry.fetch(key, new TileFetchRegistry.Fetcher() {
+                        public HttpConnectionPool.Result fetch() {
+                            started.countDown();
+                            await(gate);
+                            throw new IllegalStateException("connection reset");
+                        }
+                    }, null);
+                } catch (IllegalStateException e) {
+                    // 异常由发起请求的线程处理
+                }
+            }
+        });
+        owner.start();
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                waiterResult.set(registry.fetch(key, new CountingFetcher(result(200)), new TileFetchRegistry.CoalesceListener() {
+                    public void onCoalesced() {
+                        coalesced.incrementAndGet();
+                    }
+                }));
+            }
+        });
+        waiter.start();
+        waitUntil(new Condition() {
+            public boolean isMet() {
+                return registry.isShared(key);
+            }
+        });
+        gate.countDown();
+        owner.join(TIMEOUT);
+        waiter.join(TIMEOUT);
+        assertEquals(1, coalesced.get());
+        assertNull(waiterResult.get());
+        // 失败后不留下登记，下一次请求重新发起
+        CountingFetcher retry = new CountingFetcher(result(200));
+        assertEquals(200, this.registry.fetch(key, retry, null).statusCode);
+        assertEquals(1, retry.count.get());
+    }
+
+    @Test
+    public void interruptedWaiterGivesUpWithoutCancellingFetch() throws Exception {
+        final String key = "http://tiles.example.com/interrupted.png";
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final HttpConnectionPool.Result expected = result(200);
+        final AtomicReference<HttpConnectionPool.Result> ownerResult = new AtomicReference<HttpConnectionPool.Result>();
+        final AtomicReference<HttpConnectionPool.Result> waiterResult = new AtomicReference<HttpConnectionPool.Result>(expected);
+        final AtomicInteger interrupted = new AtomicInteger();
+        Thread owner = new Thread(new Runnable() {
+            public void run() {
+                ownerResult.set(registry.fetch(key, new TileFetchRegistry.Fetcher() {
+                    public HttpConnectionPool.Result fetch() {
+                        started.countDown();
+                        await(gate);
+                        return expected;
+                    }
+                }, null));
+            }
+        });
+        owner.start();
+        final CountDownLatch coalesced = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                waiterResult.set(registry.fetch(key, new CountingFetcher(result(200)), new TileFetchRegistry.CoalesceListener() {
+                    public void onCoalesced() {
+                        coalesced.countDown();
+                    }
+                }));
+                if (Thread.currentThread().isInterrupted()) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        // 发起请求的线程登记后再启动等待者
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        waiter.start();
+        assertTrue(coalesced.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        waitUntil(new Condition() {
+            public boolean isMet() {
+                return registry.isShared(key);
+            }
+        });
+        waiter.interrupt();
+        waiter.join(TIMEOUT);
+        assertNull(waiterResult.get());
+        assertEquals(1, interrupted.get());
+        assertFalse(this.registry.isShared(key));
+        gate.countDown();
+        owner.join(TIMEOUT);
+        assertSame(expected, ownerResult.get());
+    }
+
+    private static HttpConnectionPool.Result result(int statusCode) {
+        HttpConnectionPool.Result result = new HttpConnectionPool.Result();
+        result.statusCode = statusCode;
+        result.bytes = new byte[] { 1, 2, 3 };
+        result.attempts = 1;
+        return result;
+    }
+
+    private static void await(CountDownLatch gate) {
+        try {
+            if (!gate.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("gate timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met within " + TIMEOUT + "ms");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static interface Condition {
+        boolean isMet();
+    }
+
+    private static class CountingFetcher implements TileFetchRegistry.Fetcher {
+        final AtomicInteger count = new AtomicInteger();
+        private final HttpConnectionPool.Result result;
+
+        CountingFetcher(HttpConnectionPool.Result result) {
+            this.result = result;
+        }
+
+        public HttpConnectionPool.Result fetch() {
+            this.count.incrementAndGet();
+            return this.result;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.supermap.imobilelite.maps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * {@link TileHostSelector}的主机模式展开、分配稳定性和url改写测试。
+ * </p>
+ * @author ${Author}
+ * @version ${Version}
+ * @since 8.0.0
+ * 
+ */
+public class TileHostSelectorTest {
+    private static final String[] HOSTS = { "t0.example.com", "t1.example.com", "t2.example.com", "t3.example.com" };
+
+    @Test
+    public void expandsNumericRange() {
+        assertArrayEquals(new String[] { "t0.example.com", "t1.example.com", "t2.example.com" }, TileHostSelector.expand("t{0-2}.example.com"));
+    }
+
+    @Test
+    public void expandsList() {
+        assertArrayEquals(new String[] { "a.tile.example.com", "b.tile.example.com", "c.tile.example.com" },
+                TileHostSelector.expand("{a, b,c}.tile.example.com"));
+    }
+
+    @Test
+    public void nonNumericRangeIsTreatedAsSingleValue() {
+        assertArrayEquals(new String[] { "a-c.example.com" }, TileHostSelector.expand("{a-c}.example.com"));
+    }
+
+    @Test
+    public void patternWithoutPlaceholderIsKept() {
+        assertArrayEquals(new String[] { "tiles.example.com" }, TileHostSelector.expand("tiles.example.com"));
+        assertArrayEquals(new String[] { "t{0-2.example.com" }, TileHostSelector.expand("t{0-2.example.com"));
+        assertEquals(0, TileHostSelector.expand(null).length);
+    }
+
+    @Test
+    public void createSkipsBlankHosts() {
+        TileHostSelector selector = TileHostSelector.create(new String[] { " t0.example.com ", "", null, "t1.example.com" });
+        assertArrayEquals(new String[] { "t0.example.com", "t1.example.com" }, selector.getHosts());
+        assertNull(TileHostSelector.create(new String[] { " ", null }));
+        assertNull(TileHostSelector.create(null));
+    }
+
+    @Test
+    public void sameTileAlwaysGoesToSameHost() {
+        TileHostSelector first = TileHostSelector.create(HOSTS);
+        TileHostSelector second = TileHostSelector.create(HOSTS.clone());
+        for (int z = 0; z < 4; z++) {
+            for (int x = 0; x < 16; x++) {
+                for (int y = 0; y < 16; y++) {
+                    String host = first.select(tile(x, y, z));
+                    assertEquals(host, first.select(tile(x, y, z)));
+                    assertEquals(host, second.select(tile(x, y, z)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void spreadsTilesEvenlyAcrossHosts() {
+        TileHostSelector selector = TileHostSelector.create(HOSTS);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        int total = 0;
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                String host = selector.select(tile(x, y, 12));
+                Integer count = counts.get(host);
+                counts.put(host, count == null ? 1 : count + 1);
+                total++;
+            }
+        }
+        assertEquals(HOSTS.length, counts.size());
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            double share = (double) e.getValue() / total;
+            assertTrue(e.getKey() + " " + share, share > 0.2 && share < 0.3);
+        }
+    }
+
+    @Test
+    public void neighbouringTilesOnScreenUseSeveralHosts() {
+        // 一屏约4x3张瓦片，应分散到多个主机上并行请求
+        TileHostSelector selector = TileHostSelector.create(HOSTS);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int x = 100; x < 104; x++) {
+            for (int y = 200; y < 203; y++) {
+                counts.put(selector.select(tile(x, y, 10)), 1);
+            }
+        }
+        assertTrue(counts.size() >= 3);
+    }
+
+    @Test
+    public void applyReplacesHostAndKeepsPortAndPath() {
+        TileHostSelector selector = TileHostSelector.create(new String[] { "t0.example.com" });
+        Tile tile = tile(1, 2, 3);
+        tile.setUrl("http://origin.example.com:8090/iserver/services/map/rest/maps/World/tileImage.png?x=1&y=2");
+        selector.apply(tile);
+        assertEquals("http://t0.example.com:8090/iserver/services/map/rest/maps/World/tileImage.png?x=1&y=2", tile.getUrl());
+    }
+
+    @Test
+    public void applyUsesHostPortWhenGiven() {
+        TileHostSelector selector = TileHostSelector.create(new String[] { "t0.example.com:9000" });
+        Tile tile = tile(1, 2, 3);
+        tile.setUrl("https://origin.example.com:8090/tiles?x=1");
+        selector.apply(tile);
+        assertEquals("https://t0.example.com:9000/tiles?x=1", tile.getUrl());
+        tile.setUrl("http://origin.example.com");
+        selector.apply(tile);
+        assertEquals("http://t0.example.com:9000", tile.getUrl());
+    }
+
+    @Test
+    public void applyIgnoresUrlsWithoutScheme() {
+        TileHostSelector selector = TileHostSelector.create(HOSTS);
+        Tile tile = tile(1, 2, 3);
+        tile.setUrl("/relative/tile.png");
+        selector.apply(tile);
+        assertEquals("/relative/tile.png", tile.getUrl());
+    }
+
+    private static Tile tile(int x, int y, int z) {
+        return new Tile(x, y, x * 256, y * 256, z, "rest-map", "World");
+    }
+}